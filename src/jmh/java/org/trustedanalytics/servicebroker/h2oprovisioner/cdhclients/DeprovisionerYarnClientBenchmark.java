@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.ApplicationReport;
+import org.apache.hadoop.yarn.api.records.YarnApplicationState;
+import org.apache.hadoop.yarn.client.api.YarnClient;
+import org.apache.hadoop.yarn.exceptions.YarnException;
+import org.apache.hadoop.yarn.util.Records;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.JobNotFoundException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * H2O jobs looked up in a listing of running YARN applications. YARN client is a mock returning
+ * prepared reports, so only filtering done by the provisioner is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeprovisionerYarnClientBenchmark {
+
+  @Param({"10000"})
+  public int applications;
+
+  /**
+   * Every n-th running application is an H2O job.
+   */
+  @Param({"1", "10"})
+  public int h2oEvery;
+
+  private YarnClient yarnClient;
+  private String lastInstanceId;
+
+  @Setup
+  public void setUp() throws YarnException, IOException {
+    long clusterTimestamp = System.currentTimeMillis();
+    List<ApplicationReport> reports = new ArrayList<>(applications);
+    for (int i = 0; i < applications; i++) {
+      ApplicationReport report = Records.newRecord(ApplicationReport.class);
+      report.setApplicationId(ApplicationId.newInstance(clusterTimestamp, i));
+      report.setName(i % h2oEvery == 0 ? DeprovisionerYarnClient.h2oJobName("instance-" + i)
+          : "QuasiMonteCarlo-" + i);
+      report.setYarnApplicationState(YarnApplicationState.RUNNING);
+      reports.add(report);
+      if (i % h2oEvery == 0) {
+        lastInstanceId = "instance-" + i;
+      }
+    }
+
+    yarnClient = mock(YarnClient.class);
+    when(yarnClient.getApplications(any(), any())).thenReturn(reports);
+  }
+
+  @Benchmark
+  public Map<String, ApplicationId> getRunningH2oJobs() throws YarnException, IOException {
+    return client().getRunningH2oJobs();
+  }
+
+  @Benchmark
+  public ApplicationId getH2oJobIdNotIndexed() throws YarnException, JobNotFoundException {
+    return client().getH2oJobId(lastInstanceId);
+  }
+
+  private DeprovisionerYarnClient client() {
+    // empty job index, so that every lookup lists the applications
+    return new DeprovisionerYarnClient(yarnClient, broken -> {
+    }, new H2oJobIndex.ClusterJobs());
+  }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients;
+
+import com.google.common.io.CharStreams;
+
+import org.apache.hadoop.conf.Configuration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hadoop configuration built from configuration entries of a provisioning request and written as
+ * yarn-site.xml.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HadoopConfigurationBenchmark {
+
+  @Param({"100", "1000", "10000"})
+  public int entries;
+
+  private Map<String, String> request;
+  private Configuration configuration;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    request = new HashMap<>();
+    for (int i = 0; i < entries; i++) {
+      request.put("yarn.benchmark.property." + i, Long.toHexString(random.nextLong())
+          + Long.toHexString(random.nextLong()));
+    }
+    configuration = build(request);
+  }
+
+  @Benchmark
+  public Configuration build() {
+    return build(request);
+  }
+
+  @Benchmark
+  public void writeXml() throws IOException {
+    configuration.writeXml(CharStreams.nullWriter());
+  }
+
+  @Benchmark
+  public void buildAndWriteXml() throws IOException {
+    build(request).writeXml(CharStreams.nullWriter());
+  }
+
+  @Benchmark
+  public ConfigFingerprint fingerprint() {
+    return ConfigFingerprint.of(request);
+  }
+
+  /**
+   * Builds, fingerprints and serializes the configuration, as the configuration cache does on a
+   * miss.
+   */
+  @Benchmark
+  public ImmutableConfiguration immutableConfiguration() {
+    return new ImmutableConfiguration(request);
+  }
+
+  private static Configuration build(Map<String, String> entries) {
+    Configuration conf = new Configuration(false);
+    entries.forEach(conf::set);
+    return conf;
+  }
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.ports;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link RangedPortsPool#getPort()} called by concurrent provisioning requests, with a part of
+ * the range taken by other processes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class RangedPortsPoolBenchmark {
+
+  private static final int LOWER_BOUND = 54300;
+
+  @Param({"20", "1000"})
+  public int rangeSize;
+
+  /**
+   * Fraction of ports in the range which are not available.
+   */
+  @Param({"0.0", "0.5", "0.95"})
+  public double occupancy;
+
+  private RangedPortsPool pool;
+
+  @Setup
+  public void setUp() {
+    BitSet occupied = new BitSet(rangeSize);
+    Random random = new Random(42);
+    for (int i = 0; i < rangeSize; i++) {
+      occupied.set(i, random.nextDouble() < occupancy);
+    }
+    // one free port at least, so that getPort does not fail
+    occupied.clear(rangeSize - 1);
+    pool = new RangedPortsPool(new FakePortChecker(occupied), LOWER_BOUND,
+        LOWER_BOUND + rangeSize - 1);
+  }
+
+  @Benchmark
+  public int getPort() throws IOException {
+    return pool.getPort();
+  }
+
+  private static final class FakePortChecker implements PortChecker {
+    private final BitSet occupied;
+
+    private FakePortChecker(BitSet occupied) {
+      this.occupied = occupied;
+    }
+
+    @Override
+    public boolean isAvailable(int port) {
+      return !occupied.get(port - LOWER_BOUND);
+    }
+  }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.service.externals;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Flow address read from h2odriver notify file, which may hold more lines than the address.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class H2oUiFileParserBenchmark {
+
+  @Param({"1", "10000", "1000000"})
+  public int lines;
+
+  private final H2oUiFileParser parser = new H2oUiFileParser();
+  private Path notifyFile;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    notifyFile = Files.createTempFile("h2o_ui_benchmark_", null);
+    try (BufferedWriter writer = Files.newBufferedWriter(notifyFile, StandardCharsets.UTF_8)) {
+      writer.write("10.10.10.10:54321");
+      for (int i = 1; i < lines; i++) {
+        writer.newLine();
+        writer.write("10.10.10." + (i % 256) + ":" + (54321 + i % 100));
+      }
+      writer.newLine();
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(notifyFile);
+  }
+
+  @Benchmark
+  public String getFlowUrl() throws IOException {
+    return parser.getFlowUrl(notifyFile.toString());
+  }
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.helpers;
+
+import com.google.common.collect.ImmutableMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Environment and command line of a child process, built for every kinit and h2odriver launch.
+ * {@code copyWholeEnvironment} is the former way of building the environment, kept as baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProcessEnvBenchmark {
+
+  private final Map<String, String> driverEnv =
+      ImmutableMap.of("HADOOP_USER_NAME", "cf", "HADOOP_CONF_DIR", "/tmp/h2o-hadoop-conf/1a2b3c");
+
+  private final CommandTemplate driverCommand = CommandTemplate.builder()
+      .arg("hadoop", "jar", "./h2odriver.jar", "-driverif", "127.0.0.1", "-driverport").slot()
+      .arg("-mapperXmx").slot().arg("-nodes").slot().arg("-output").slot()
+      .arg("-jobname").slot().arg("-username").slot().arg("-password").slot()
+      .arg("-disown").build();
+
+  @Benchmark
+  public String[] copyWholeEnvironment() {
+    Map<String, String> environment = new HashMap<String, String>(System.getenv());
+    environment.putAll(driverEnv);
+
+    String[] processEnv = new String[environment.size()];
+    int count = 0;
+    for (Map.Entry<String, String> variable : environment.entrySet()) {
+      processEnv[count++] = variable.getKey() + "=" + variable.getValue();
+    }
+    return processEnv;
+  }
+
+  @Benchmark
+  public String[] noVariables() {
+    return LaunchEnvironment.system().toArray();
+  }
+
+  @Benchmark
+  public String[] driverVariables() {
+    return LaunchEnvironment.system().with(driverEnv).toArray();
+  }
+
+  @Benchmark
+  public String[] driverCommand() {
+    return driverCommand.fill("54321", "512m", "1", "/tmp/h2o/instance", "H2O_BROKER_instance",
+        "user", "password");
+  }
+}
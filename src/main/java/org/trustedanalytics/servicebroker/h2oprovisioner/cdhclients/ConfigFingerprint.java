@@ -0,0 +1,64 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Stable hash of hadoop configuration entries; order of the entries does not matter.
+ */
+@Getter
+@EqualsAndHashCode
+public final class ConfigFingerprint {
+
+  private final String value;
+
+  private ConfigFingerprint(String value) {
+    this.value = value;
+  }
+
+  public static ConfigFingerprint of(Map<String, String> entries) {
+    return of(entries.entrySet());
+  }
+
+  public static ConfigFingerprint of(Iterable<Map.Entry<String, String>> entries) {
+    Map<String, String> sorted = new TreeMap<>();
+    entries.forEach(entry -> sorted.put(entry.getKey(), entry.getValue()));
+
+    Hasher hasher = Hashing.sha256().newHasher();
+    sorted.forEach((key, value) -> hasher.putString(key, StandardCharsets.UTF_8).putByte((byte) 0)
+        .putString(value, StandardCharsets.UTF_8).putByte((byte) 0));
+    return new ConfigFingerprint(hasher.hash().toString());
+  }
+
+  /**
+   * @param value value of a fingerprint computed earlier, see {@link #getValue()}
+   */
+  public static ConfigFingerprint valueOf(String value) {
+    return new ConfigFingerprint(value);
+  }
+
+  @Override
+  public String toString() {
+    return value;
+  }
+}
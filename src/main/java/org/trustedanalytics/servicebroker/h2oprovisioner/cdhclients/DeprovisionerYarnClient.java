@@ -13,44 +13,89 @@
  */
 package org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.apache.hadoop.yarn.api.records.ApplicationId;
 import org.apache.hadoop.yarn.api.records.ApplicationReport;
+import org.apache.hadoop.service.Service;
 import org.apache.hadoop.yarn.api.records.YarnApplicationState;
 import org.apache.hadoop.yarn.client.api.YarnClient;
+import org.apache.hadoop.yarn.exceptions.ApplicationNotFoundException;
 import org.apache.hadoop.yarn.exceptions.YarnException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.trustedanalytics.servicebroker.h2oprovisioner.rest.JobNotFoundException;
 
-public class DeprovisionerYarnClient {
+public class DeprovisionerYarnClient implements Closeable {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(DeprovisionerYarnClient.class);
   static final String JOB_NAME_PREFIX = "H2O_BROKER_";
 
+  /**
+   * Called when client is closed; broken is true if a YARN call failed with I/O error.
+   */
+  @FunctionalInterface
+  public interface ReleaseAction {
+    void release(boolean broken);
+  }
+
   private final YarnClient tapYarnClient;
+  private final ReleaseAction releaseAction;
+  private final H2oJobIndex.ClusterJobs knownJobs;
+  // client may be shared by threads of a batch deprovisioning
+  private volatile boolean broken;
 
   public DeprovisionerYarnClient(YarnClient tapYarnClient) {
+    this(tapYarnClient, broken -> tapYarnClient.stop());
+  }
+
+  public DeprovisionerYarnClient(YarnClient tapYarnClient, ReleaseAction releaseAction) {
+    this(tapYarnClient, releaseAction, new H2oJobIndex.ClusterJobs());
+  }
+
+  public DeprovisionerYarnClient(YarnClient tapYarnClient, ReleaseAction releaseAction,
+      H2oJobIndex.ClusterJobs knownJobs) {
     this.tapYarnClient = tapYarnClient;
+    this.releaseAction = releaseAction;
+    this.knownJobs = knownJobs;
   }
 
   public void start() {
-    tapYarnClient.start();
+    if (!tapYarnClient.isInState(Service.STATE.STARTED)) {
+      tapYarnClient.start();
+    }
+  }
+
+  @Override
+  public void close() {
+    releaseAction.release(broken);
   }
 
   public ApplicationId getH2oJobId(String serviceInstanceId) throws YarnException, JobNotFoundException {
     String h2oJobName = DeprovisionerYarnClient.h2oJobName(serviceInstanceId);
 
+    Optional<ApplicationId> indexed = knownJobs.get(h2oJobName);
+    if (indexed.isPresent() && isRunningJob(indexed.get(), h2oJobName)) {
+      LOGGER.debug("Job id found in index: " + indexed.get());
+      return indexed.get();
+    }
+    knownJobs.remove(h2oJobName);
+
     List<ApplicationReport> foundJobs;
     try {
       foundJobs = getJobListByName(h2oJobName);
-    } catch (YarnException | IOException e) {
+    } catch (IOException e) {
+      broken = true;
+      throw new YarnException("Error obtaining H2O job id from YARN: ", e);
+    } catch (YarnException e) {
       throw new YarnException("Error obtaining H2O job id from YARN: ", e);
     }
 
@@ -62,11 +107,57 @@ public class DeprovisionerYarnClient {
       throw new YarnException("Error obtaining H2O job id from YARN. Found " + foundJobs.size()
           + " apps with name " + h2oJobName);
     } else {
-      return foundJobs.get(0).getApplicationId();
+      ApplicationId applicationId = foundJobs.get(0).getApplicationId();
+      knownJobs.put(h2oJobName, applicationId);
+      return applicationId;
+    }
+  }
+
+  /**
+   * @return running H2O jobs by job name; names shared by several jobs are left out, lookup of
+   *         such a name fails like {@link #getH2oJobId(String)} does
+   */
+  public Map<String, ApplicationId> getRunningH2oJobs() throws YarnException, IOException {
+    return getRunningH2oJobsByName().entrySet().stream()
+        .filter(entry -> entry.getValue().size() == 1)
+        .collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().get(0)));
+  }
+
+  /**
+   * @return ids of all running H2O jobs by job name
+   */
+  public Map<String, List<ApplicationId>> getRunningH2oJobsByName()
+      throws YarnException, IOException {
+    try {
+      return getRunningJobs().stream()
+          .filter(report -> report.getName().startsWith(JOB_NAME_PREFIX))
+          .collect(Collectors.groupingBy(ApplicationReport::getName,
+              Collectors.mapping(ApplicationReport::getApplicationId, Collectors.toList())));
+    } catch (IOException e) {
+      broken = true;
+      throw e;
+    }
+  }
+
+  private boolean isRunningJob(ApplicationId applicationId, String name) throws YarnException {
+    try {
+      ApplicationReport report = tapYarnClient.getApplicationReport(applicationId);
+      return report != null && name.equals(report.getName())
+          && report.getYarnApplicationState() == YarnApplicationState.RUNNING;
+    } catch (ApplicationNotFoundException e) {
+      return false;
+    } catch (IOException e) {
+      broken = true;
+      throw new YarnException("Error obtaining H2O job report from YARN: ", e);
     }
   }
 
   private List<ApplicationReport> getJobListByName(String name) throws YarnException, IOException {
+    return getRunningJobs().stream()
+        .filter(x -> x.getName().equals(name)).collect(Collectors.toList());
+  }
+
+  private List<ApplicationReport> getRunningJobs() throws YarnException, IOException {
     Set<String> applicationTypes = new HashSet<>();
     applicationTypes.add("MAPREDUCE");
 
@@ -84,12 +175,33 @@ public class DeprovisionerYarnClient {
       LOGGER.debug("Jobs found: " + message);
     }
 
-    return applicationsMetadata.stream()
-        .filter(x -> x.getName().equals(name)).collect(Collectors.toList());
+    return applicationsMetadata;
+  }
+
+  /**
+   * @return state of the application, empty if YARN does not know it
+   */
+  public Optional<YarnApplicationState> getApplicationState(ApplicationId applicationId)
+      throws YarnException, IOException {
+    try {
+      return Optional.ofNullable(tapYarnClient.getApplicationReport(applicationId))
+          .map(ApplicationReport::getYarnApplicationState);
+    } catch (ApplicationNotFoundException e) {
+      return Optional.empty();
+    } catch (IOException e) {
+      broken = true;
+      throw e;
+    }
   }
 
   public void killApplication(ApplicationId applicationId) throws YarnException, IOException {
-    tapYarnClient.killApplication(applicationId);
+    try {
+      tapYarnClient.killApplication(applicationId);
+      knownJobs.removeApplication(applicationId);
+    } catch (IOException e) {
+      broken = true;
+      throw e;
+    }
   }
 
   public static String h2oJobName(String serviceInstanceId) {
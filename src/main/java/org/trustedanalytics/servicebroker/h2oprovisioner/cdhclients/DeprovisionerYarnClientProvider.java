@@ -14,23 +14,77 @@
 package org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients;
 
 import java.io.IOException;
+import java.util.Map;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
 import org.apache.hadoop.yarn.client.api.YarnClient;
+import org.apache.hadoop.yarn.exceptions.YarnException;
 import org.trustedanalytics.hadoop.config.client.helper.DelegatingYarnClient;
 import org.trustedanalytics.hadoop.config.client.helper.UgiWrapper;
 
 public class DeprovisionerYarnClientProvider {
 
-  public DeprovisionerYarnClientProvider() {}
-  
+  /**
+   * Creates started YARN clients for the pool.
+   */
+  @FunctionalInterface
+  public interface YarnClientFactory {
+    YarnClient create(String user, Configuration hadoopConf) throws IOException;
+  }
+
+  private final YarnClientPool pool;
+  private final H2oJobIndex jobIndex;
+  private final YarnClientFactory clientFactory;
+
+  public DeprovisionerYarnClientProvider(YarnClientPool pool, H2oJobIndex jobIndex) {
+    this(pool, jobIndex, DeprovisionerYarnClientProvider::createClient);
+  }
+
+  public DeprovisionerYarnClientProvider(YarnClientPool pool, H2oJobIndex jobIndex,
+      YarnClientFactory clientFactory) {
+    this.pool = pool;
+    this.jobIndex = jobIndex;
+    this.clientFactory = clientFactory;
+  }
+
+  /**
+   * @return started client, which has to be closed to give it back to the pool
+   */
   public DeprovisionerYarnClient getClient(String user, Configuration hadoopConf) throws IOException{
+    return borrow(user, hadoopConf, jobIndex.forCluster(user, hadoopConf));
+  }
+
+  /**
+   * Source of running jobs for {@link H2oJobIndex} refresh. Does not mark the cluster as used,
+   * otherwise refresh would keep every cluster it polls from going idle.
+   */
+  public Map<String, ApplicationId> runningH2oJobs(String user, Configuration hadoopConf)
+      throws IOException, YarnException {
+    try (DeprovisionerYarnClient client =
+        borrow(user, hadoopConf, new H2oJobIndex.ClusterJobs())) {
+      return client.getRunningH2oJobs();
+    }
+  }
+
+  private DeprovisionerYarnClient borrow(String user, Configuration hadoopConf,
+      H2oJobIndex.ClusterJobs knownJobs) throws IOException {
+    YarnClientPool.PooledClient pooled = pool.borrow(user, ConfigFingerprint.of(hadoopConf),
+        () -> clientFactory.create(user, hadoopConf));
+
+    return new DeprovisionerYarnClient(pooled.getClient(),
+        broken -> pool.giveBack(pooled, broken), knownJobs);
+  }
+
+  private static YarnClient createClient(String user, Configuration hadoopConf)
+      throws IOException {
     String ticketCachePath = hadoopConf.get("hadoop.security.kerberos.ticket.cache.path");
     UserGroupInformation ugi = UserGroupInformation.getBestUGI(ticketCachePath, user);
     YarnClient client = new DelegatingYarnClient(YarnClient.createYarnClient(), new UgiWrapper(ugi));
     client.init(hadoopConf);
-    
-    return new DeprovisionerYarnClient(client);
+    client.start();
+
+    return client;
   }
 }
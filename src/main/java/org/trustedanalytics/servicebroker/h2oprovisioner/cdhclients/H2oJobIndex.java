@@ -0,0 +1,155 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.exceptions.YarnException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * H2O job name to YARN application id index, per cluster. Entries are added when a job id is
+ * known (after launch or full scan) and updated by a background poll of running jobs of the
+ * clusters used recently, so that deprovisioning does not have to scan all cluster applications.
+ */
+public class H2oJobIndex {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(H2oJobIndex.class);
+
+  @FunctionalInterface
+  public interface RunningJobsSource {
+    /**
+     * @return running H2O jobs by job name
+     */
+    Map<String, ApplicationId> runningH2oJobs(String user, Configuration hadoopConf)
+        throws IOException, YarnException;
+  }
+
+  private final long clusterIdleTimeoutMillis;
+  private final ConcurrentMap<ConfigFingerprint, ClusterJobs> clusters = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder().setNameFormat("h2o-job-index-refresher").setDaemon(true).build());
+
+  public H2oJobIndex(long clusterIdleTimeout, TimeUnit unit) {
+    this.clusterIdleTimeoutMillis = unit.toMillis(clusterIdleTimeout);
+  }
+
+  public void startRefreshing(RunningJobsSource source, long period, TimeUnit unit) {
+    refresher.scheduleWithFixedDelay(() -> refresh(source, System.currentTimeMillis()), period,
+        period, unit);
+  }
+
+  public ClusterJobs forCluster(String user, Configuration hadoopConf) {
+    ClusterJobs jobs = clusters.computeIfAbsent(ConfigFingerprint.of(hadoopConf),
+        fingerprint -> new ClusterJobs(user, hadoopConf));
+    jobs.lastUsed = System.currentTimeMillis();
+    return jobs;
+  }
+
+  public void shutdown() {
+    refresher.shutdownNow();
+  }
+
+  @VisibleForTesting
+  void refresh(RunningJobsSource source, long now) {
+    clusters.forEach((fingerprint, jobs) -> {
+      if (now - jobs.lastUsed > clusterIdleTimeoutMillis) {
+        clusters.remove(fingerprint, jobs);
+        return;
+      }
+      try {
+        jobs.update(source.runningH2oJobs(jobs.user, jobs.hadoopConf));
+      } catch (IOException | YarnException | RuntimeException e) {
+        LOGGER.warn("Unable to refresh H2O jobs of cluster " + fingerprint, e);
+      }
+    });
+  }
+
+  /**
+   * Known H2O jobs of a single cluster.
+   */
+  public static final class ClusterJobs {
+    private final String user;
+    private final Configuration hadoopConf;
+    private final ConcurrentMap<String, ApplicationId> byJobName = new ConcurrentHashMap<>();
+    private volatile long lastUsed;
+
+    /**
+     * Creates jobs index not bound to any cluster and not refreshed.
+     */
+    public ClusterJobs() {
+      this(null, null);
+    }
+
+    private ClusterJobs(String user, Configuration hadoopConf) {
+      this.user = user;
+      this.hadoopConf = hadoopConf;
+    }
+
+    public Optional<ApplicationId> get(String jobName) {
+      return Optional.ofNullable(byJobName.get(jobName));
+    }
+
+    public void put(String jobName, ApplicationId applicationId) {
+      byJobName.put(jobName, applicationId);
+    }
+
+    public void remove(String jobName) {
+      byJobName.remove(jobName);
+    }
+
+    public void removeApplication(ApplicationId applicationId) {
+      byJobName.values().removeIf(applicationId::equals);
+    }
+
+    public int size() {
+      return byJobName.size();
+    }
+
+    @VisibleForTesting
+    void update(Map<String, ApplicationId> running) {
+      ApplicationId newest = running.values().stream()
+          .max(ApplicationId::compareTo).orElse(null);
+
+      // jobs launched after the listing was taken are not in it yet, only older ones are removed
+      byJobName.entrySet().removeIf(entry -> !running.containsKey(entry.getKey())
+          && isOlder(entry.getValue(), newest));
+      byJobName.putAll(running);
+    }
+
+    private static boolean isOlder(ApplicationId id, ApplicationId newest) {
+      if (newest == null) {
+        return true;
+      }
+      if (id.getClusterTimestamp() != newest.getClusterTimestamp()) {
+        // resource manager restarted, ids of the previous run are not valid any more
+        return id.getClusterTimestamp() < newest.getClusterTimestamp();
+      }
+      return id.getId() <= newest.getId();
+    }
+  }
+}
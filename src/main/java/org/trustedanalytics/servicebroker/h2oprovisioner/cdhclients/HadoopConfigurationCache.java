@@ -0,0 +1,69 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Hadoop configurations built from configuration maps sent by the broker. The broker sends the
+ * same few cluster configurations again and again, so configurations are built once per distinct
+ * map and shared as {@link ImmutableConfiguration}. Least recently used ones are evicted.
+ */
+public class HadoopConfigurationCache {
+
+  private final Cache<ConfigFingerprint, ImmutableConfiguration> configurations;
+
+  public HadoopConfigurationCache(long maxSize) {
+    this.configurations = CacheBuilder.newBuilder().maximumSize(maxSize).recordStats().build();
+  }
+
+  public HadoopConfigurationCache(long maxSize, MeterRegistry meterRegistry) {
+    this(maxSize);
+    GuavaCacheMetrics.monitor(meterRegistry, configurations, "h2o.hadoop.configurations");
+  }
+
+  public ImmutableConfiguration get(Map<String, String> hadoopConfiguration) {
+    try {
+      return configurations.get(ConfigFingerprint.of(hadoopConfiguration),
+          () -> new ImmutableConfiguration(hadoopConfiguration));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      throw new IllegalArgumentException("Invalid hadoop configuration", e.getCause());
+    }
+  }
+
+  /**
+   * @return configuration with given fingerprint, if it was sent recently
+   */
+  public Optional<ImmutableConfiguration> getIfPresent(ConfigFingerprint fingerprint) {
+    return Optional.ofNullable(configurations.getIfPresent(fingerprint));
+  }
+
+  public CacheStats stats() {
+    return configurations.stats();
+  }
+
+  public long size() {
+    return configurations.size();
+  }
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Hadoop configuration which can not be modified after creation. It is built once from the
+ * configuration entries, keeps their fingerprint and XML form, and can be shared between
+ * threads. Use {@link #copy()} where a modifiable configuration is needed.
+ */
+public final class ImmutableConfiguration extends Configuration {
+
+  private final ConfigFingerprint fingerprint;
+  private final String xml;
+  private final boolean frozen;
+
+  public ImmutableConfiguration(Map<String, String> entries) {
+    super(false);
+    entries.forEach(super::set);
+    this.fingerprint = ConfigFingerprint.of(entries);
+    this.xml = serialize(this);
+    this.frozen = true;
+  }
+
+  public ConfigFingerprint getFingerprint() {
+    return fingerprint;
+  }
+
+  public String getXml() {
+    return xml;
+  }
+
+  public Configuration copy() {
+    return new Configuration(this);
+  }
+
+  @Override
+  public void writeXml(Writer out) throws IOException {
+    if (xml == null) {
+      super.writeXml(out);
+      return;
+    }
+    out.write(xml);
+    out.flush();
+  }
+
+  @Override
+  public void set(String name, String value, String source) {
+    checkNotFrozen();
+    super.set(name, value, source);
+  }
+
+  @Override
+  public synchronized void unset(String name) {
+    checkNotFrozen();
+    super.unset(name);
+  }
+
+  @Override
+  public void addResource(String name) {
+    checkNotFrozen();
+  }
+
+  @Override
+  public void addResource(URL url) {
+    checkNotFrozen();
+  }
+
+  @Override
+  public void addResource(Path file) {
+    checkNotFrozen();
+  }
+
+  @Override
+  public void addResource(InputStream in) {
+    checkNotFrozen();
+  }
+
+  @Override
+  public void addResource(InputStream in, String name) {
+    checkNotFrozen();
+  }
+
+  @Override
+  public synchronized void reloadConfiguration() {
+    checkNotFrozen();
+  }
+
+  @Override
+  public void setClassLoader(ClassLoader classLoader) {
+    checkNotFrozen();
+    super.setClassLoader(classLoader);
+  }
+
+  @Override
+  public synchronized void setQuietMode(boolean quietmode) {
+    checkNotFrozen();
+    super.setQuietMode(quietmode);
+  }
+
+  private void checkNotFrozen() {
+    if (frozen) {
+      throw new UnsupportedOperationException("Configuration " + fingerprint + " is read-only");
+    }
+  }
+
+  private static String serialize(Configuration conf) {
+    ByteArrayOutputStream xml = new ByteArrayOutputStream();
+    try (Writer writer = new OutputStreamWriter(xml, StandardCharsets.UTF_8)) {
+      conf.writeXml(writer);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return new String(xml.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
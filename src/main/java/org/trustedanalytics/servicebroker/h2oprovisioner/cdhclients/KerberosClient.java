@@ -14,7 +14,10 @@
 package org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients;
 
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosTicket;
 import javax.security.auth.login.LoginException;
 
 import org.apache.hadoop.conf.Configuration;
@@ -28,19 +31,34 @@ public class KerberosClient {
   private final String realm;
   private final String user;
   private final char[] password;
+  private final long ticketLifetimeMillis;
+  private final KerberosCredentialManager.CachedLogin<Subject> subject;
 
-  public KerberosClient(KerberosProperties kerberosProperties) {
+  public KerberosClient(KerberosProperties kerberosProperties,
+      KerberosCredentialManager credentialManager) {
     this.kdc = kerberosProperties.getKdc();
     this.realm = kerberosProperties.getRealm();
     this.user = kerberosProperties.getUser();
     this.password = kerberosProperties.getPassword().toCharArray();
+    this.ticketLifetimeMillis = TimeUnit.SECONDS.toMillis(kerberosProperties.getTicketLifetime());
+    this.subject = credentialManager.register("subject of " + user,
+        () -> krbLoginManager().loginWithCredentials(user, password), this::expiresAt);
   }
 
   public Configuration logInToKerberos(Configuration hadoopConf)
       throws LoginException, IOException {
-    KrbLoginManager krbLoginManager =
-        KrbLoginManagerFactory.getInstance().getKrbLoginManagerInstance(kdc, realm);
-    krbLoginManager.loginInHadoop(krbLoginManager.loginWithCredentials(user, password), hadoopConf);
+    krbLoginManager().loginInHadoop(subject.get(), hadoopConf);
     return hadoopConf;
   }
+
+  private KrbLoginManager krbLoginManager() {
+    return KrbLoginManagerFactory.getInstance().getKrbLoginManagerInstance(kdc, realm);
+  }
+
+  private long expiresAt(Subject loggedIn) {
+    return loggedIn.getPrivateCredentials(KerberosTicket.class).stream()
+        .filter(ticket -> ticket.getServer().getName().startsWith("krbtgt/"))
+        .mapToLong(ticket -> ticket.getEndTime().getTime()).min()
+        .orElse(System.currentTimeMillis() + ticketLifetimeMillis);
+  }
 }
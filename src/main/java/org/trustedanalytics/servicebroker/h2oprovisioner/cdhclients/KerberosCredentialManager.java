@@ -0,0 +1,178 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+/**
+ * Keeps kerberos credentials obtained once and shared by all requests. Credentials are renewed in
+ * the background before they expire. When there are no valid credentials, concurrent requests
+ * wait for a single login instead of logging in on their own.
+ */
+public class KerberosCredentialManager {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(KerberosCredentialManager.class);
+
+  private static final double RENEW_AT_LIFETIME_FRACTION = 0.8;
+  private static final long RETRY_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  @FunctionalInterface
+  public interface LoginAction<T> {
+    T login() throws Exception;
+  }
+
+  private final ScheduledExecutorService renewals = Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder().setNameFormat("kerberos-renewal").setDaemon(true).build());
+
+  /**
+   * @param expiresAt gives expiry time (in epoch millis) of obtained credentials
+   */
+  public <T> CachedLogin<T> register(String name, LoginAction<T> login,
+      ToLongFunction<T> expiresAt) {
+    return new CachedLogin<>(name, login, expiresAt);
+  }
+
+  public void shutdown() {
+    renewals.shutdownNow();
+  }
+
+  public final class CachedLogin<T> {
+    private final String name;
+    private final LoginAction<T> login;
+    private final ToLongFunction<T> expiresAt;
+    private volatile Credentials<T> current;
+    private CompletableFuture<Credentials<T>> inFlight;
+    private ScheduledFuture<?> renewal;
+
+    private CachedLogin(String name, LoginAction<T> login, ToLongFunction<T> expiresAt) {
+      this.name = name;
+      this.login = login;
+      this.expiresAt = expiresAt;
+    }
+
+    public T get() throws IOException {
+      Credentials<T> credentials = current;
+      if (credentials != null && credentials.isValid(System.currentTimeMillis())) {
+        return credentials.value;
+      }
+      return login(false).value;
+    }
+
+    @VisibleForTesting
+    void renew() {
+      try {
+        login(true);
+      } catch (IOException e) {
+        LOGGER.warn("Renewal of " + name + " kerberos credentials failed, will retry.", e);
+        schedule(RETRY_DELAY_MILLIS);
+      }
+    }
+
+    private Credentials<T> login(boolean force) throws IOException {
+      CompletableFuture<Credentials<T>> future;
+      boolean leader = false;
+      synchronized (this) {
+        Credentials<T> credentials = current;
+        if (!force && credentials != null && credentials.isValid(System.currentTimeMillis())) {
+          return credentials;
+        }
+        if (inFlight == null) {
+          inFlight = new CompletableFuture<>();
+          leader = true;
+        }
+        future = inFlight;
+      }
+
+      if (leader) {
+        loginAndComplete(future);
+      }
+      return await(future);
+    }
+
+    private void loginAndComplete(CompletableFuture<Credentials<T>> future) {
+      try {
+        LOGGER.info("Logging in to kerberos: " + name);
+        long obtainedAt = System.currentTimeMillis();
+        T value = login.login();
+        Credentials<T> credentials =
+            new Credentials<>(value, obtainedAt, expiresAt.applyAsLong(value));
+        current = credentials;
+        schedule(credentials.renewAt() - System.currentTimeMillis());
+        future.complete(credentials);
+      } catch (Exception e) {
+        future.completeExceptionally(e);
+      } finally {
+        synchronized (this) {
+          inFlight = null;
+        }
+      }
+    }
+
+    private Credentials<T> await(CompletableFuture<Credentials<T>> future) throws IOException {
+      try {
+        return future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for kerberos login: " + name, e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw new IOException("Kerberos login failed: " + name, e.getCause());
+      }
+    }
+
+    private synchronized void schedule(long delayMillis) {
+      if (renewal != null) {
+        renewal.cancel(false);
+      }
+      if (!renewals.isShutdown()) {
+        renewal = renewals.schedule(this::renew, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+      }
+    }
+  }
+
+  private static final class Credentials<T> {
+    private final T value;
+    private final long obtainedAt;
+    private final long expiresAt;
+
+    private Credentials(T value, long obtainedAt, long expiresAt) {
+      this.value = value;
+      this.obtainedAt = obtainedAt;
+      this.expiresAt = expiresAt;
+    }
+
+    private boolean isValid(long now) {
+      return now < expiresAt;
+    }
+
+    private long renewAt() {
+      return obtainedAt + (long) ((expiresAt - obtainedAt) * RENEW_AT_LIFETIME_FRACTION);
+    }
+  }
+}
@@ -0,0 +1,251 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+
+import org.apache.hadoop.service.Service;
+import org.apache.hadoop.yarn.client.api.YarnClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Started YARN clients kept for reuse, per user and cluster configuration. Clients idle for too
+ * long or older than max age are stopped. Number of clients (idle and in use) is limited.
+ */
+public class YarnClientPool {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(YarnClientPool.class);
+
+  @FunctionalInterface
+  public interface ClientFactory {
+    YarnClient createStarted() throws IOException;
+  }
+
+  private final int maxClients;
+  private final long idleTimeoutMillis;
+  private final long maxAgeMillis;
+  private final MeterRegistry meterRegistry;
+  private final Map<Key, Deque<PooledClient>> idle = new HashMap<>();
+  private final ScheduledExecutorService evictor;
+  private int idleCount;
+  private int activeCount;
+
+  public YarnClientPool(int maxClients, long idleTimeout, long maxAge, TimeUnit unit,
+      MeterRegistry meterRegistry) {
+    this.maxClients = maxClients;
+    this.idleTimeoutMillis = unit.toMillis(idleTimeout);
+    this.maxAgeMillis = unit.toMillis(maxAge);
+    this.meterRegistry = meterRegistry;
+
+    meterRegistry.gauge("h2o.yarn.clients.idle", this, pool -> pool.idleClients());
+    meterRegistry.gauge("h2o.yarn.clients.active", this, pool -> pool.activeClients());
+
+    this.evictor = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("yarn-client-evictor").setDaemon(true).build());
+    long period = Math.max(1000, Math.min(idleTimeoutMillis, maxAgeMillis) / 2);
+    evictor.scheduleWithFixedDelay(() -> evictExpired(System.currentTimeMillis()), period,
+        period, TimeUnit.MILLISECONDS);
+  }
+
+  public PooledClient borrow(String user, ConfigFingerprint fingerprint, ClientFactory factory)
+      throws IOException {
+    Key key = new Key(user, fingerprint);
+    List<PooledClient> unhealthy = new ArrayList<>();
+    try {
+      synchronized (this) {
+        PooledClient pooled;
+        while ((pooled = pollIdle(key)) != null) {
+          if (pooled.isHealthy(System.currentTimeMillis())) {
+            activeCount++;
+            meterRegistry.counter("h2o.yarn.clients.reused").increment();
+            return pooled;
+          }
+          unhealthy.add(pooled);
+        }
+
+        if (idleCount + activeCount >= maxClients && !evictEldestIdle(unhealthy)) {
+          throw new IOException("Limit of " + maxClients + " YARN clients reached.");
+        }
+        activeCount++;
+      }
+    } finally {
+      unhealthy.forEach(client -> stop(client, "unhealthy"));
+    }
+
+    try {
+      PooledClient created = new PooledClient(key, factory.createStarted());
+      meterRegistry.counter("h2o.yarn.clients.created").increment();
+      return created;
+    } catch (IOException | RuntimeException e) {
+      synchronized (this) {
+        activeCount--;
+      }
+      throw e;
+    }
+  }
+
+  public void giveBack(PooledClient pooled, boolean broken) {
+    long now = System.currentTimeMillis();
+    synchronized (this) {
+      activeCount--;
+      if (!broken && pooled.isHealthy(now)) {
+        pooled.lastUsed = now;
+        idle.computeIfAbsent(pooled.key, k -> new ArrayDeque<>()).push(pooled);
+        idleCount++;
+        return;
+      }
+    }
+    stop(pooled, broken ? "broken" : "unhealthy");
+  }
+
+  public synchronized int idleClients() {
+    return idleCount;
+  }
+
+  public synchronized int activeClients() {
+    return activeCount;
+  }
+
+  public void shutdown() {
+    evictor.shutdownNow();
+    List<PooledClient> clients = new ArrayList<>();
+    synchronized (this) {
+      idle.values().forEach(clients::addAll);
+      idle.clear();
+      idleCount = 0;
+    }
+    clients.forEach(client -> stop(client, "shutdown"));
+  }
+
+  @VisibleForTesting
+  void evictExpired(long now) {
+    List<PooledClient> expired = new ArrayList<>();
+    synchronized (this) {
+      for (Iterator<Deque<PooledClient>> clients = idle.values().iterator(); clients.hasNext();) {
+        Deque<PooledClient> forKey = clients.next();
+        forKey.removeIf(client -> {
+          boolean remove = now - client.lastUsed > idleTimeoutMillis || !client.isHealthy(now);
+          if (remove) {
+            expired.add(client);
+          }
+          return remove;
+        });
+        if (forKey.isEmpty()) {
+          clients.remove();
+        }
+      }
+      idleCount -= expired.size();
+    }
+    expired.forEach(client -> stop(client, "expired"));
+  }
+
+  private PooledClient pollIdle(Key key) {
+    Deque<PooledClient> forKey = idle.get(key);
+    if (forKey == null) {
+      return null;
+    }
+    PooledClient pooled = forKey.poll();
+    if (forKey.isEmpty()) {
+      idle.remove(key);
+    }
+    if (pooled != null) {
+      idleCount--;
+    }
+    return pooled;
+  }
+
+  private boolean evictEldestIdle(List<PooledClient> evicted) {
+    PooledClient eldest = null;
+    for (Deque<PooledClient> forKey : idle.values()) {
+      PooledClient last = forKey.peekLast();
+      if (last != null && (eldest == null || last.lastUsed < eldest.lastUsed)) {
+        eldest = last;
+      }
+    }
+    if (eldest == null) {
+      return false;
+    }
+    Deque<PooledClient> forKey = idle.get(eldest.key);
+    forKey.removeLast();
+    if (forKey.isEmpty()) {
+      idle.remove(eldest.key);
+    }
+    idleCount--;
+    evicted.add(eldest);
+    return true;
+  }
+
+  private void stop(PooledClient pooled, String reason) {
+    LOGGER.debug("Stopping YARN client for " + pooled.key + ": " + reason);
+    meterRegistry.counter("h2o.yarn.clients.closed", "reason", reason).increment();
+    try {
+      pooled.client.stop();
+    } catch (RuntimeException e) {
+      LOGGER.warn("Unable to stop YARN client for " + pooled.key, e);
+    }
+  }
+
+  @EqualsAndHashCode
+  @ToString
+  private static final class Key {
+    private final String user;
+    private final ConfigFingerprint fingerprint;
+
+    private Key(String user, ConfigFingerprint fingerprint) {
+      this.user = user;
+      this.fingerprint = fingerprint;
+    }
+  }
+
+  public final class PooledClient {
+    private final Key key;
+    private final YarnClient client;
+    private final long createdAt;
+    private long lastUsed;
+
+    private PooledClient(Key key, YarnClient client) {
+      this.key = key;
+      this.client = client;
+      this.createdAt = System.currentTimeMillis();
+      this.lastUsed = createdAt;
+    }
+
+    public YarnClient getClient() {
+      return client;
+    }
+
+    private boolean isHealthy(long now) {
+      return now - createdAt < maxAgeMillis && client.isInState(Service.STATE.STARTED);
+    }
+  }
+}
@@ -39,10 +39,66 @@ public class ExternalConfiguration {
   @NotNull
   private String h2oDriverPortUpperBound;
 
+  @Value("${h2o.driver.portsPoolType}")
+  @NotNull
+  private String h2oDriverPortsPoolType;
+
+  @Value("${h2o.driver.portLeaseTtlSeconds}")
+  @NotNull
+  private String h2oDriverPortLeaseTtlSeconds;
+
+  @Value("${h2o.driver.portsRefreshMillis}")
+  @NotNull
+  private String h2oDriverPortsRefreshMillis;
+
   @Value("${h2o.driver.jarPath}")
   @NotNull
   private String h2oDriverJarpath;
 
+  @Value("${h2o.driver.launcher}")
+  @NotNull
+  private String h2oDriverLauncher;
+
+  @Value("${h2o.driver.hadoopClasspath}")
+  @NotNull
+  private String h2oDriverHadoopClasspath;
+
+  @Value("${h2o.driver.confDirsCacheSize}")
+  @NotNull
+  private String h2oDriverConfDirsCacheSize;
+
+  @Value("${h2o.driver.confDirsRoot}")
+  @NotNull
+  private String h2oDriverConfDirsRoot;
+
+  @Value("${h2o.driver.flowUrlTimeoutSeconds}")
+  @NotNull
+  private String h2oDriverFlowUrlTimeoutSeconds;
+
+  @Value("${h2o.driver.timeoutSeconds}")
+  @NotNull
+  private String h2oDriverTimeoutSeconds;
+
+  @Value("${hadoop.configurationCacheSize}")
+  @NotNull
+  private String hadoopConfigurationCacheSize;
+
+  @Value("${yarn.clients.max}")
+  @NotNull
+  private String yarnClientsMax;
+
+  @Value("${yarn.clients.idleTimeoutSeconds}")
+  @NotNull
+  private String yarnClientsIdleTimeoutSeconds;
+
+  @Value("${yarn.clients.maxAgeSeconds}")
+  @NotNull
+  private String yarnClientsMaxAgeSeconds;
+
+  @Value("${yarn.jobIndex.refreshSeconds}")
+  @NotNull
+  private String yarnJobIndexRefreshSeconds;
+
   @Value("${h2o.credentials.usernameLength}")
   @NotNull
   private String h2oUsernameLength;
@@ -51,6 +107,50 @@ public class ExternalConfiguration {
   @NotNull
   private String h2oPasswordLength;
 
+  @Value("${h2o.provisioning.maxConcurrentLaunches}")
+  @NotNull
+  private String h2oMaxConcurrentLaunches;
+
+  @Value("${h2o.provisioning.queueCapacity}")
+  @NotNull
+  private String h2oProvisioningQueueCapacity;
+
+  @Value("${h2o.provisioning.retryAfterSeconds}")
+  @NotNull
+  private String h2oProvisioningRetryAfterSeconds;
+
+  @Value("${h2o.provisioning.operationRetentionMinutes}")
+  @NotNull
+  private String h2oOperationRetentionMinutes;
+
+  @Value("${h2o.provisioning.resultCacheSeconds}")
+  @NotNull
+  private String h2oProvisioningResultCacheSeconds;
+
+  @Value("${h2o.deprovisioning.maxParallelKills}")
+  @NotNull
+  private String h2oDeprovisioningMaxParallelKills;
+
+  @Value("${h2o.instances.staleAfterSeconds}")
+  @NotNull
+  private String h2oInstanceStaleAfterSeconds;
+
+  @Value("${h2o.warmPool.shapes}")
+  @NotNull
+  private String h2oWarmPoolShapes;
+
+  @Value("${h2o.warmPool.size}")
+  @NotNull
+  private String h2oWarmPoolSize;
+
+  @Value("${h2o.registry.path}")
+  @NotNull
+  private String h2oRegistryPath;
+
+  @Value("${h2o.registry.compactionMinutes}")
+  @NotNull
+  private String h2oRegistryCompactionMinutes;
+
   @Value("${yarn.conf.dir}")
   @NotNull
   private String yarnConfDir;
@@ -18,17 +18,60 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
 import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.DeprovisionerYarnClientProvider;
+import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.H2oJobIndex;
+import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.HadoopConfigurationCache;
 import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.KerberosClient;
+import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.KerberosCredentialManager;
+import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.YarnClientPool;
+import org.trustedanalytics.servicebroker.h2oprovisioner.ports.PortsPool;
+import org.trustedanalytics.servicebroker.h2oprovisioner.registry.InstanceRegistry;
 import org.trustedanalytics.servicebroker.h2oprovisioner.service.H2oDeprovisioner;
 
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.concurrent.TimeUnit;
+
 @Configuration
 @Profile({"cloud", "default"})
 public class H2oDeprovisionerConfig {
 
-  @Bean
+  // clusters without deprovision requests for this long are no longer polled for H2O jobs
+  private static final long CLUSTER_IDLE_TIMEOUT_HOURS = 1;
+
   @Autowired
-  public H2oDeprovisioner getH2oDeprovisioner(KerberosProperties kerberosProperties) {
-    return new H2oDeprovisioner(kerberosProperties.getUser(), new KerberosClient(kerberosProperties),
-        new DeprovisionerYarnClientProvider());
+  private ExternalConfiguration config;
+
+  @Bean(destroyMethod = "shutdown")
+  @Autowired
+  public H2oDeprovisioner getH2oDeprovisioner(KerberosProperties kerberosProperties,
+      PortsPool portsPool, HadoopConfigurationCache hadoopConfigurationCache,
+      DeprovisionerYarnClientProvider yarnClientProvider,
+      KerberosCredentialManager kerberosCredentialManager, H2oJobIndex h2oJobIndex,
+      InstanceRegistry instanceRegistry, MeterRegistry meterRegistry) {
+    h2oJobIndex.startRefreshing(yarnClientProvider::runningH2oJobs,
+        Long.parseLong(config.getYarnJobIndexRefreshSeconds()), TimeUnit.SECONDS);
+
+    return new H2oDeprovisioner(kerberosProperties.getUser(),
+        new KerberosClient(kerberosProperties, kerberosCredentialManager), yarnClientProvider,
+        portsPool, hadoopConfigurationCache, instanceRegistry,
+        Integer.parseInt(config.getH2oDeprovisioningMaxParallelKills()), meterRegistry);
+  }
+
+  @Bean
+  public DeprovisionerYarnClientProvider deprovisionerYarnClientProvider(
+      YarnClientPool yarnClientPool, H2oJobIndex h2oJobIndex) {
+    return new DeprovisionerYarnClientProvider(yarnClientPool, h2oJobIndex);
+  }
+
+  @Bean(destroyMethod = "shutdown")
+  public H2oJobIndex h2oJobIndex() {
+    return new H2oJobIndex(CLUSTER_IDLE_TIMEOUT_HOURS, TimeUnit.HOURS);
+  }
+
+  @Bean(destroyMethod = "shutdown")
+  public YarnClientPool yarnClientPool(MeterRegistry meterRegistry) {
+    return new YarnClientPool(Integer.parseInt(config.getYarnClientsMax()),
+        Long.parseLong(config.getYarnClientsIdleTimeoutSeconds()),
+        Long.parseLong(config.getYarnClientsMaxAgeSeconds()), TimeUnit.SECONDS, meterRegistry);
   }
 }
@@ -18,19 +18,55 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
+import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.HadoopConfigurationCache;
+import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.KerberosCredentialManager;
 import org.trustedanalytics.servicebroker.h2oprovisioner.credentials.CredentialsSupplier;
 import org.trustedanalytics.servicebroker.h2oprovisioner.credentials.RandomAlphanumericCredentialsSupplier;
 import org.trustedanalytics.servicebroker.h2oprovisioner.ports.PortsPool;
+import org.trustedanalytics.servicebroker.h2oprovisioner.registry.InMemoryInstanceRegistry;
+import org.trustedanalytics.servicebroker.h2oprovisioner.registry.InstanceRegistry;
+import org.trustedanalytics.servicebroker.h2oprovisioner.registry.MappedLogInstanceRegistry;
+import org.trustedanalytics.servicebroker.h2oprovisioner.service.H2oDeprovisioner;
+import org.trustedanalytics.servicebroker.h2oprovisioner.service.H2oDeprovisioningOperations;
+import org.trustedanalytics.servicebroker.h2oprovisioner.service.H2oInstances;
+import org.trustedanalytics.servicebroker.h2oprovisioner.service.H2oProvisioningOperations;
 import org.trustedanalytics.servicebroker.h2oprovisioner.service.H2oSpawner;
+import org.trustedanalytics.servicebroker.h2oprovisioner.service.PhaseMetrics;
+import org.trustedanalytics.servicebroker.h2oprovisioner.service.ProvisioningScheduler;
+import org.trustedanalytics.servicebroker.h2oprovisioner.service.WarmPool;
+import org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.ForkedH2oDriverLauncher;
 import org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.H2oDriverExec;
+import org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.H2oDriverLauncher;
 import org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.H2oUiFileParser;
+import org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.HadoopConfDirs;
+import org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.InProcessH2oDriverLauncher;
 import org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.KinitExec;
+import org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.helpers.ExternalProcessExecutor;
+import org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.helpers.ProcessOutputPump;
+
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 @Configuration
 public class H2oSpawnerConfig {
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(H2oSpawnerConfig.class);
+
   @Autowired
   private ExternalConfiguration config;
 
@@ -43,10 +79,102 @@ public class H2oSpawnerConfig {
   @Bean
   public H2oSpawner getH2oSpawner(CredentialsSupplier usernameSupplier,
       CredentialsSupplier passwordSupplier, KinitExec kinitExec, H2oDriverExec h2oDriverExec,
-      H2oUiFileParser h2oUiFileParser) {
+      HadoopConfigurationCache hadoopConfigurationCache, InstanceRegistry instanceRegistry,
+      ExecutorService h2oDriverExecutor, MeterRegistry meterRegistry) {
 
     return new H2oSpawner(config, portsPool, usernameSupplier, passwordSupplier, kinitExec,
-        h2oDriverExec, h2oUiFileParser);
+        h2oDriverExec, hadoopConfigurationCache, instanceRegistry, h2oDriverExecutor,
+        meterRegistry);
+  }
+
+  @Bean(destroyMethod = "shutdown")
+  public ExecutorService h2oDriverExecutor() {
+    // h2odriver may outlive the provisioning request and its launch slot, so running drivers
+    // are capped here as well; a driver waiting for a thread counts against flow url timeout
+    return Executors.newFixedThreadPool(Integer.parseInt(config.getH2oMaxConcurrentLaunches()),
+        new ThreadFactoryBuilder().setNameFormat("h2o-driver-%d").setDaemon(true).build());
+  }
+
+  @Bean(destroyMethod = "shutdown")
+  public InstanceRegistry instanceRegistry() throws IOException {
+    String path = config.getH2oRegistryPath();
+    if (Strings.isNullOrEmpty(path)) {
+      return new InMemoryInstanceRegistry();
+    }
+    MappedLogInstanceRegistry registry = new MappedLogInstanceRegistry(Paths.get(path));
+    long compactionMinutes = Long.parseLong(config.getH2oRegistryCompactionMinutes());
+    registry.startCompacting(compactionMinutes, TimeUnit.MINUTES);
+    return registry;
+  }
+
+  @Bean
+  public HadoopConfigurationCache hadoopConfigurationCache(MeterRegistry meterRegistry) {
+    return new HadoopConfigurationCache(Long.parseLong(config.getHadoopConfigurationCacheSize()),
+        meterRegistry);
+  }
+
+  @Bean(destroyMethod = "shutdown")
+  public KerberosCredentialManager kerberosCredentialManager() {
+    return new KerberosCredentialManager();
+  }
+
+  @Bean(destroyMethod = "shutdown")
+  public ProvisioningScheduler provisioningScheduler(MeterRegistry meterRegistry) {
+    int maxConcurrentLaunches = Integer.parseInt(config.getH2oMaxConcurrentLaunches());
+    int queueCapacity = Integer.parseInt(config.getH2oProvisioningQueueCapacity());
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(maxConcurrentLaunches,
+        maxConcurrentLaunches, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity),
+        new ThreadFactoryBuilder().setNameFormat("h2o-provisioning-%d").build());
+
+    return new ProvisioningScheduler(executor,
+        Integer.parseInt(config.getH2oProvisioningRetryAfterSeconds()), meterRegistry);
+  }
+
+  @Bean
+  public H2oInstances h2oInstances(InstanceRegistry instanceRegistry,
+      HadoopConfigurationCache hadoopConfigurationCache, H2oDeprovisioner h2oDeprovisioner) {
+    return new H2oInstances(instanceRegistry, hadoopConfigurationCache, h2oDeprovisioner,
+        Long.parseLong(config.getH2oInstanceStaleAfterSeconds()), TimeUnit.SECONDS);
+  }
+
+  @Bean
+  public H2oProvisioningOperations h2oProvisioningOperations(H2oSpawner h2oSpawner,
+      ProvisioningScheduler provisioningScheduler, WarmPool warmPool,
+      MeterRegistry meterRegistry) {
+    return new H2oProvisioningOperations(h2oSpawner, provisioningScheduler, warmPool,
+        Long.parseLong(config.getH2oOperationRetentionMinutes()),
+        Long.parseLong(config.getH2oProvisioningResultCacheSeconds()), meterRegistry);
+  }
+
+  @Bean
+  public H2oDeprovisioningOperations h2oDeprovisioningOperations(
+      H2oDeprovisioner h2oDeprovisioner, H2oProvisioningOperations provisioningOperations,
+      MeterRegistry meterRegistry) {
+    return new H2oDeprovisioningOperations(h2oDeprovisioner, provisioningOperations,
+        meterRegistry);
+  }
+
+  @Bean(destroyMethod = "shutdown")
+  public WarmPool warmPool(H2oSpawner h2oSpawner, H2oDeprovisioner h2oDeprovisioner,
+      InstanceRegistry instanceRegistry, HadoopConfigurationCache hadoopConfigurationCache,
+      MeterRegistry meterRegistry) {
+    Set<WarmPool.Shape> shapes = WarmPool.Shape.parseAll(config.getH2oWarmPoolShapes());
+    if (!shapes.isEmpty() && "inprocess".equals(config.getH2oDriverLauncher())) {
+      // application id is read from h2odriver output, which in-process launcher does not capture
+      LOGGER.warn("Warm pool is not available with in-process h2odriver launcher, disabled.");
+      shapes = Collections.emptySet();
+    }
+    if (!shapes.isEmpty() && Strings.isNullOrEmpty(config.getH2oRegistryPath())) {
+      // handed out clusters keep their warm-* job name, only the registry maps instance to them
+      LOGGER.warn("Warm pool requires H2O_REGISTRY_PATH, instances would be lost on restart, "
+          + "disabled.");
+      shapes = Collections.emptySet();
+    }
+    ExecutorService launcher = Executors.newSingleThreadExecutor(
+        new ThreadFactoryBuilder().setNameFormat("h2o-warm-pool-%d").setDaemon(true).build());
+    return new WarmPool(h2oSpawner, h2oDeprovisioner, instanceRegistry, hadoopConfigurationCache,
+        shapes, Integer.parseInt(config.getH2oWarmPoolSize()), launcher,
+        Long.parseLong(config.getH2oDriverTimeoutSeconds()), TimeUnit.SECONDS, meterRegistry);
   }
 
   @Bean
@@ -63,21 +191,43 @@ public class H2oSpawnerConfig {
         Integer.parseInt(config.getH2oPasswordLength()));
   }
 
-  @Bean
-  @Profile({"cloud", "default"})
-  public KinitExec kinitExec() throws IOException {
-    return new KinitExec(kerberosProperties);
+  @Bean(destroyMethod = "shutdown")
+  public ExternalProcessExecutor externalProcessExecutor(MeterRegistry meterRegistry) {
+    // stdout and stderr of every running h2odriver and of a kinit per launch slot
+    int readers = 4 * Integer.parseInt(config.getH2oMaxConcurrentLaunches());
+    return new ExternalProcessExecutor(new ProcessOutputPump(readers, 8192, 100), meterRegistry);
   }
 
   @Bean
   @Profile({"cloud", "default"})
-  public H2oDriverExec h2oDriverExec() {
-    return new H2oDriverExec(config.getYarnConfDir());
+  public KinitExec kinitExec(KerberosCredentialManager kerberosCredentialManager,
+      ExternalProcessExecutor externalProcessExecutor) throws IOException {
+    return new KinitExec(kerberosProperties, kerberosCredentialManager, externalProcessExecutor);
   }
 
   @Bean
   @Profile({"cloud", "default"})
-  public H2oUiFileParser h2oUiFileParser() {
-    return new H2oUiFileParser();
+  public H2oDriverExec h2oDriverExec(ExternalProcessExecutor externalProcessExecutor,
+      MeterRegistry meterRegistry) throws IOException {
+    return new H2oDriverExec(h2oDriverLauncher(externalProcessExecutor, meterRegistry),
+        new H2oUiFileParser(Long.parseLong(config.getH2oDriverFlowUrlTimeoutSeconds()),
+            TimeUnit.SECONDS));
+  }
+
+  private H2oDriverLauncher h2oDriverLauncher(ExternalProcessExecutor externalProcessExecutor,
+      MeterRegistry meterRegistry) throws IOException {
+    if ("inprocess".equals(config.getH2oDriverLauncher())) {
+      ExecutorService drivers = Executors.newFixedThreadPool(
+          Integer.parseInt(config.getH2oMaxConcurrentLaunches()),
+          new ThreadFactoryBuilder().setNameFormat("h2o-driver-%d").setDaemon(true).build());
+      return new InProcessH2oDriverLauncher(config.getH2oDriverHadoopClasspath(), drivers,
+          Long.parseLong(config.getH2oDriverTimeoutSeconds()), TimeUnit.SECONDS);
+    }
+    HadoopConfDirs confDirs = new HadoopConfDirs(config.getYarnConfDir(),
+        Paths.get(config.getH2oDriverConfDirsRoot()),
+        Integer.parseInt(config.getH2oDriverConfDirsCacheSize()));
+    return new ForkedH2oDriverLauncher(confDirs, externalProcessExecutor,
+        Long.parseLong(config.getH2oDriverTimeoutSeconds()), TimeUnit.SECONDS,
+        new PhaseMetrics(H2oSpawner.PHASE_METRICS_NAME, meterRegistry));
   }
 }
@@ -32,4 +32,12 @@ public class KerberosProperties {
   private String user;
   private String password;
   private String confFile;
+  /**
+   * Lifetime (in seconds) of tickets obtained by kinit and of logins without ticket end time.
+   */
+  private long ticketLifetime = 28800;
+  /**
+   * Time (in seconds) after which a hanging kinit is killed.
+   */
+  private long kinitTimeout = 60;
 }
@@ -17,22 +17,51 @@ package org.trustedanalytics.servicebroker.h2oprovisioner.config;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.context.annotation.Profile;
+import org.trustedanalytics.servicebroker.h2oprovisioner.ports.AtomicBitmapPortsPool;
+import org.trustedanalytics.servicebroker.h2oprovisioner.ports.LeasingPortsPool;
+import org.trustedanalytics.servicebroker.h2oprovisioner.ports.NioBatchPortChecker;
 import org.trustedanalytics.servicebroker.h2oprovisioner.ports.PortsPool;
+import org.trustedanalytics.servicebroker.h2oprovisioner.ports.PrefetchedPortsPool;
 import org.trustedanalytics.servicebroker.h2oprovisioner.ports.RangedPortsPool;
 import org.trustedanalytics.servicebroker.h2oprovisioner.ports.SocketInstantiationPortChecker;
 
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.concurrent.TimeUnit;
+
 @Configuration
 public class PortsPoolConfig {
 
   @Autowired
   private ExternalConfiguration configuration;
 
+  @Bean(destroyMethod = "shutdown")
+  @Primary
+  @Profile({"cloud", "default"})
+  public LeasingPortsPool portsPool(MeterRegistry meterRegistry) {
+    int lower = Integer.parseInt(configuration.getH2oDriverPortLowerBound());
+    int upper = Integer.parseInt(configuration.getH2oDriverPortUpperBound());
+    long leaseTtl = Long.parseLong(configuration.getH2oDriverPortLeaseTtlSeconds());
+    return new LeasingPortsPool(basePortsPool(), upper - lower + 1, leaseTtl, TimeUnit.SECONDS,
+        meterRegistry);
+  }
+
   @Bean
   @Profile({"cloud", "default"})
-  public PortsPool portsPool() {
+  public PortsPool basePortsPool() {
     int lower = Integer.parseInt(configuration.getH2oDriverPortLowerBound());
     int upper = Integer.parseInt(configuration.getH2oDriverPortUpperBound());
-    return new RangedPortsPool(new SocketInstantiationPortChecker(), lower, upper);
+    switch (configuration.getH2oDriverPortsPoolType()) {
+      case "ranged":
+        return new RangedPortsPool(new SocketInstantiationPortChecker(), lower, upper);
+      case "prefetched":
+        long refreshMillis = Long.parseLong(configuration.getH2oDriverPortsRefreshMillis());
+        return new PrefetchedPortsPool(new NioBatchPortChecker(refreshMillis / 2), lower, upper,
+            refreshMillis, TimeUnit.MILLISECONDS);
+      default:
+        return new AtomicBitmapPortsPool(new SocketInstantiationPortChecker(), lower, upper);
+    }
   }
 }
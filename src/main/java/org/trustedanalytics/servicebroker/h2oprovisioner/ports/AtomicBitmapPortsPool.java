@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.ports;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Ports pool keeping claimed ports of the range in an atomic bitmap. Ports are claimed and
+ * released with CAS, so concurrent callers never wait for each other's availability checks.
+ * Claimed port stays out of the pool until {@link #releasePort(int)} is called.
+ */
+public class AtomicBitmapPortsPool implements PortsPool {
+
+  private static final int WORD_BITS = Long.SIZE;
+
+  private final PortChecker portChecker;
+  private final int lowerBound;
+  private final int size;
+  private final AtomicLongArray claimed;
+  private final AtomicInteger cursor = new AtomicInteger();
+
+  public AtomicBitmapPortsPool(PortChecker portChecker, int lowerBound, int upperBound) {
+    PortRanges.validate(lowerBound, upperBound);
+    this.portChecker = portChecker;
+    this.lowerBound = lowerBound;
+    this.size = upperBound - lowerBound + 1;
+    this.claimed = new AtomicLongArray((size + WORD_BITS - 1) / WORD_BITS);
+  }
+
+  @Override
+  public int getPort() throws IOException {
+    int start = Math.floorMod(cursor.getAndIncrement(), size);
+    int checked = 0;
+    int index = start;
+    while (checked < size) {
+      int end = Math.min(size, index + size - checked);
+      int candidate = claimNextFree(index, end);
+      if (candidate < 0) {
+        checked += end - index;
+        index = 0;
+        continue;
+      }
+      checked += candidate - index + 1;
+      index = (candidate + 1) % size;
+
+      int port = lowerBound + candidate;
+      if (portChecker.isAvailable(port)) {
+        cursor.set(candidate + 1);
+        return port;
+      }
+      unclaim(candidate);
+    }
+    throw new IOException("No port in the pool is available.");
+  }
+
+  @Override
+  public void releasePort(int port) {
+    int index = port - lowerBound;
+    if (index < 0 || index >= size) {
+      return;
+    }
+    unclaim(index);
+  }
+
+  public int claimedPorts() {
+    int count = 0;
+    for (int i = 0; i < claimed.length(); i++) {
+      count += Long.bitCount(claimed.get(i));
+    }
+    return count;
+  }
+
+  public int capacity() {
+    return size;
+  }
+
+  /**
+   * Claims first free index from range [from, to). Whole words of claimed ports are skipped at
+   * once, so searching a mostly occupied range costs one read per 64 ports.
+   *
+   * @return claimed index or -1 if every port in range is claimed
+   */
+  private int claimNextFree(int from, int to) {
+    int index = from;
+    while (index < to) {
+      int word = index / WORD_BITS;
+      long current = claimed.get(word);
+      long free = ~current & (-1L << (index % WORD_BITS));
+      if (free == 0) {
+        index = (word + 1) * WORD_BITS;
+        continue;
+      }
+      int candidate = word * WORD_BITS + Long.numberOfTrailingZeros(free);
+      if (candidate >= to) {
+        return -1;
+      }
+      long bit = 1L << (candidate % WORD_BITS);
+      if (claimed.compareAndSet(word, current, current | bit)) {
+        return candidate;
+      }
+      // lost the race for this word, read it again
+    }
+    return -1;
+  }
+
+  private void unclaim(int index) {
+    int word = index / WORD_BITS;
+    long bit = 1L << (index % WORD_BITS);
+    long current;
+    do {
+      current = claimed.get(word);
+    } while (!claimed.compareAndSet(word, current, current & ~bit));
+  }
+}
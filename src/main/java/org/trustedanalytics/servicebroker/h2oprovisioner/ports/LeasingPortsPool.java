@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.ports;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records which service instance holds which driver port, so that overlapping provisions never
+ * get the same port. Leases that are not confirmed within ttl are reclaimed in the background.
+ */
+public class LeasingPortsPool implements PortsPool {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(LeasingPortsPool.class);
+
+  private final PortsPool delegate;
+  private final int capacity;
+  private final long ttlMillis;
+  private final ConcurrentMap<String, PortLease> leasesByInstance = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Integer, PortLease> leasesByPort = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService reclaimer;
+
+  public LeasingPortsPool(PortsPool delegate, int capacity, long ttl, TimeUnit unit,
+      MeterRegistry meterRegistry) {
+    this.delegate = delegate;
+    this.capacity = capacity;
+    this.ttlMillis = unit.toMillis(ttl);
+
+    Gauge.builder("h2o.ports.leased", this, LeasingPortsPool::leasedPorts)
+        .register(meterRegistry);
+    Gauge.builder("h2o.ports.capacity", this, pool -> pool.capacity).register(meterRegistry);
+
+    this.reclaimer = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("port-lease-reclaimer").setDaemon(true).build());
+    long period = Math.max(1, ttlMillis / 2);
+    reclaimer.scheduleAtFixedRate(() -> reclaimExpired(System.currentTimeMillis()), period,
+        period, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public int getPort() throws IOException {
+    return delegate.getPort();
+  }
+
+  @Override
+  public PortLease getPort(String instanceId) throws IOException {
+    PortLease existing = leasesByInstance.get(instanceId);
+    if (existing != null) {
+      return existing;
+    }
+
+    // ports pool may hand out a port leased by a launch that has not bound it yet, skip it
+    for (int attempt = 0; attempt < capacity; attempt++) {
+      PortLease lease = new PortLease(instanceId, delegate.getPort());
+      if (leasesByPort.putIfAbsent(lease.getPort(), lease) == null) {
+        PortLease concurrent = leasesByInstance.putIfAbsent(instanceId, lease);
+        if (concurrent != null) {
+          // another call leased a port to the same instance meanwhile, keep that lease
+          giveBack(lease);
+          return concurrent;
+        }
+        LOGGER.debug("Port " + lease.getPort() + " leased to " + instanceId);
+        return lease;
+      }
+    }
+    throw new IOException("No port in the pool is available.");
+  }
+
+  @Override
+  public void release(String instanceId) {
+    PortLease lease = leasesByInstance.remove(instanceId);
+    if (lease != null) {
+      lease.revoke();
+      giveBack(lease);
+    }
+  }
+
+  @Override
+  public void releasePort(int port) {
+    PortLease lease = leasesByPort.get(port);
+    if (lease != null) {
+      release(lease.getInstanceId());
+    } else {
+      delegate.releasePort(port);
+    }
+  }
+
+  public int leasedPorts() {
+    return leasesByInstance.size();
+  }
+
+  public void shutdown() {
+    reclaimer.shutdownNow();
+  }
+
+  @VisibleForTesting
+  void reclaimExpired(long now) {
+    leasesByInstance.values().stream()
+        .filter(lease -> !lease.isConfirmed() && now - lease.getAcquiredAt() >= ttlMillis)
+        .forEach(lease -> {
+          // a lease confirmed meanwhile is kept, a reclaimed one cannot be confirmed any more
+          if (lease.reclaim() && leasesByInstance.remove(lease.getInstanceId(), lease)) {
+            LOGGER.warn("Reclaiming port " + lease.getPort() + " never confirmed by "
+                + lease.getInstanceId());
+            giveBack(lease);
+          }
+        });
+  }
+
+  private void giveBack(PortLease lease) {
+    if (leasesByPort.remove(lease.getPort(), lease)) {
+      delegate.releasePort(lease.getPort());
+    }
+  }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.ports;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Checks ports by binding NIO server socket channels. A range is checked in batches: all
+ * channels of a batch are bound first and closed together afterwards; skipped ports are never
+ * bound. Result of the last range check is reused for a short time by range checks only, a
+ * single port is always probed, as it is checked right before it is handed out and may have
+ * been taken since the range check.
+ */
+public class NioBatchPortChecker implements PortChecker {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(NioBatchPortChecker.class);
+
+  private static final int BATCH_SIZE = 256;
+
+  private final long cacheTtlMillis;
+  private volatile RangeCheck lastCheck;
+
+  public NioBatchPortChecker(long cacheTtlMillis) {
+    this.cacheTtlMillis = cacheTtlMillis;
+  }
+
+  @Override
+  public boolean isAvailable(int port) {
+    ServerSocketChannel channel = bind(port);
+    close(channel);
+    return channel != null;
+  }
+
+  @Override
+  public BitSet availablePorts(int lowerBound, int upperBound, IntPredicate skipped) {
+    RangeCheck check = lastCheck;
+    if (check == null || !check.isFresh(System.currentTimeMillis())
+        || !check.isRange(lowerBound, upperBound)) {
+      check = new RangeCheck(lowerBound, upperBound, probe(lowerBound, upperBound, skipped),
+          System.currentTimeMillis() + cacheTtlMillis);
+      lastCheck = check;
+    }
+    return (BitSet) check.available.clone();
+  }
+
+  private BitSet probe(int lowerBound, int upperBound, IntPredicate skipped) {
+    LOGGER.debug("Checking ports: " + lowerBound + "-" + upperBound);
+    BitSet available = new BitSet(upperBound - lowerBound + 1);
+    for (int batchStart = lowerBound; batchStart <= upperBound; batchStart += BATCH_SIZE) {
+      int batchEnd = Math.min(upperBound, batchStart + BATCH_SIZE - 1);
+      List<ServerSocketChannel> bound = new ArrayList<>(batchEnd - batchStart + 1);
+      try {
+        for (int port = batchStart; port <= batchEnd; port++) {
+          if (skipped.test(port)) {
+            continue;
+          }
+          ServerSocketChannel channel = bind(port);
+          if (channel != null) {
+            bound.add(channel);
+            available.set(port - lowerBound);
+          }
+        }
+      } finally {
+        bound.forEach(this::close);
+      }
+    }
+    return available;
+  }
+
+  private ServerSocketChannel bind(int port) {
+    ServerSocketChannel channel = null;
+    try {
+      channel = ServerSocketChannel.open();
+      channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+      channel.bind(new InetSocketAddress(port));
+      return channel;
+    } catch (IOException e) {
+      LOGGER.trace("Port " + port + " is not available.", e);
+      close(channel);
+      return null;
+    }
+  }
+
+  private void close(ServerSocketChannel channel) {
+    if (channel == null) {
+      return;
+    }
+    try {
+      channel.close();
+    } catch (IOException e) {
+      LOGGER.debug("Error when closing ServerSocketChannel object.", e);
+    }
+  }
+
+  private static final class RangeCheck {
+    private final int lowerBound;
+    private final int upperBound;
+    private final BitSet available;
+    private final long validUntil;
+
+    private RangeCheck(int lowerBound, int upperBound, BitSet available, long validUntil) {
+      this.lowerBound = lowerBound;
+      this.upperBound = upperBound;
+      this.available = available;
+      this.validUntil = validUntil;
+    }
+
+    private boolean isFresh(long now) {
+      return now < validUntil;
+    }
+
+    private boolean isRange(int lower, int upper) {
+      return lowerBound == lower && upperBound == upper;
+    }
+  }
+}
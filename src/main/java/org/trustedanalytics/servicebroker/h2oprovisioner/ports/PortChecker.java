@@ -14,6 +14,35 @@
 
 package org.trustedanalytics.servicebroker.h2oprovisioner.ports;
 
+import java.util.BitSet;
+import java.util.function.IntPredicate;
+
 public interface PortChecker {
   boolean isAvailable(int port);
+
+  /**
+   * Checks whole range of ports.
+   *
+   * @return set of available ports, bit n stands for port lowerBound + n
+   */
+  default BitSet availablePorts(int lowerBound, int upperBound) {
+    return availablePorts(lowerBound, upperBound, port -> false);
+  }
+
+  /**
+   * Checks whole range of ports except the skipped ones, which are reported as not available.
+   * Ports handed out to a starting h2odriver are skipped, so that the check never holds a port
+   * the driver is about to bind.
+   *
+   * @return set of available ports, bit n stands for port lowerBound + n
+   */
+  default BitSet availablePorts(int lowerBound, int upperBound, IntPredicate skipped) {
+    BitSet available = new BitSet(upperBound - lowerBound + 1);
+    for (int port = lowerBound; port <= upperBound; port++) {
+      if (!skipped.test(port) && isAvailable(port)) {
+        available.set(port - lowerBound);
+      }
+    }
+    return available;
+  }
 }
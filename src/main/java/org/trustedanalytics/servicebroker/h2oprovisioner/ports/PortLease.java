@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.ports;
+
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+@ToString
+public class PortLease {
+
+  private enum State {
+    LEASED, CONFIRMED, REVOKED
+  }
+
+  @Getter
+  private final String instanceId;
+  @Getter
+  private final int port;
+  @Getter
+  private final long acquiredAt;
+  private final AtomicReference<State> state = new AtomicReference<>(State.LEASED);
+
+  public PortLease(String instanceId, int port) {
+    this(instanceId, port, System.currentTimeMillis());
+  }
+
+  public PortLease(String instanceId, int port, long acquiredAt) {
+    this.instanceId = instanceId;
+    this.port = port;
+    this.acquiredAt = acquiredAt;
+  }
+
+  /**
+   * Marks the lease as used by a running h2odriver. Confirmed lease is never reclaimed, it stays
+   * until it is released.
+   *
+   * @return false if the lease was reclaimed or released before, its port may be leased to
+   *         another instance already
+   */
+  public boolean confirm() {
+    return state.compareAndSet(State.LEASED, State.CONFIRMED) || isConfirmed();
+  }
+
+  public boolean isConfirmed() {
+    return state.get() == State.CONFIRMED;
+  }
+
+  /**
+   * Ends the lease, it cannot be confirmed any more.
+   */
+  public void revoke() {
+    state.set(State.REVOKED);
+  }
+
+  /**
+   * Ends the lease unless it was confirmed meanwhile.
+   *
+   * @return true if the lease was not confirmed and is revoked now
+   */
+  boolean reclaim() {
+    return state.compareAndSet(State.LEASED, State.REVOKED);
+  }
+}
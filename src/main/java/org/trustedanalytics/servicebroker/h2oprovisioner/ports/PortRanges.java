@@ -0,0 +1,33 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.ports;
+
+import com.google.common.base.Preconditions;
+
+final class PortRanges {
+
+  private PortRanges() {}
+
+  static void validate(int lowerBound, int upperBound) {
+    Preconditions.checkArgument(upperBound > lowerBound,
+        "upperBound must be greater than lowerBound");
+    validatePortValue(lowerBound);
+    validatePortValue(upperBound);
+  }
+
+  private static void validatePortValue(int port) {
+    Preconditions.checkArgument(port > 0, "port value is out of range: " + port);
+    Preconditions.checkArgument(port <= 0xFFFF, "port value is out of range: " + port);
+  }
+}
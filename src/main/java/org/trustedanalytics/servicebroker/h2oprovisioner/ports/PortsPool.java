@@ -18,4 +18,16 @@ import java.io.IOException;
 
 public interface PortsPool {
   int getPort() throws IOException;
+
+  default void releasePort(int port) {}
+
+  /**
+   * Returns port leased to given service instance. The port is not handed out again until the
+   * lease is released.
+   */
+  default PortLease getPort(String instanceId) throws IOException {
+    return new PortLease(instanceId, getPort());
+  }
+
+  default void release(String instanceId) {}
 }
@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.ports;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ports pool handing out ports from a set of known-free ports. The set is refreshed in the
+ * background with a single range check, so {@link #getPort()} never binds a socket itself.
+ */
+public class PrefetchedPortsPool implements PortsPool {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(PrefetchedPortsPool.class);
+
+  private final PortChecker portChecker;
+  private final int lowerBound;
+  private final int upperBound;
+  private final Set<Integer> claimed = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger lastPort;
+  private final ScheduledExecutorService refresher;
+  private volatile Queue<Integer> knownFree = new ConcurrentLinkedQueue<>();
+
+  public PrefetchedPortsPool(PortChecker portChecker, int lowerBound, int upperBound,
+      long refreshPeriod, TimeUnit unit) {
+    PortRanges.validate(lowerBound, upperBound);
+    this.portChecker = portChecker;
+    this.lowerBound = lowerBound;
+    this.upperBound = upperBound;
+    this.lastPort = new AtomicInteger(upperBound);
+
+    refresh();
+    this.refresher = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("ports-pool-refresher").setDaemon(true).build());
+    refresher.scheduleWithFixedDelay(this::refresh, refreshPeriod, refreshPeriod, unit);
+  }
+
+  @Override
+  public int getPort() throws IOException {
+    Queue<Integer> free = knownFree;
+    Integer port;
+    while ((port = free.poll()) != null) {
+      if (claimed.add(port)) {
+        lastPort.set(port);
+        return port;
+      }
+    }
+    refresher.execute(this::refresh);
+    throw new IOException("No port in the pool is available.");
+  }
+
+  @Override
+  public void releasePort(int port) {
+    claimed.remove(port);
+  }
+
+  public int knownFreePorts() {
+    return knownFree.size();
+  }
+
+  public void shutdown() {
+    refresher.shutdownNow();
+  }
+
+  void refresh() {
+    try {
+      // ports handed out may be bound by a starting driver any time, they are never probed
+      BitSet available = portChecker.availablePorts(lowerBound, upperBound, claimed::contains);
+      int size = upperBound - lowerBound + 1;
+      // start after the last port handed out, so that ports are used one after another
+      int start = lastPort.get() + 1 - lowerBound;
+
+      Queue<Integer> free = new ConcurrentLinkedQueue<>();
+      for (int i = 0; i < size; i++) {
+        int index = (start + i) % size;
+        int port = lowerBound + index;
+        if (available.get(index) && !claimed.contains(port)) {
+          free.add(port);
+        }
+      }
+      knownFree = free;
+      LOGGER.debug("Known free ports: " + free.size());
+    } catch (RuntimeException e) {
+      LOGGER.error("Unable to refresh ports pool.", e);
+    }
+  }
+}
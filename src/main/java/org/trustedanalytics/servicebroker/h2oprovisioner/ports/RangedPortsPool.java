@@ -14,8 +14,6 @@
 
 package org.trustedanalytics.servicebroker.h2oprovisioner.ports;
 
-import com.google.common.base.Preconditions;
-
 import java.io.IOException;
 import java.util.LinkedList;
 import java.util.Queue;
@@ -27,22 +25,10 @@ public class RangedPortsPool implements PortsPool {
 
   public RangedPortsPool(PortChecker portChecker, int lowerBound, int upperBound) {
     this.portChecker = portChecker;
-    validateArguments(lowerBound, upperBound);
+    PortRanges.validate(lowerBound, upperBound);
     this.ports = initializePool(lowerBound, upperBound);
   }
 
-  private void validateArguments(int lowerBound, int upperBound) {
-    Preconditions.checkArgument(upperBound > lowerBound,
-        "upperBound must be greater or equal than lowerBound");
-    validatePortValue(lowerBound);
-    validatePortValue(upperBound);
-  }
-
-  private void validatePortValue(int port) {
-    Preconditions.checkArgument(port > 0, "port value is out of range: " + port);
-    Preconditions.checkArgument(port <= 0xFFFF, "port value is out of range: " + port);
-  }
-
   private Queue<Integer> initializePool(int lowerBound, int upperBound) {
     Queue<Integer> portsPool = new LinkedList<>();
     for (int i = lowerBound; i <= upperBound; ++i) {
@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.registry;
+
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oCredentials;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class H2oInstance {
+
+  public enum State {
+    RUNNING,
+    /**
+     * H2O job is not running any more, though it was not deprovisioned.
+     */
+    STOPPED,
+    DELETED
+  }
+
+  private String instanceId;
+  /**
+   * YARN application id of H2O job, null when it was not known at spawn time.
+   */
+  private String applicationId;
+  private int driverPort;
+  private H2oCredentials credentials;
+  private long createdAt;
+  private State state;
+  /**
+   * Fingerprint of hadoop configuration of the cluster H2O was spawned on.
+   */
+  private String configFingerprint;
+  private boolean kerberos;
+
+  /**
+   * @return deep copy, registries do not share mutable instances with callers
+   */
+  public H2oInstance copy() {
+    return new H2oInstance(instanceId, applicationId, driverPort,
+        credentials == null ? null
+            : new H2oCredentials(credentials.getHostname(), credentials.getPort(),
+                credentials.getUsername(), credentials.getPassword()),
+        createdAt, state, configFingerprint, kerberos);
+  }
+}
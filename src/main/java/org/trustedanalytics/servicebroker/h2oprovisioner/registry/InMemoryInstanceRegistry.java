@@ -0,0 +1,51 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.registry;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+public class InMemoryInstanceRegistry implements InstanceRegistry {
+
+  private final ConcurrentMap<String, H2oInstance> instances = new ConcurrentHashMap<>();
+
+  @Override
+  public void put(H2oInstance instance) {
+    instances.put(instance.getInstanceId(), instance.copy());
+  }
+
+  @Override
+  public Optional<H2oInstance> get(String instanceId) {
+    return Optional.ofNullable(instances.get(instanceId)).map(H2oInstance::copy);
+  }
+
+  @Override
+  public Collection<H2oInstance> list() {
+    Collection<H2oInstance> all = new ArrayList<>();
+    instances.values().forEach(instance -> all.add(instance.copy()));
+    return all;
+  }
+
+  @Override
+  public boolean updateState(String instanceId, H2oInstance.State state) {
+    return instances.computeIfPresent(instanceId, (id, instance) -> {
+      H2oInstance updated = instance.copy();
+      updated.setState(state);
+      return updated;
+    }) != null;
+  }
+}
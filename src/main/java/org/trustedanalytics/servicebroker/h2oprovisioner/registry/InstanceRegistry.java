@@ -0,0 +1,39 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.registry;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Optional;
+
+/**
+ * H2O instances spawned by the provisioner.
+ */
+public interface InstanceRegistry {
+
+  void put(H2oInstance instance);
+
+  Optional<H2oInstance> get(String instanceId);
+
+  Collection<H2oInstance> list();
+
+  /**
+   * @return false if there is no such instance
+   */
+  boolean updateState(String instanceId, H2oInstance.State state);
+
+  default void shutdown() throws IOException {
+    // nothing to release by default
+  }
+}
@@ -0,0 +1,384 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.registry;
+
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oCredentials;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Instance registry kept in memory and persisted to an append-only, memory-mapped log, so that it
+ * survives restarts. Every change is appended as a checksummed record and flushed before it
+ * becomes visible; lookups never touch the file. Log is replayed on startup, a record torn by a
+ * crash ends the replay. Compaction rewrites the log with one record per running instance,
+ * deleted instances are forgotten then.
+ *
+ * <p>Log contains H2O credentials, it is created readable by owner only.
+ */
+public class MappedLogInstanceRegistry implements InstanceRegistry {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(MappedLogInstanceRegistry.class);
+
+  private static final int MAGIC = 0x48324f52;
+  private static final int FILE_HEADER_BYTES = 4;
+  // length and crc32 of payload
+  private static final int RECORD_HEADER_BYTES = 8;
+  private static final int INITIAL_CAPACITY = 1 << 20;
+
+  private static final byte PUT = 1;
+  private static final byte UPDATE_STATE = 2;
+
+  private final Path path;
+  private final ConcurrentMap<String, H2oInstance> instances = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder().setNameFormat("h2o-registry-compactor").setDaemon(true).build());
+
+  // guarded by this
+  private FileChannel channel;
+  private MappedByteBuffer log;
+  private int records;
+
+  public MappedLogInstanceRegistry(Path path) throws IOException {
+    this.path = path;
+    boolean created = createIfMissing(path);
+    FileChannel opened = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    if (!created) {
+      checkHeader(opened);
+    }
+    map(opened);
+    if (created) {
+      log.putInt(0, MAGIC);
+      log.position(FILE_HEADER_BYTES);
+      log.force();
+    } else {
+      replay();
+    }
+    LOGGER.info("Loaded " + instances.size() + " instances from " + path);
+  }
+
+  public void startCompacting(long period, TimeUnit unit) {
+    compactor.scheduleWithFixedDelay(() -> {
+      try {
+        compact();
+      } catch (IOException | RuntimeException e) {
+        LOGGER.error("Unable to compact instance registry " + path, e);
+      }
+    }, period, period, unit);
+  }
+
+  @Override
+  public void put(H2oInstance instance) {
+    H2oInstance stored = instance.copy();
+    synchronized (this) {
+      append(encode(PUT, stored.getInstanceId(), out -> writeInstance(out, stored)));
+      instances.put(stored.getInstanceId(), stored);
+    }
+  }
+
+  @Override
+  public Optional<H2oInstance> get(String instanceId) {
+    return Optional.ofNullable(instances.get(instanceId)).map(H2oInstance::copy);
+  }
+
+  @Override
+  public Collection<H2oInstance> list() {
+    Collection<H2oInstance> all = new ArrayList<>();
+    instances.values().forEach(instance -> all.add(instance.copy()));
+    return all;
+  }
+
+  @Override
+  public synchronized boolean updateState(String instanceId, H2oInstance.State state) {
+    if (!instances.containsKey(instanceId)) {
+      return false;
+    }
+    append(encode(UPDATE_STATE, instanceId, out -> out.writeUTF(state.name())));
+    applyState(instanceId, state);
+    return true;
+  }
+
+  @Override
+  public synchronized void shutdown() throws IOException {
+    compactor.shutdownNow();
+    log.force();
+    channel.close();
+  }
+
+  /**
+   * Rewrites the log when it has records of deleted instances or superseded states.
+   */
+  @VisibleForTesting
+  synchronized void compact() throws IOException {
+    List<H2oInstance> running = new ArrayList<>();
+    instances.values().stream()
+        .filter(instance -> instance.getState() != H2oInstance.State.DELETED)
+        .forEach(running::add);
+    if (records == running.size()) {
+      return;
+    }
+
+    List<byte[]> payloads = new ArrayList<>(running.size());
+    int size = FILE_HEADER_BYTES;
+    for (H2oInstance instance : running) {
+      byte[] payload = encode(PUT, instance.getInstanceId(), out -> writeInstance(out, instance));
+      payloads.add(payload);
+      size += RECORD_HEADER_BYTES + payload.length;
+    }
+
+    Path compacted = path.resolveSibling(path.getFileName() + ".compacting");
+    Files.deleteIfExists(compacted);
+    createIfMissing(compacted);
+    try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      MappedByteBuffer buffer =
+          out.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(INITIAL_CAPACITY, 2 * size));
+      buffer.putInt(MAGIC);
+      for (byte[] payload : payloads) {
+        write(buffer, payload);
+      }
+      buffer.force();
+    }
+    Files.move(compacted, path, StandardCopyOption.ATOMIC_MOVE,
+        StandardCopyOption.REPLACE_EXISTING);
+
+    channel.close();
+    map(FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE));
+    log.position(size);
+    int dropped = records - running.size();
+    records = running.size();
+    instances.values().removeIf(instance -> instance.getState() == H2oInstance.State.DELETED);
+    LOGGER.info("Compacted instance registry " + path + ", dropped " + dropped + " records");
+  }
+
+  @VisibleForTesting
+  synchronized int records() {
+    return records;
+  }
+
+  /**
+   * Checks the header before the file is mapped, mapping would extend other files.
+   */
+  private void checkHeader(FileChannel opened) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES);
+    while (header.hasRemaining() && opened.read(header, header.position()) > 0) {
+      // read until header is complete or end of file
+    }
+    if (header.hasRemaining() || header.getInt(0) != MAGIC) {
+      opened.close();
+      throw new IOException("Not an instance registry log: " + path);
+    }
+  }
+
+  private void replay() throws IOException {
+    int position = FILE_HEADER_BYTES;
+    while (position + RECORD_HEADER_BYTES <= log.capacity()) {
+      int length = log.getInt(position);
+      if (length == 0) {
+        break;
+      }
+      byte[] payload = length > 0 && position + RECORD_HEADER_BYTES + length <= log.capacity()
+          ? new byte[length] : null;
+      if (payload != null) {
+        log.position(position + RECORD_HEADER_BYTES);
+        log.get(payload);
+      }
+      if (payload == null || checksum(payload) != log.getInt(position + Integer.BYTES)) {
+        LOGGER.warn("Instance registry " + path + " has a torn record at " + position
+            + ", ignoring the rest of it.");
+        // so that records appended from now on are not followed by leftovers of the torn one
+        for (int i = position; i < log.capacity(); i++) {
+          log.put(i, (byte) 0);
+        }
+        log.force();
+        break;
+      }
+      apply(payload);
+      records++;
+      position += RECORD_HEADER_BYTES + length;
+    }
+    log.position(position);
+  }
+
+  private void apply(byte[] payload) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+    byte type = in.readByte();
+    String instanceId = in.readUTF();
+    if (type == PUT) {
+      instances.put(instanceId, readInstance(in, instanceId));
+    } else if (type == UPDATE_STATE) {
+      applyState(instanceId, H2oInstance.State.valueOf(in.readUTF()));
+    } else {
+      throw new IOException("Unknown record type " + type + " in " + path);
+    }
+  }
+
+  private void applyState(String instanceId, H2oInstance.State state) {
+    instances.computeIfPresent(instanceId, (id, instance) -> {
+      H2oInstance updated = instance.copy();
+      updated.setState(state);
+      return updated;
+    });
+  }
+
+  private void append(byte[] payload) {
+    try {
+      int needed = RECORD_HEADER_BYTES + payload.length;
+      if (log.remaining() < needed) {
+        int position = log.position();
+        log = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+            Math.max(2 * log.capacity(), position + needed));
+        log.position(position);
+      }
+      write(log, payload);
+      log.force();
+      records++;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to write instance registry " + path, e);
+    }
+  }
+
+  private void map(FileChannel opened) throws IOException {
+    channel = opened;
+    log = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+        Math.max(INITIAL_CAPACITY, channel.size()));
+  }
+
+  /**
+   * Writes record at buffer position. Length goes last, until then the record reads as end of log.
+   */
+  private static void write(MappedByteBuffer buffer, byte[] payload) {
+    int position = buffer.position();
+    buffer.putInt(position + Integer.BYTES, checksum(payload));
+    buffer.position(position + RECORD_HEADER_BYTES);
+    buffer.put(payload);
+    buffer.putInt(position, payload.length);
+  }
+
+  private static int checksum(byte[] payload) {
+    CRC32 crc = new CRC32();
+    crc.update(payload, 0, payload.length);
+    return (int) crc.getValue();
+  }
+
+  @FunctionalInterface
+  private interface RecordWriter {
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  private static byte[] encode(byte type, String instanceId, RecordWriter body) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeByte(type);
+      out.writeUTF(instanceId);
+      body.write(out);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static void writeInstance(DataOutputStream out, H2oInstance instance)
+      throws IOException {
+    writeNullable(out, instance.getApplicationId());
+    out.writeInt(instance.getDriverPort());
+    H2oCredentials credentials = instance.getCredentials();
+    out.writeBoolean(credentials != null);
+    if (credentials != null) {
+      writeNullable(out, credentials.getHostname());
+      writeNullable(out, credentials.getPort());
+      writeNullable(out, credentials.getUsername());
+      writeNullable(out, credentials.getPassword());
+    }
+    out.writeLong(instance.getCreatedAt());
+    out.writeUTF(instance.getState().name());
+    writeNullable(out, instance.getConfigFingerprint());
+    out.writeBoolean(instance.isKerberos());
+  }
+
+  private static H2oInstance readInstance(DataInputStream in, String instanceId)
+      throws IOException {
+    String applicationId = readNullable(in);
+    int driverPort = in.readInt();
+    H2oCredentials credentials = in.readBoolean()
+        ? new H2oCredentials(readNullable(in), readNullable(in), readNullable(in),
+            readNullable(in))
+        : null;
+    long createdAt = in.readLong();
+    H2oInstance.State state = H2oInstance.State.valueOf(in.readUTF());
+    String configFingerprint = readNullable(in);
+    boolean kerberos = in.readBoolean();
+    return new H2oInstance(instanceId, applicationId, driverPort, credentials, createdAt, state,
+        configFingerprint, kerberos);
+  }
+
+  private static void writeNullable(DataOutputStream out, String value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      out.writeUTF(value);
+    }
+  }
+
+  private static String readNullable(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  /**
+   * @return true if file was created
+   */
+  private static boolean createIfMissing(Path path) throws IOException {
+    if (Files.exists(path)) {
+      return false;
+    }
+    if (path.toAbsolutePath().getParent() != null) {
+      Files.createDirectories(path.toAbsolutePath().getParent());
+    }
+    if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+      Files.createFile(path,
+          PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+    } else {
+      Files.createFile(path);
+    }
+    return true;
+  }
+}
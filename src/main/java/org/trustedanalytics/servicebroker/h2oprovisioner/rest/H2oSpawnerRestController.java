@@ -14,21 +14,37 @@
 
 package org.trustedanalytics.servicebroker.h2oprovisioner.rest;
 
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oBatchDeleteRequest;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oBatchDeleteResult;
 import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oCredentials;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oInstanceStatus;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oInstancesPage;
 import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oProvisionerRequestData;
-import org.trustedanalytics.servicebroker.h2oprovisioner.service.H2oDeprovisioner;
-import org.trustedanalytics.servicebroker.h2oprovisioner.service.H2oSpawner;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oProvisioningOperation;
+import org.trustedanalytics.servicebroker.h2oprovisioner.service.H2oDeprovisioningOperations;
+import org.trustedanalytics.servicebroker.h2oprovisioner.service.H2oInstances;
+import org.trustedanalytics.servicebroker.h2oprovisioner.service.H2oProvisioningOperations;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Splitter;
+import com.google.common.hash.Hashing;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
 @RestController
@@ -37,22 +53,63 @@ public class H2oSpawnerRestController {
   private static final Logger LOGGER = LoggerFactory.getLogger(H2oSpawnerRestController.class);
 
   @Autowired
-  private H2oSpawner h2oSpawner;
+  private H2oDeprovisioningOperations deprovisioningOperations;
+
+  @Autowired
+  private H2oProvisioningOperations provisioningOperations;
 
   @Autowired
-  private H2oDeprovisioner h2oDeprovisioner;
+  private H2oInstances h2oInstances;
 
   @RequestMapping(value = "/rest/instances/{instanceId}/create", method = RequestMethod.POST)
   public H2oCredentials provisionH2o(@PathVariable String instanceId,
       @RequestParam String nodesCount, @RequestParam String memory,
       @RequestParam(required = false, defaultValue = "on") String kerberos,
-      @RequestBody H2oProvisionerRequestData parameters) throws H2oSpawnerException {
+      @RequestBody H2oProvisionerRequestData parameters)
+      throws H2oSpawnerException, ProvisioningRejectedException {
 
     //Make use of this parameter while doing task DPNG-6358
     LOGGER.debug("User token passed: " + parameters.getUserToken());
 
-    return h2oSpawner.provisionInstance(instanceId, memory, nodesCount, "on".equals(kerberos),
-        parameters.getYarnConfig());
+    return provisioningOperations.provision(instanceId, memory, nodesCount,
+        "on".equals(kerberos), parameters.getYarnConfig());
+  }
+
+  @RequestMapping(value = "/rest/instances/{instanceId}/create/async",
+      method = RequestMethod.POST)
+  public ResponseEntity<H2oProvisioningOperation> submitH2oProvisioning(
+      @PathVariable String instanceId, @RequestParam String nodesCount,
+      @RequestParam String memory,
+      @RequestParam(required = false, defaultValue = "on") String kerberos,
+      @RequestBody H2oProvisionerRequestData parameters) throws ProvisioningRejectedException {
+
+    H2oProvisioningOperation operation = provisioningOperations.submit(instanceId, memory,
+        nodesCount, "on".equals(kerberos), parameters.getYarnConfig());
+
+    HttpHeaders headers = new HttpHeaders();
+    headers.setLocation(URI.create("/rest/operations/" + operation.getOperationId()));
+    return new ResponseEntity<>(operation, headers, HttpStatus.ACCEPTED);
+  }
+
+  @RequestMapping(value = "/rest/operations/{operationId}", method = RequestMethod.GET)
+  public H2oProvisioningOperation getProvisioningOperation(@PathVariable String operationId)
+      throws OperationNotFoundException {
+    return provisioningOperations.get(operationId);
+  }
+
+  @RequestMapping(value = "/rest/instances/{instanceId}", method = RequestMethod.GET)
+  public ResponseEntity<H2oInstanceStatus> getH2oInstance(@PathVariable String instanceId,
+      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch)
+      throws InstanceNotFoundException {
+    return withETag(h2oInstances.get(instanceId), ifNoneMatch);
+  }
+
+  @RequestMapping(value = "/rest/instances", method = RequestMethod.GET)
+  public ResponseEntity<H2oInstancesPage> listH2oInstances(
+      @RequestParam(required = false, defaultValue = "0") int page,
+      @RequestParam(required = false, defaultValue = "50") int size,
+      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+    return withETag(h2oInstances.list(page, size), ifNoneMatch);
   }
 
   @RequestMapping(value = "rest/instances/{instanceId}/delete", method = RequestMethod.POST)
@@ -60,6 +117,28 @@ public class H2oSpawnerRestController {
       @RequestBody Map<String, String> hadoopConf,
       @RequestParam(required = false, defaultValue = "on") String kerberos)
       throws H2oDeprovisioningException, JobNotFoundException {
-    return h2oDeprovisioner.deprovisionInstance(instanceId, hadoopConf, "on".equals(kerberos));
+    return deprovisioningOperations.deprovision(instanceId, hadoopConf, "on".equals(kerberos));
+  }
+
+  @RequestMapping(value = "/rest/instances/delete", method = RequestMethod.POST)
+  public H2oBatchDeleteResult deprovisionH2os(@RequestBody H2oBatchDeleteRequest request,
+      @RequestParam(required = false, defaultValue = "on") String kerberos)
+      throws H2oDeprovisioningException, InvalidRequestException {
+    if (request.getInstanceIds() == null || request.getYarnConfig() == null) {
+      throw new InvalidRequestException("Both instanceIds and yarnConfig are required");
+    }
+    return deprovisioningOperations.deprovisionAll(request.getInstanceIds(),
+        request.getYarnConfig(), "on".equals(kerberos));
+  }
+
+  @VisibleForTesting
+  static <T> ResponseEntity<T> withETag(T body, String ifNoneMatch) {
+    String eTag = '"' + Hashing.murmur3_128().hashString(body.toString(), StandardCharsets.UTF_8)
+        .toString() + '"';
+    if (ifNoneMatch != null && Splitter.on(',').trimResults().splitToList(ifNoneMatch).stream()
+        .anyMatch(tag -> "*".equals(tag) || eTag.equals(tag) || ("W/" + eTag).equals(tag))) {
+      return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+    }
+    return ResponseEntity.ok().eTag(eTag).body(body);
   }
 }
@@ -0,0 +1,57 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.rest;
+
+import org.springframework.boot.actuate.endpoint.Endpoint;
+import org.springframework.boot.actuate.endpoint.mvc.MvcEndpoint;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+
+/**
+ * Actuator endpoint exposing provisioner metrics in Prometheus text format.
+ */
+public class PrometheusMvcEndpoint implements MvcEndpoint {
+
+  private final PrometheusMeterRegistry meterRegistry;
+
+  public PrometheusMvcEndpoint(PrometheusMeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
+  @ResponseBody
+  @RequestMapping(method = RequestMethod.GET, produces = TextFormat.CONTENT_TYPE_004)
+  public String scrape() {
+    return meterRegistry.scrape();
+  }
+
+  @Override
+  public String getPath() {
+    return "/prometheus";
+  }
+
+  @Override
+  public boolean isSensitive() {
+    return false;
+  }
+
+  @Override
+  @SuppressWarnings("rawtypes")
+  public Class<? extends Endpoint> getEndpointType() {
+    return null;
+  }
+}
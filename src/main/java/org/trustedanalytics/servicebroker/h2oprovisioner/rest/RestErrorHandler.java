@@ -13,7 +13,9 @@
  */
 package org.trustedanalytics.servicebroker.h2oprovisioner.rest;
 
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseBody;
@@ -28,4 +30,39 @@ public class RestErrorHandler {
     public String noApplicationsFound(JobNotFoundException e) {
         return e.getMessage();
     }
+
+    @ResponseBody
+    @ResponseStatus(HttpStatus.NOT_FOUND)
+    @ExceptionHandler(OperationNotFoundException.class)
+    public String noOperationFound(OperationNotFoundException e) {
+        return e.getMessage();
+    }
+
+    @ResponseBody
+    @ResponseStatus(HttpStatus.NOT_FOUND)
+    @ExceptionHandler(InstanceNotFoundException.class)
+    public String noInstanceFound(InstanceNotFoundException e) {
+        return e.getMessage();
+    }
+
+    @ResponseBody
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    @ExceptionHandler(InvalidRequestException.class)
+    public String invalidRequest(InvalidRequestException e) {
+        return e.getMessage();
+    }
+
+    @ResponseBody
+    @ResponseStatus(HttpStatus.GATEWAY_TIMEOUT)
+    @ExceptionHandler(H2oProvisioningTimeoutException.class)
+    public String provisioningTimedOut(H2oProvisioningTimeoutException e) {
+        return e.getMessage();
+    }
+
+    @ExceptionHandler(ProvisioningRejectedException.class)
+    public ResponseEntity<String> provisioningRejected(ProvisioningRejectedException e) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Retry-After", String.valueOf(e.getRetryAfterSeconds()));
+        return new ResponseEntity<>(e.getMessage(), headers, HttpStatus.SERVICE_UNAVAILABLE);
+    }
 }
@@ -16,6 +16,7 @@ package org.trustedanalytics.servicebroker.h2oprovisioner.rest.api;
 
 import org.springframework.http.ResponseEntity;
 
+import java.util.List;
 import java.util.Map;
 
 public interface H2oProvisionerRestApi {
@@ -43,6 +44,56 @@ public interface H2oProvisionerRestApi {
   ResponseEntity<H2oCredentials> createH2oInstance(String serviceInstanceId, String nodesCount,
       String memory, boolean kerberos, H2oProvisionerRequestData params);
   
+  /**
+   * Submits creation of H2O instance without waiting for h2odriver to finish. Returned operation
+   * id can be used to poll for the result with {@link #getProvisioningOperation(String)}.
+   *
+   * @param serviceInstanceId service instance unique id
+   * @param nodesCount number of H2O nodes to be spawned
+   * @param memory amount of memory for a single H2O node, e.g. 256m, 1g
+   * @param kerberos true if kerberos authentication should be performed
+   * @param params both YARN configuration map and user token
+   * @return accepted provisioning operation
+   */
+  ResponseEntity<H2oProvisioningOperation> submitH2oInstanceCreation(String serviceInstanceId,
+      String nodesCount, String memory, boolean kerberos, H2oProvisionerRequestData params);
+
+  /**
+   * Returns current state of provisioning operation. Credentials are present once the operation
+   * has succeeded.
+   *
+   * @param operationId id returned by
+   *        {@link #submitH2oInstanceCreation(String, String, String, boolean, H2oProvisionerRequestData)}
+   * @return provisioning operation
+   */
+  ResponseEntity<H2oProvisioningOperation> getProvisioningOperation(String operationId);
+
+  /**
+   * Returns status and credentials of H2O instance known to the provisioner.
+   *
+   * @param serviceInstanceId service instance unique id
+   * @return instance status, with ETag header
+   */
+  ResponseEntity<H2oInstanceStatus> getH2oInstance(String serviceInstanceId);
+
+  /**
+   * Returns status of H2O instance unless it has not changed.
+   *
+   * @param serviceInstanceId service instance unique id
+   * @param eTag ETag of previously returned status
+   * @return instance status, or response with status 304 and no body if it has not changed
+   */
+  ResponseEntity<H2oInstanceStatus> getH2oInstance(String serviceInstanceId, String eTag);
+
+  /**
+   * Returns a page of H2O instances known to the provisioner, oldest first.
+   *
+   * @param page page number, starting from 0
+   * @param size number of instances on a page, at most 500
+   * @return page of instances
+   */
+  ResponseEntity<H2oInstancesPage> getH2oInstances(int page, int size);
+
   /**
    * Destroys H2O server.
    * 
@@ -53,4 +104,16 @@ public interface H2oProvisionerRestApi {
    * @return id of a YARN job that was killed to stop h2o instance
    */
   ResponseEntity<String> deleteH2oInstance(String serviceInstanceId, Map<String, String> yarnConf, boolean kerberos);
+
+  /**
+   * Destroys H2O servers running on the same cluster.
+   *
+   * @param serviceInstanceIds service instance unique ids
+   * @param yarnConf YARN configuration map
+   * @param kerberos true if kerberos authentication should be performed
+   *
+   * @return result of deletion of every instance
+   */
+  ResponseEntity<H2oBatchDeleteResult> deleteH2oInstances(List<String> serviceInstanceIds,
+      Map<String, String> yarnConf, boolean kerberos);
 }
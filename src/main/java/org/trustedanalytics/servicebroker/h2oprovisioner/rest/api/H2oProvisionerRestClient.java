@@ -16,9 +16,13 @@ package org.trustedanalytics.servicebroker.h2oprovisioner.rest.api;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.client.RestOperations;
 
+import java.util.List;
 import java.util.Map;
 
 public class H2oProvisionerRestClient implements H2oProvisionerRestApi {
@@ -48,6 +52,45 @@ public class H2oProvisionerRestClient implements H2oProvisionerRestApi {
     return rest.postForEntity(url, params, H2oCredentials.class);
   }
 
+  @Override
+  public ResponseEntity<H2oProvisioningOperation> submitH2oInstanceCreation(
+      String serviceInstanceId, String nodesCount, String memory, boolean kerberos,
+      H2oProvisionerRequestData params) {
+    String url = String.format(
+        "%s/rest/instances/%s/create/async?nodesCount=%s&memory=%s&kerberos=%s", baseUrl,
+        serviceInstanceId, nodesCount, memory, kerberos ? "on" : "off");
+    LOGGER.info("calling provisioner with url '" + url + "'");
+    return rest.postForEntity(url, params, H2oProvisioningOperation.class);
+  }
+
+  @Override
+  public ResponseEntity<H2oProvisioningOperation> getProvisioningOperation(String operationId) {
+    String url = String.format("%s/rest/operations/%s", baseUrl, operationId);
+    return rest.getForEntity(url, H2oProvisioningOperation.class);
+  }
+
+  @Override
+  public ResponseEntity<H2oInstanceStatus> getH2oInstance(String serviceInstanceId) {
+    String url = String.format("%s/rest/instances/%s", baseUrl, serviceInstanceId);
+    return rest.getForEntity(url, H2oInstanceStatus.class);
+  }
+
+  @Override
+  public ResponseEntity<H2oInstanceStatus> getH2oInstance(String serviceInstanceId,
+      String eTag) {
+    String url = String.format("%s/rest/instances/%s", baseUrl, serviceInstanceId);
+    HttpHeaders headers = new HttpHeaders();
+    headers.setIfNoneMatch(eTag);
+    return rest.exchange(url, HttpMethod.GET, new HttpEntity<>(headers),
+        H2oInstanceStatus.class);
+  }
+
+  @Override
+  public ResponseEntity<H2oInstancesPage> getH2oInstances(int page, int size) {
+    String url = String.format("%s/rest/instances?page=%d&size=%d", baseUrl, page, size);
+    return rest.getForEntity(url, H2oInstancesPage.class);
+  }
+
   @Override
   public ResponseEntity<String> deleteH2oInstance(String serviceInstanceId,
       Map<String, String> yarnConf, boolean kerberos) {
@@ -57,4 +100,15 @@ public class H2oProvisionerRestClient implements H2oProvisionerRestApi {
 
     return rest.postForEntity(url, yarnConf, String.class);
   }
+
+  @Override
+  public ResponseEntity<H2oBatchDeleteResult> deleteH2oInstances(List<String> serviceInstanceIds,
+      Map<String, String> yarnConf, boolean kerberos) {
+    String url =
+        String.format("%s/rest/instances/delete?kerberos=%s", baseUrl, kerberos ? "on" : "off");
+    LOGGER.info("calling provisioner with url '" + url + "'");
+
+    return rest.postForEntity(url, new H2oBatchDeleteRequest(serviceInstanceIds, yarnConf),
+        H2oBatchDeleteResult.class);
+  }
 }
@@ -15,33 +15,80 @@ package org.trustedanalytics.servicebroker.h2oprovisioner.service;
 
 import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.DeprovisionerYarnClient;
 import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.DeprovisionerYarnClientProvider;
+import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.HadoopConfigurationCache;
+import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.ImmutableConfiguration;
 import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.KerberosClient;
+import org.trustedanalytics.servicebroker.h2oprovisioner.ports.PortsPool;
+import org.trustedanalytics.servicebroker.h2oprovisioner.registry.H2oInstance;
+import org.trustedanalytics.servicebroker.h2oprovisioner.registry.InstanceRegistry;
 import org.trustedanalytics.servicebroker.h2oprovisioner.rest.H2oDeprovisioningException;
 import org.trustedanalytics.servicebroker.h2oprovisioner.rest.JobNotFoundException;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oBatchDeleteResult;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oInstanceDeletion;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.micrometer.core.instrument.MeterRegistry;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.YarnApplicationState;
+import org.apache.hadoop.yarn.exceptions.ApplicationNotFoundException;
 import org.apache.hadoop.yarn.exceptions.YarnException;
+import org.apache.hadoop.yarn.util.ConverterUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import javax.security.auth.login.LoginException;
 
 public class H2oDeprovisioner {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(H2oDeprovisioner.class);
 
+  public static final String PHASE_METRICS_NAME = "h2o.deprovisioning.phase";
+
   private final String kerberosUser;
   private final KerberosClient kerberos;
   private final DeprovisionerYarnClientProvider yarnClientProvider;
+  private final PortsPool portsPool;
+  private final HadoopConfigurationCache hadoopConfigurations;
+  private final InstanceRegistry instanceRegistry;
+  private final ThreadPoolExecutor killExecutor;
+  private final PhaseMetrics phases;
 
+  /**
+   * @param maxParallelKills number of YARN applications killed at the same time by batch
+   *        deprovisioning
+   */
   public H2oDeprovisioner(String kerberosUser, KerberosClient kerberos,
-      DeprovisionerYarnClientProvider yarnClientProvider) {
+      DeprovisionerYarnClientProvider yarnClientProvider, PortsPool portsPool,
+      HadoopConfigurationCache hadoopConfigurations, InstanceRegistry instanceRegistry,
+      int maxParallelKills, MeterRegistry meterRegistry) {
     this.kerberos = kerberos;
     this.yarnClientProvider = yarnClientProvider;
     this.kerberosUser = kerberosUser;
+    this.portsPool = portsPool;
+    this.hadoopConfigurations = hadoopConfigurations;
+    this.instanceRegistry = instanceRegistry;
+    this.killExecutor = new ThreadPoolExecutor(maxParallelKills, maxParallelKills, 60L,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+        new ThreadFactoryBuilder().setNameFormat("h2o-deprovisioning-%d").setDaemon(true).build());
+    this.killExecutor.allowCoreThreadTimeOut(true);
+    this.phases = new PhaseMetrics(PHASE_METRICS_NAME, meterRegistry);
   }
 
 
@@ -49,23 +96,87 @@ public class H2oDeprovisioner {
       Map<String, String> hadoopConfiguration, boolean kerberosOn)
           throws H2oDeprovisioningException, JobNotFoundException {
     LOGGER.debug("Reading hadoop configuration...");
-    Configuration hadoopConf = new Configuration(false);
-    hadoopConfiguration.forEach(hadoopConf::set);
+    // kerberos login and yarn client may modify the configuration
+    Configuration hadoopConf = hadoopConfigurations.get(hadoopConfiguration).copy();
     LOGGER.debug("Configuration read.");
 
-    try {
-      DeprovisionerYarnClient yarnClient;
-      LOGGER.debug("Creating yarn client...");
-      if (kerberosOn) {
-        Configuration loggedHadoopConf = logInAndGetConfig(hadoopConf);
-        yarnClient = yarnClientProvider.getClient(kerberosUser, loggedHadoopConf);
-      } else {
-        yarnClient = yarnClientProvider.getClient(kerberosUser, hadoopConf);
+    return deprovisionH2o(createYarnClient(hadoopConf, kerberosOn), serviceInstanceId);
+  }
+
+  /**
+   * Deprovisions instances running on the same cluster with one YARN client. Job ids not found in
+   * instance registry are resolved from a single listing of running H2O jobs, jobs are killed in
+   * parallel.
+   *
+   * @return result for every distinct instance id, in request order
+   */
+  public H2oBatchDeleteResult deprovisionInstances(List<String> serviceInstanceIds,
+      Map<String, String> hadoopConfiguration, boolean kerberosOn)
+      throws H2oDeprovisioningException {
+    Configuration hadoopConf = hadoopConfigurations.get(hadoopConfiguration).copy();
+    Set<String> instanceIds = new LinkedHashSet<>(serviceInstanceIds);
+
+    try (DeprovisionerYarnClient client = createYarnClient(hadoopConf, kerberosOn)) {
+      client.start();
+      RunningJobs runningJobs = new RunningJobs(client);
+      if (instanceIds.stream().anyMatch(id -> !registeredApplicationId(id).isPresent())) {
+        runningJobs.get();
+      }
+
+      List<Future<H2oInstanceDeletion>> deletions = new ArrayList<>(instanceIds.size());
+      for (String instanceId : instanceIds) {
+        deletions.add(
+            killExecutor.submit(() -> deprovisionInBatch(client, runningJobs, instanceId)));
       }
+      List<H2oInstanceDeletion> results = new ArrayList<>(deletions.size());
+      try {
+        for (Future<H2oInstanceDeletion> deletion : deletions) {
+          results.add(deletion.get());
+        }
+      } catch (InterruptedException e) {
+        deletions.forEach(deletion -> deletion.cancel(true));
+        Thread.currentThread().interrupt();
+        throw new H2oDeprovisioningException("Interrupted while deprovisioning H2O", e);
+      } catch (ExecutionException e) {
+        throw new H2oDeprovisioningException("Unable to deprovision H2O " + e.getMessage(), e);
+      }
+      return new H2oBatchDeleteResult(results);
+
+    } catch (YarnException | IOException e) {
+      throw new H2oDeprovisioningException("Unable to list H2O jobs " + e.getMessage(), e);
+    }
+  }
+
+  public void shutdown() {
+    killExecutor.shutdownNow();
+  }
+
+  /**
+   * @return state of YARN application, empty if YARN does not know it
+   */
+  public Optional<YarnApplicationState> getApplicationState(ApplicationId applicationId,
+      ImmutableConfiguration hadoopConfiguration, boolean kerberosOn)
+      throws H2oDeprovisioningException {
+    try (DeprovisionerYarnClient client =
+        createYarnClient(hadoopConfiguration.copy(), kerberosOn)) {
+      client.start();
+      return client.getApplicationState(applicationId);
+    } catch (YarnException | IOException e) {
+      throw new H2oDeprovisioningException(
+          "Unable to get state of " + applicationId + ": " + e.getMessage(), e);
+    }
+  }
+
+  private DeprovisionerYarnClient createYarnClient(Configuration hadoopConf, boolean kerberosOn)
+      throws H2oDeprovisioningException {
+    Configuration clientConf = kerberosOn ? logInAndGetConfig(hadoopConf) : hadoopConf;
+    try (PhaseMetrics.Phase phase = phases.start("yarn_client")) {
+      LOGGER.debug("Creating yarn client...");
+      DeprovisionerYarnClient yarnClient = yarnClientProvider.getClient(kerberosUser, clientConf);
       LOGGER.debug("Yarn client created.");
+      phase.succeeded();
+      return yarnClient;
 
-      return deprovisionH2o(yarnClient, serviceInstanceId);
-      
     } catch (IOException e) {
       throw new H2oDeprovisioningException(
           "Unable to create yarn client." + e.getMessage(), e);
@@ -75,8 +186,10 @@ public class H2oDeprovisioner {
   private Configuration logInAndGetConfig(Configuration hadoopConf)
       throws H2oDeprovisioningException {
     LOGGER.debug("Logging in to Kerberos...");
-    try {
-      return kerberos.logInToKerberos(hadoopConf);
+    try (PhaseMetrics.Phase phase = phases.start("login")) {
+      Configuration loggedHadoopConf = kerberos.logInToKerberos(hadoopConf);
+      phase.succeeded();
+      return loggedHadoopConf;
     } catch (LoginException | IOException e) {
       throw new H2oDeprovisioningException("Unable to log in: " + e.getMessage(), e);
     }
@@ -84,20 +197,146 @@ public class H2oDeprovisioner {
 
   private String deprovisionH2o(DeprovisionerYarnClient yarnClient, String serviceInstanceId)
           throws H2oDeprovisioningException, JobNotFoundException {
-    try {
+    try (DeprovisionerYarnClient client = yarnClient) {
       LOGGER.debug("Starting yarn client...");
-      yarnClient.start();
+      client.start();
       LOGGER.debug("Yarn client started.");
 
-      LOGGER.debug("Extracting job Id...");
-      ApplicationId h2oServerJobId = yarnClient.getH2oJobId(serviceInstanceId);
-      LOGGER.debug("Extracted job id: " + h2oServerJobId.toString());
-      LOGGER.debug("Killing job with id: " + h2oServerJobId.toString());
-      yarnClient.killApplication(h2oServerJobId);
+      ApplicationId h2oServerJobId = killRegisteredJob(client, serviceInstanceId);
+      if (h2oServerJobId == null) {
+        // clusters handed out by WarmPool run under the job name of their warm id, the lookup
+        // does not find them; they are killed through their registry entry above
+        LOGGER.debug("Extracting job Id...");
+        try (PhaseMetrics.Phase phase = phases.start("job_lookup")) {
+          h2oServerJobId = client.getH2oJobId(serviceInstanceId);
+          phase.succeeded();
+        }
+        LOGGER.debug("Extracted job id: " + h2oServerJobId.toString());
+        LOGGER.debug("Killing job with id: " + h2oServerJobId.toString());
+        kill(client, h2oServerJobId);
+      }
       LOGGER.debug("Job " + h2oServerJobId + " killed.");
+      markDeleted(serviceInstanceId);
+      // driver of this instance may still hold its callback port
+      portsPool.release(serviceInstanceId);
       return h2oServerJobId.toString();
     } catch (YarnException | IOException e) {
       throw new H2oDeprovisioningException("Unable to deprovision H2O " + e.getMessage(), e);
     }
   }
+
+  private H2oInstanceDeletion deprovisionInBatch(DeprovisionerYarnClient client,
+      RunningJobs runningJobs, String serviceInstanceId) {
+    try {
+      ApplicationId h2oServerJobId = killRegisteredJob(client, serviceInstanceId);
+      if (h2oServerJobId == null) {
+        String h2oJobName = DeprovisionerYarnClient.h2oJobName(serviceInstanceId);
+        List<ApplicationId> h2oJobIds =
+            runningJobs.get().getOrDefault(h2oJobName, Collections.emptyList());
+        if (h2oJobIds.isEmpty()) {
+          return new H2oInstanceDeletion(serviceInstanceId, null,
+              H2oInstanceDeletion.Result.NOT_FOUND, "No running H2O job of " + serviceInstanceId);
+        }
+        if (h2oJobIds.size() > 1) {
+          // same as single deprovisioning, none of them is killed
+          return new H2oInstanceDeletion(serviceInstanceId, null,
+              H2oInstanceDeletion.Result.FAILED, "Error obtaining H2O job id from YARN. Found "
+                  + h2oJobIds.size() + " apps with name " + h2oJobName);
+        }
+        h2oServerJobId = h2oJobIds.get(0);
+        kill(client, h2oServerJobId);
+      }
+      LOGGER.debug("Job " + h2oServerJobId + " killed.");
+      markDeleted(serviceInstanceId);
+      portsPool.release(serviceInstanceId);
+      return new H2oInstanceDeletion(serviceInstanceId, h2oServerJobId.toString(),
+          H2oInstanceDeletion.Result.DELETED, null);
+    } catch (YarnException | IOException | RuntimeException e) {
+      LOGGER.error("Unable to deprovision H2O of " + serviceInstanceId, e);
+      return new H2oInstanceDeletion(serviceInstanceId, null, H2oInstanceDeletion.Result.FAILED,
+          e.getMessage());
+    }
+  }
+
+  /**
+   * @return application id of the instance if registry knows it as running, deleted instances
+   *         are looked up on YARN like unregistered ones
+   */
+  private Optional<String> registeredApplicationId(String serviceInstanceId) {
+    return instanceRegistry.get(serviceInstanceId)
+        .filter(instance -> instance.getState() == H2oInstance.State.RUNNING)
+        .map(H2oInstance::getApplicationId);
+  }
+
+  /**
+   * @return id of killed job, null if the instance has no application id registered or YARN
+   *         does not know it as running any more
+   */
+  private ApplicationId killRegisteredJob(DeprovisionerYarnClient client,
+      String serviceInstanceId) throws YarnException, IOException {
+    Optional<String> registered = registeredApplicationId(serviceInstanceId);
+    if (!registered.isPresent()) {
+      return null;
+    }
+
+    ApplicationId applicationId = ConverterUtils.toApplicationId(registered.get());
+    Optional<YarnApplicationState> state;
+    try (PhaseMetrics.Phase phase = phases.start("job_lookup")) {
+      state = client.getApplicationState(applicationId);
+      phase.succeeded();
+    }
+    if (state.orElse(null) != YarnApplicationState.RUNNING) {
+      // killing a finished application succeeds, it would be reported as deleted
+      LOGGER.info("Registered job " + applicationId + " is not running: " + state);
+      return null;
+    }
+    try {
+      LOGGER.debug("Killing registered job with id: " + applicationId);
+      kill(client, applicationId);
+      return applicationId;
+    } catch (ApplicationNotFoundException e) {
+      LOGGER.info("Registered job " + applicationId + " not found on YARN.", e);
+      return null;
+    }
+  }
+
+  private void kill(DeprovisionerYarnClient client, ApplicationId applicationId)
+      throws YarnException, IOException {
+    try (PhaseMetrics.Phase phase = phases.start("kill")) {
+      client.killApplication(applicationId);
+      phase.succeeded();
+    }
+  }
+
+  private void markDeleted(String serviceInstanceId) {
+    try {
+      instanceRegistry.updateState(serviceInstanceId, H2oInstance.State.DELETED);
+    } catch (UncheckedIOException e) {
+      // job is already killed, registry entry will be corrected by a deprovisioning retry
+      LOGGER.error("Unable to record deletion of " + serviceInstanceId, e);
+    }
+  }
+
+  /**
+   * Running H2O jobs by job name, listed at most once per batch.
+   */
+  private final class RunningJobs {
+    private final DeprovisionerYarnClient client;
+    private Map<String, List<ApplicationId>> jobs;
+
+    private RunningJobs(DeprovisionerYarnClient client) {
+      this.client = client;
+    }
+
+    private synchronized Map<String, List<ApplicationId>> get()
+        throws YarnException, IOException {
+      if (jobs == null) {
+        try (PhaseMetrics.Phase phase = phases.start("job_lookup")) {
+          jobs = client.getRunningH2oJobsByName();
+          phase.succeeded();
+        }
+      }
+      return jobs;
+    }
+  }
 }
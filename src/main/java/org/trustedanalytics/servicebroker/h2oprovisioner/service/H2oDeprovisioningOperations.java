@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.service;
+
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.H2oDeprovisioningException;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.JobNotFoundException;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oBatchDeleteResult;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs deprovisioning requests through {@link H2oDeprovisioner}, at most one per instance at a
+ * time: a request for an instance which is being deprovisioned joins the running deprovisioning
+ * and gets its result. Credentials kept by {@link H2oProvisioningOperations} for repeated create
+ * requests are dropped, so that the instance can be provisioned again.
+ */
+public class H2oDeprovisioningOperations {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(H2oDeprovisioningOperations.class);
+
+  public static final String FLIGHTS_METRIC_NAME = "h2o.deprovisioning.flights";
+
+  private final H2oDeprovisioner h2oDeprovisioner;
+  private final H2oProvisioningOperations provisioningOperations;
+  private final SingleFlight<String> flights;
+
+  public H2oDeprovisioningOperations(H2oDeprovisioner h2oDeprovisioner,
+      H2oProvisioningOperations provisioningOperations, MeterRegistry meterRegistry) {
+    this.h2oDeprovisioner = h2oDeprovisioner;
+    this.provisioningOperations = provisioningOperations;
+    // job of a deprovisioned instance is gone, repeated request should find that out
+    this.flights = new SingleFlight<>(FLIGHTS_METRIC_NAME, 0, TimeUnit.SECONDS, meterRegistry);
+  }
+
+  /**
+   * @return id of killed YARN application
+   */
+  public String deprovision(String serviceInstanceId, Map<String, String> hadoopConfiguration,
+      boolean kerberos) throws H2oDeprovisioningException, JobNotFoundException {
+
+    SingleFlight<String>.Flight flight = flights.begin(serviceInstanceId);
+    if (flight.isLeader()) {
+      provisioningOperations.forget(serviceInstanceId);
+      try {
+        flight.complete(
+            h2oDeprovisioner.deprovisionInstance(serviceInstanceId, hadoopConfiguration, kerberos));
+      } catch (H2oDeprovisioningException | JobNotFoundException | RuntimeException e) {
+        flight.fail(e);
+      } catch (Error e) {
+        // joined and later requests would wait for the flight forever
+        flight.fail(e);
+        throw e;
+      } finally {
+        // provisioning running in the meantime may have kept credentials of the killed job
+        provisioningOperations.forget(serviceInstanceId);
+      }
+    } else {
+      LOGGER.info("Deprovisioning of " + serviceInstanceId + " joined running deprovisioning.");
+    }
+
+    try {
+      return flight.getResult().get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new H2oDeprovisioningException(
+          "Interrupted while deprovisioning H2O of " + serviceInstanceId, e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof H2oDeprovisioningException) {
+        throw (H2oDeprovisioningException) e.getCause();
+      }
+      if (e.getCause() instanceof JobNotFoundException) {
+        throw (JobNotFoundException) e.getCause();
+      }
+      throw new H2oDeprovisioningException(
+          "Unable to deprovision H2O " + e.getCause().getMessage(), e);
+    }
+  }
+
+  /**
+   * Deprovisions instances in one batch, see
+   * {@link H2oDeprovisioner#deprovisionInstances(List, Map, boolean)}. Batches are not joined with
+   * single deprovisionings.
+   */
+  public H2oBatchDeleteResult deprovisionAll(List<String> serviceInstanceIds,
+      Map<String, String> hadoopConfiguration, boolean kerberos)
+      throws H2oDeprovisioningException {
+    serviceInstanceIds.forEach(provisioningOperations::forget);
+    try {
+      return h2oDeprovisioner.deprovisionInstances(serviceInstanceIds, hadoopConfiguration,
+          kerberos);
+    } finally {
+      serviceInstanceIds.forEach(provisioningOperations::forget);
+    }
+  }
+}
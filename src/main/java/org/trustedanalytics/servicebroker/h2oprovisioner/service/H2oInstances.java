@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.service;
+
+import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.ConfigFingerprint;
+import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.HadoopConfigurationCache;
+import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.ImmutableConfiguration;
+import org.trustedanalytics.servicebroker.h2oprovisioner.registry.H2oInstance;
+import org.trustedanalytics.servicebroker.h2oprovisioner.registry.InstanceRegistry;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.H2oDeprovisioningException;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.InstanceNotFoundException;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oCredentials;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oInstanceStatus;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oInstancesPage;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import org.apache.hadoop.yarn.api.records.YarnApplicationState;
+import org.apache.hadoop.yarn.util.ConverterUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.UncheckedIOException;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Statuses of provisioned H2O instances, served from {@link InstanceRegistry}. Registry knows only
+ * what provisioning and deprovisioning did, so a running instance not checked for a while is
+ * checked against YARN when it is read; H2O jobs which are not running any more are reported as
+ * stopped. The check needs hadoop configuration of the instance's cluster, so it is skipped when
+ * that configuration has not been sent since restart.
+ */
+public class H2oInstances {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(H2oInstances.class);
+
+  public static final int MAX_PAGE_SIZE = 500;
+
+  private static final Set<YarnApplicationState> ALIVE =
+      EnumSet.of(YarnApplicationState.NEW, YarnApplicationState.NEW_SAVING,
+          YarnApplicationState.SUBMITTED, YarnApplicationState.ACCEPTED,
+          YarnApplicationState.RUNNING);
+
+  private final InstanceRegistry instanceRegistry;
+  private final HadoopConfigurationCache hadoopConfigurations;
+  private final H2oDeprovisioner h2oDeprovisioner;
+  private final long staleAfterMillis;
+  private final ConcurrentMap<String, Long> checkedAt = new ConcurrentHashMap<>();
+
+  public H2oInstances(InstanceRegistry instanceRegistry,
+      HadoopConfigurationCache hadoopConfigurations, H2oDeprovisioner h2oDeprovisioner,
+      long staleAfter, TimeUnit unit) {
+    this.instanceRegistry = instanceRegistry;
+    this.hadoopConfigurations = hadoopConfigurations;
+    this.h2oDeprovisioner = h2oDeprovisioner;
+    this.staleAfterMillis = unit.toMillis(staleAfter);
+  }
+
+  /**
+   * @return status of the instance, with credentials only while it is running
+   */
+  public H2oInstanceStatus get(String instanceId) throws InstanceNotFoundException {
+    H2oInstance instance = instanceRegistry.get(instanceId)
+        .filter(registered -> !WarmPool.isWarm(registered.getInstanceId()))
+        .orElseThrow(() -> new InstanceNotFoundException("No such h2o instance: " + instanceId));
+    if (isStale(instance, System.currentTimeMillis())) {
+      check(instance);
+    }
+    return toStatus(instance,
+        instance.getState() == H2oInstance.State.RUNNING ? instance.getCredentials() : null);
+  }
+
+  /**
+   * Lists instances from the oldest one, without checking them against YARN. Idle clusters of
+   * {@link WarmPool} are not listed. Credentials are not listed either, they are returned only
+   * for a single instance.
+   */
+  public H2oInstancesPage list(int page, int size) {
+    int pageNumber = Math.max(page, 0);
+    int pageSize = Math.min(Math.max(size, 1), MAX_PAGE_SIZE);
+
+    List<H2oInstance> all = instanceRegistry.list().stream()
+        .filter(instance -> !WarmPool.isWarm(instance.getInstanceId()))
+        .collect(Collectors.toList());
+    all.sort(Comparator.comparingLong(H2oInstance::getCreatedAt)
+        .thenComparing(H2oInstance::getInstanceId));
+    List<H2oInstanceStatus> statuses = all.stream().skip((long) pageNumber * pageSize)
+        .limit(pageSize).map(instance -> toStatus(instance, null)).collect(Collectors.toList());
+    return new H2oInstancesPage(statuses, pageNumber, pageSize, all.size());
+  }
+
+  @VisibleForTesting
+  boolean isStale(H2oInstance instance, long now) {
+    if (instance.getState() != H2oInstance.State.RUNNING) {
+      checkedAt.remove(instance.getInstanceId());
+      return false;
+    }
+    if (instance.getApplicationId() == null || instance.getConfigFingerprint() == null) {
+      return false;
+    }
+    long lastCheck = checkedAt.getOrDefault(instance.getInstanceId(), instance.getCreatedAt());
+    return now - lastCheck > staleAfterMillis;
+  }
+
+  private void check(H2oInstance instance) {
+    String instanceId = instance.getInstanceId();
+    Long previous = checkedAt.get(instanceId);
+    long now = System.currentTimeMillis();
+    // one of concurrent readers checks, the others get what is known
+    boolean claimed = previous == null ? checkedAt.putIfAbsent(instanceId, now) == null
+        : checkedAt.replace(instanceId, previous, now);
+    if (!claimed) {
+      return;
+    }
+
+    Optional<ImmutableConfiguration> hadoopConf = hadoopConfigurations
+        .getIfPresent(ConfigFingerprint.valueOf(instance.getConfigFingerprint()));
+    if (!hadoopConf.isPresent()) {
+      LOGGER.debug("Configuration of cluster of " + instanceId + " not known, not checked.");
+      return;
+    }
+
+    try {
+      Optional<YarnApplicationState> state = h2oDeprovisioner.getApplicationState(
+          ConverterUtils.toApplicationId(instance.getApplicationId()), hadoopConf.get(),
+          instance.isKerberos());
+      if (state.isPresent() && ALIVE.contains(state.get())) {
+        return;
+      }
+      LOGGER.info("H2o job of " + instanceId + " is not running: " + state.orElse(null));
+      instanceRegistry.updateState(instanceId, H2oInstance.State.STOPPED);
+      instance.setState(H2oInstance.State.STOPPED);
+    } catch (H2oDeprovisioningException | UncheckedIOException e) {
+      LOGGER.warn("Unable to check h2o job of " + instanceId, e);
+    }
+  }
+
+  private static H2oInstanceStatus toStatus(H2oInstance instance, H2oCredentials credentials) {
+    return new H2oInstanceStatus(instance.getInstanceId(), instance.getApplicationId(),
+        H2oInstanceStatus.State.valueOf(instance.getState().name()), credentials,
+        instance.getCreatedAt());
+  }
+}
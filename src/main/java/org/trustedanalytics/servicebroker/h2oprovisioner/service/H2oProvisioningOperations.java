@@ -0,0 +1,199 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.service;
+
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.H2oSpawnerException;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.OperationNotFoundException;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.ProvisioningRejectedException;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oCredentials;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oProvisioningOperation;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oProvisioningOperation.State;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs provisioning requests through {@link ProvisioningScheduler}. Asynchronous requests do not
+ * hold a servlet thread for the whole h2odriver run; their finished operations are kept for a
+ * limited time so that clients can poll for the result. Requests served from {@link WarmPool} do
+ * not go through the scheduler at all.
+ *
+ * <p>There is at most one provisioning of an instance at a time: a request for an instance which
+ * is being provisioned joins the running operation and gets its result, a request for an instance
+ * provisioned a moment ago gets the same credentials. Otherwise a retried request would launch a
+ * second h2odriver with the same job name.
+ */
+public class H2oProvisioningOperations {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(H2oProvisioningOperations.class);
+
+  public static final String FLIGHTS_METRIC_NAME = "h2o.provisioning.flights";
+
+  private final H2oSpawner h2oSpawner;
+  private final ProvisioningScheduler scheduler;
+  private final WarmPool warmPool;
+  private final Cache<String, H2oProvisioningOperation> operations;
+  private final SingleFlight<H2oCredentials> flights;
+
+  /**
+   * @param resultCacheSeconds how long credentials of a finished provisioning are returned to
+   *        repeated requests for the same instance
+   */
+  public H2oProvisioningOperations(H2oSpawner h2oSpawner, ProvisioningScheduler scheduler,
+      WarmPool warmPool, long retentionMinutes, long resultCacheSeconds,
+      MeterRegistry meterRegistry) {
+    this.h2oSpawner = h2oSpawner;
+    this.scheduler = scheduler;
+    this.warmPool = warmPool;
+    this.operations =
+        CacheBuilder.newBuilder().expireAfterWrite(retentionMinutes, TimeUnit.MINUTES).build();
+    this.flights = new SingleFlight<>(FLIGHTS_METRIC_NAME, resultCacheSeconds, TimeUnit.SECONDS,
+        meterRegistry);
+  }
+
+  public H2oCredentials provision(String serviceInstanceId, String memory, String nodesCount,
+      boolean kerberos, Map<String, String> hadoopConfiguration)
+      throws H2oSpawnerException, ProvisioningRejectedException {
+
+    SingleFlight<H2oCredentials>.Flight flight = begin(serviceInstanceId);
+    if (flight.isLeader()) {
+      launch(flight, serviceInstanceId, memory, nodesCount, kerberos, hadoopConfiguration);
+    }
+    try {
+      // other requests may wait for the same flight, so it is not cancelled on interrupt
+      return flight.getResult().get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new H2oSpawnerException("Interrupted while provisioning h2o for: " + serviceInstanceId,
+          e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof H2oSpawnerException) {
+        throw (H2oSpawnerException) e.getCause();
+      }
+      if (e.getCause() instanceof ProvisioningRejectedException) {
+        throw (ProvisioningRejectedException) e.getCause();
+      }
+      throw new H2oSpawnerException("Unable to provision h2o for: " + serviceInstanceId, e);
+    }
+  }
+
+  public H2oProvisioningOperation submit(String serviceInstanceId, String memory,
+      String nodesCount, boolean kerberos, Map<String, String> hadoopConfiguration)
+      throws ProvisioningRejectedException {
+
+    SingleFlight<H2oCredentials>.Flight flight = begin(serviceInstanceId);
+    if (flight.isLeader()) {
+      return launch(flight, serviceInstanceId, memory, nodesCount, kerberos, hadoopConfiguration);
+    }
+    H2oProvisioningOperation operation = operations.getIfPresent(flight.getId());
+    if (operation == null) {
+      // leader of the flight has not recorded the operation yet
+      return operation(flight.getId(), serviceInstanceId, State.PENDING);
+    }
+    return operation;
+  }
+
+  public H2oProvisioningOperation get(String operationId) throws OperationNotFoundException {
+    H2oProvisioningOperation operation = operations.getIfPresent(operationId);
+    if (operation == null) {
+      throw new OperationNotFoundException("No such provisioning operation: " + operationId);
+    }
+    return operation;
+  }
+
+  /**
+   * Stops returning credentials of the last provisioning of the instance, e.g. because it is
+   * being deprovisioned.
+   */
+  public void forget(String serviceInstanceId) {
+    flights.forget(serviceInstanceId);
+  }
+
+  private SingleFlight<H2oCredentials>.Flight begin(String serviceInstanceId) {
+    SingleFlight<H2oCredentials>.Flight flight = flights.begin(serviceInstanceId);
+    if (!flight.isLeader()) {
+      LOGGER.info("Provisioning of " + serviceInstanceId + " joined operation " + flight.getId());
+    }
+    return flight;
+  }
+
+  /**
+   * Starts provisioning led by the flight, id of the flight becomes id of the operation.
+   *
+   * @return operation as accepted
+   */
+  private H2oProvisioningOperation launch(SingleFlight<H2oCredentials>.Flight flight,
+      String serviceInstanceId, String memory, String nodesCount, boolean kerberos,
+      Map<String, String> hadoopConfiguration) throws ProvisioningRejectedException {
+
+    String operationId = flight.getId();
+    try {
+      Optional<H2oCredentials> warm =
+          warmPool.take(serviceInstanceId, memory, nodesCount, kerberos, hadoopConfiguration);
+      if (warm.isPresent()) {
+        H2oProvisioningOperation succeeded = new H2oProvisioningOperation(operationId,
+            serviceInstanceId, State.SUCCEEDED, warm.get(), null);
+        update(succeeded);
+        flight.complete(warm.get());
+        return succeeded;
+      }
+
+      H2oProvisioningOperation pending = operation(operationId, serviceInstanceId, State.PENDING);
+      update(pending);
+      scheduler.submit(() -> {
+        update(operation(operationId, serviceInstanceId, State.RUNNING));
+        try {
+          H2oCredentials credentials = h2oSpawner.provisionInstance(serviceInstanceId, memory,
+              nodesCount, kerberos, hadoopConfiguration);
+          update(new H2oProvisioningOperation(operationId, serviceInstanceId, State.SUCCEEDED,
+              credentials, null));
+          flight.complete(credentials);
+        } catch (Exception e) {
+          LOGGER.error("Provisioning operation " + operationId + " failed.", e);
+          update(new H2oProvisioningOperation(operationId, serviceInstanceId, State.FAILED, null,
+              e.getMessage()));
+          flight.fail(e);
+        }
+        return null;
+      });
+
+      LOGGER.info("Provisioning of " + serviceInstanceId + " accepted as operation " + operationId);
+      return pending;
+
+    } catch (ProvisioningRejectedException | RuntimeException e) {
+      operations.invalidate(operationId);
+      flight.fail(e);
+      throw e;
+    }
+  }
+
+  private void update(H2oProvisioningOperation operation) {
+    operations.put(operation.getOperationId(), operation);
+  }
+
+  private static H2oProvisioningOperation operation(String operationId, String instanceId,
+      State state) {
+    return new H2oProvisioningOperation(operationId, instanceId, state, null, null);
+  }
+}
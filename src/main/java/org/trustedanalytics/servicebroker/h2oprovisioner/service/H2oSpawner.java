@@ -15,26 +15,46 @@
 package org.trustedanalytics.servicebroker.h2oprovisioner.service;
 
 import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.DeprovisionerYarnClient;
+import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.HadoopConfigurationCache;
+import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.ImmutableConfiguration;
 import org.trustedanalytics.servicebroker.h2oprovisioner.config.ExternalConfiguration;
 import org.trustedanalytics.servicebroker.h2oprovisioner.credentials.CredentialsSupplier;
+import org.trustedanalytics.servicebroker.h2oprovisioner.ports.PortLease;
 import org.trustedanalytics.servicebroker.h2oprovisioner.ports.PortsPool;
+import org.trustedanalytics.servicebroker.h2oprovisioner.registry.H2oInstance;
+import org.trustedanalytics.servicebroker.h2oprovisioner.registry.InstanceRegistry;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.H2oProvisioningTimeoutException;
 import org.trustedanalytics.servicebroker.h2oprovisioner.rest.H2oSpawnerException;
 import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oCredentials;
 import org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.H2oDriverExec;
-import org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.H2oUiFileParser;
+import org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.H2oDriverOutputParser;
 import org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.KinitExec;
+import org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.helpers.CommandTemplate;
+import org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.helpers.ExternalProcessExecutor;
+import org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.helpers.ProcessTimeoutException;
 
 import com.google.common.collect.ImmutableMap;
 
-import org.apache.hadoop.conf.Configuration;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.apache.hadoop.yarn.api.records.ApplicationId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class H2oSpawner {
 
@@ -42,17 +62,25 @@ public class H2oSpawner {
 
   private static final String HADOOP_USER_NAME_ENV_VAR = "HADOOP_USER_NAME";
 
+  public static final String PHASE_METRICS_NAME = "h2o.provisioning.phase";
+
   private final ExternalConfiguration externalConfiguration;
   private final PortsPool portsPool;
   private final CredentialsSupplier usernameSupplier;
   private final CredentialsSupplier passwordSupplier;
   private final KinitExec kinit;
   private final H2oDriverExec h2oDriver;
-  private final H2oUiFileParser h2oUiFileParser;
+  private final HadoopConfigurationCache hadoopConfigurations;
+  private final InstanceRegistry instanceRegistry;
+  private final Executor driverExecutor;
+  private final PhaseMetrics phases;
+  private final CommandTemplate driverCommand;
+  private final Map<String, String> noKerberosEnv;
 
   public H2oSpawner(ExternalConfiguration externalConfiguration, PortsPool portsPool,
       CredentialsSupplier usernameSupplier, CredentialsSupplier passwordSupplier, KinitExec kinit,
-      H2oDriverExec h2oDriver, H2oUiFileParser h2oUiFileParser) {
+      H2oDriverExec h2oDriver, HadoopConfigurationCache hadoopConfigurations,
+      InstanceRegistry instanceRegistry, Executor driverExecutor, MeterRegistry meterRegistry) {
 
     this.externalConfiguration = externalConfiguration;
     this.portsPool = portsPool;
@@ -60,7 +88,18 @@ public class H2oSpawner {
     this.passwordSupplier = passwordSupplier;
     this.kinit = kinit;
     this.h2oDriver = h2oDriver;
-    this.h2oUiFileParser = h2oUiFileParser;
+    this.hadoopConfigurations = hadoopConfigurations;
+    this.instanceRegistry = instanceRegistry;
+    this.driverExecutor = driverExecutor;
+    this.phases = new PhaseMetrics(PHASE_METRICS_NAME, meterRegistry);
+    this.driverCommand = CommandTemplate.builder()
+        .arg("hadoop", "jar", externalConfiguration.getH2oDriverJarpath(), "-driverif",
+            externalConfiguration.getH2oDriverIp(), "-driverport").slot()
+        .arg("-mapperXmx").slot().arg("-nodes").slot().arg("-output").slot()
+        .arg("-jobname").slot().arg("-username").slot().arg("-password").slot()
+        .arg("-disown").build();
+    this.noKerberosEnv = ImmutableMap.of(HADOOP_USER_NAME_ENV_VAR,
+        externalConfiguration.getNokrbDefaultUsername());
   }
 
   public H2oCredentials provisionInstance(String serviceInstanceId, String memory,
@@ -71,45 +110,121 @@ public class H2oSpawner {
     String user = usernameSupplier.get();
     String password = passwordSupplier.get();
 
+    MDC.put(ExternalProcessExecutor.INSTANCE_ID_MDC_KEY, serviceInstanceId);
     try {
-      String[] command = getH2oDriverCommand(serviceInstanceId, user, password, memory, nodesCount);
-      LOGGER.info("with such command: " + Arrays.toString(command));
-
-      Configuration hadoopConf = new Configuration(false);
-      hadoopConfiguration.forEach(hadoopConf::set);
+      ImmutableConfiguration hadoopConf = hadoopConfigurations.get(hadoopConfiguration);
 
-
-      if (kerberos) {
-        kinit.loginToKerberos();
-        h2oDriver.spawnH2oOnYarn(command, new HashMap<String, String>(), hadoopConf);
-      } else {
-        h2oDriver.spawnH2oOnYarn(command, ImmutableMap.of(HADOOP_USER_NAME_ENV_VAR,
-            externalConfiguration.getNokrbDefaultUsername()), hadoopConf);
+      PortLease driverPort;
+      try (PhaseMetrics.Phase phase = phases.start("port")) {
+        driverPort = portsPool.getPort(serviceInstanceId);
+        phase.succeeded();
       }
+      H2oDriverOutputParser output = new H2oDriverOutputParser();
+      DriverRun driverRun;
+      try {
+        String[] command = getH2oDriverCommand(serviceInstanceId, user, password, memory,
+            nodesCount, driverPort.getPort());
+        LOGGER.info("with such command: " + Arrays.toString(command));
 
+        Map<String, String> env;
+        if (kerberos) {
+          try (PhaseMetrics.Phase phase = phases.start("kinit")) {
+            kinit.loginToKerberos();
+            phase.succeeded();
+          }
+          env = ImmutableMap.of();
+        } else {
+          env = noKerberosEnv;
+        }
+        if (!driverPort.confirm()) {
+          // lease expired during kinit, its port may be leased to another instance already
+          LOGGER.warn("Driver port lease of " + serviceInstanceId + " expired, leasing again");
+          driverPort = portsPool.getPort(serviceInstanceId);
+          command = getH2oDriverCommand(serviceInstanceId, user, password, memory, nodesCount,
+              driverPort.getPort());
+          if (!driverPort.confirm()) {
+            throw new IOException("Driver port lease of " + serviceInstanceId + " expired");
+          }
+        }
+        driverRun = launchDriver(serviceInstanceId, command, env, hadoopConf, output);
+      } catch (Exception e) {
+        portsPool.release(serviceInstanceId);
+        throw e;
+      }
 
-      // TODO: what if exception will be thrown by getFlowUrl?
+      // TODO: what if exception will be thrown by awaitFlowUrl?
       // should we kill h2o on yarn = undo step: spawnH2oOnYarn?
       // We should kill - to be done after completion of DPNG-4123
 
-      String host =
-          Objects.requireNonNull(h2oUiFileParser.getFlowUrl(h2oUiPath(serviceInstanceId)));
+      CompletableFuture<ApplicationId> driver = driverRun.result;
+      String host;
+      try (PhaseMetrics.Phase phase = phases.start("flow_url")) {
+        host = output.awaitFlowUrl(driver,
+            Long.parseLong(externalConfiguration.getH2oDriverFlowUrlTimeoutSeconds()),
+            TimeUnit.SECONDS);
+        phase.succeeded();
+      } catch (Exception e) {
+        // interrupts the driver thread, which kills h2odriver process
+        driverRun.cancel(true);
+        if (!driverRun.started.get()) {
+          // driver still waited for a free driver thread, it will not give its port back
+          portsPool.release(serviceInstanceId);
+        }
+        throw e;
+      }
+      ApplicationId applicationId = driver.isDone() ? driver.join() : null;
+
+      H2oCredentials credentials =
+          new H2oCredentials(getAddress(host), getPort(host), user, password);
+      register(new H2oInstance(serviceInstanceId,
+          applicationId == null ? null : applicationId.toString(), driverPort.getPort(),
+          credentials, System.currentTimeMillis(), H2oInstance.State.RUNNING,
+          hadoopConf.getFingerprint().getValue(), kerberos));
+      if (applicationId == null) {
+        driver.thenAccept(id -> registerApplicationId(serviceInstanceId, id));
+      }
+      LOGGER.info("H2o for " + serviceInstanceId + " runs as YARN application " + applicationId);
 
-      return new H2oCredentials(getAddress(host), getPort(host), user, password);
+      return credentials;
 
     } catch (Exception e) {
+      if (isTimeout(e)) {
+        throw new H2oProvisioningTimeoutException(
+            errorMsg(serviceInstanceId) + ", " + rootMessage(e), e);
+      }
       throw new H2oSpawnerException(errorMsg(serviceInstanceId), e);
+    } finally {
+      MDC.remove(ExternalProcessExecutor.INSTANCE_ID_MDC_KEY);
     }
   }
 
+  private DriverRun launchDriver(String serviceInstanceId, String[] command,
+      Map<String, String> env, ImmutableConfiguration hadoopConf, H2oDriverOutputParser output) {
+
+    AtomicBoolean started = new AtomicBoolean();
+    DriverRun driverRun = new DriverRun(started, () -> {
+      started.set(true);
+      MDC.put(ExternalProcessExecutor.INSTANCE_ID_MDC_KEY, serviceInstanceId);
+      try (PhaseMetrics.Phase phase = phases.start("driver")) {
+        ApplicationId applicationId = h2oDriver.spawnH2oOnYarn(command, env, hadoopConf, output);
+        phase.succeeded();
+        return applicationId;
+      } finally {
+        // h2odriver is started with -disown, so it stops listening on the callback port when it
+        // exits and the port can be given to the next launch
+        portsPool.release(serviceInstanceId);
+        MDC.remove(ExternalProcessExecutor.INSTANCE_ID_MDC_KEY);
+      }
+    });
+    driverExecutor.execute(driverRun);
+    return driverRun;
+  }
+
   private String[] getH2oDriverCommand(String serviceInstanceId, String user, String password,
-      String memory, String nodesCount) throws IOException {
+      String memory, String nodesCount, int driverPort) {
 
-    return new String[] {"hadoop", "jar", externalConfiguration.getH2oDriverJarpath(), "-driverif",
-        externalConfiguration.getH2oDriverIp(), "-driverport", String.valueOf(portsPool.getPort()),
-        "-mapperXmx", memory, "-nodes", nodesCount, "-output", outputPath(serviceInstanceId),
-        "-jobname", jobName(serviceInstanceId), "-notify", h2oUiPath(serviceInstanceId),
-        "-username", user, "-password", password, "-disown",};
+    return driverCommand.fill(String.valueOf(driverPort), memory, nodesCount,
+        outputPath(serviceInstanceId), jobName(serviceInstanceId), user, password);
   }
 
   private String outputPath(String serviceInstanceId) {
@@ -120,10 +235,6 @@ public class H2oSpawner {
     return DeprovisionerYarnClient.h2oJobName(serviceInstanceId);
   }
 
-  private String h2oUiPath(String serviceInstanceId) {
-    return "h2o_ui_" + serviceInstanceId;
-  }
-
   private String getAddress(String host) {
     return host.split(":")[0];
   }
@@ -132,7 +243,69 @@ public class H2oSpawner {
     return host.split(":")[1];
   }
 
+  private void register(H2oInstance instance) {
+    try {
+      instanceRegistry.put(instance);
+    } catch (UncheckedIOException e) {
+      // h2o is already running, deprovisioning will look it up by job name
+      LOGGER.error("Unable to register " + instance.getInstanceId(), e);
+    }
+  }
+
+  private void registerApplicationId(String serviceInstanceId, ApplicationId applicationId) {
+    // credentials were handed out before the driver exited, so the id is filled in afterwards
+    instanceRegistry.get(serviceInstanceId)
+        .filter(i -> i.getApplicationId() == null && i.getState() == H2oInstance.State.RUNNING)
+        .ifPresent(i -> {
+          H2oInstance updated = i.copy();
+          updated.setApplicationId(applicationId == null ? null : applicationId.toString());
+          register(updated);
+        });
+  }
+
+  private static boolean isTimeout(Throwable e) {
+    for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+      if (cause instanceof TimeoutException || cause instanceof ProcessTimeoutException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String rootMessage(Throwable e) {
+    Throwable root = e;
+    while (root.getCause() != null) {
+      root = root.getCause();
+    }
+    return root.getMessage();
+  }
+
   private String errorMsg(String serviceInstanceId) {
     return "Unable to provision h2o for: " + serviceInstanceId;
   }
+
+  /**
+   * h2odriver run which can be cancelled by interrupting its thread; {@link #result} completes
+   * when the run ends or is cancelled.
+   */
+  private static final class DriverRun extends FutureTask<ApplicationId> {
+    private final CompletableFuture<ApplicationId> result = new CompletableFuture<>();
+    private final AtomicBoolean started;
+
+    private DriverRun(AtomicBoolean started, Callable<ApplicationId> run) {
+      super(run);
+      this.started = started;
+    }
+
+    @Override
+    protected void done() {
+      try {
+        result.complete(get());
+      } catch (ExecutionException e) {
+        result.completeExceptionally(e.getCause());
+      } catch (CancellationException | InterruptedException e) {
+        result.completeExceptionally(e);
+      }
+    }
+  }
 }
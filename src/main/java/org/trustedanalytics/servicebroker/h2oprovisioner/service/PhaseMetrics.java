@@ -0,0 +1,105 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Meters of phases of an operation, e.g. of provisioning. Every phase has a timer with
+ * percentiles and percentile histogram, counters of succeeded and failed runs and a gauge of runs
+ * in progress, all tagged with the phase name.
+ */
+public class PhaseMetrics {
+
+  private final String name;
+  private final MeterRegistry meterRegistry;
+  private final ConcurrentMap<String, Meters> phases = new ConcurrentHashMap<>();
+
+  /**
+   * @param name name of the timer; counters are named {@code <name>.runs}, gauges
+   *        {@code <name>.active}
+   */
+  public PhaseMetrics(String name, MeterRegistry meterRegistry) {
+    this.name = name;
+    this.meterRegistry = meterRegistry;
+  }
+
+  /**
+   * Starts a run of the phase. Run closed without {@link Phase#succeeded()} is counted as failed.
+   */
+  public Phase start(String phase) {
+    Meters meters = phases.computeIfAbsent(phase, this::register);
+    meters.active.incrementAndGet();
+    return new Phase(meters);
+  }
+
+  private Meters register(String phase) {
+    Timer timer = Timer.builder(name).description("Duration of " + phase + " phase")
+        .tag("phase", phase).publishPercentiles(0.5, 0.95, 0.99).publishPercentileHistogram()
+        .register(meterRegistry);
+    Counter succeeded = meterRegistry.counter(name + ".runs", "phase", phase, "outcome", "success");
+    Counter failed = meterRegistry.counter(name + ".runs", "phase", phase, "outcome", "failure");
+    AtomicInteger active =
+        meterRegistry.gauge(name + ".active", Tags.of("phase", phase), new AtomicInteger());
+    return new Meters(timer, succeeded, failed, active);
+  }
+
+  public static final class Phase implements AutoCloseable {
+    private final Meters meters;
+    private final long startedAt = System.nanoTime();
+    private boolean succeeded;
+    private boolean closed;
+
+    private Phase(Meters meters) {
+      this.meters = meters;
+    }
+
+    public void succeeded() {
+      succeeded = true;
+    }
+
+    @Override
+    public void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      meters.timer.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+      (succeeded ? meters.succeeded : meters.failed).increment();
+      meters.active.decrementAndGet();
+    }
+  }
+
+  private static final class Meters {
+    private final Timer timer;
+    private final Counter succeeded;
+    private final Counter failed;
+    private final AtomicInteger active;
+
+    private Meters(Timer timer, Counter succeeded, Counter failed, AtomicInteger active) {
+      this.timer = timer;
+      this.succeeded = succeeded;
+      this.failed = failed;
+      this.active = active;
+    }
+  }
+}
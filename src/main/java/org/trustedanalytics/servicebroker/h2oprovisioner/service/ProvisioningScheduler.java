@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.service;
+
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.ProvisioningRejectedException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the number of h2odriver launches running at the same time. Every launch forks its own
+ * hadoop JVM, so requests above the limit wait in a bounded queue and are rejected once the queue
+ * is full.
+ */
+public class ProvisioningScheduler {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ProvisioningScheduler.class);
+
+  private final ThreadPoolExecutor executor;
+  private final int retryAfterSeconds;
+  private final AtomicInteger activeLaunches = new AtomicInteger();
+  private final Timer queueWait;
+  private final Counter rejected;
+
+  public ProvisioningScheduler(ThreadPoolExecutor executor, int retryAfterSeconds,
+      MeterRegistry meterRegistry) {
+    this.executor = executor;
+    this.retryAfterSeconds = retryAfterSeconds;
+
+    meterRegistry.gauge("h2o.provisioning.queue.depth", executor, e -> e.getQueue().size());
+    meterRegistry.gauge("h2o.provisioning.launches.active", activeLaunches);
+    this.queueWait = Timer.builder("h2o.provisioning.queue.wait")
+        .description("Time provisioning request waited for a free launch slot")
+        .register(meterRegistry);
+    this.rejected = meterRegistry.counter("h2o.provisioning.rejected");
+  }
+
+  public <T> Future<T> submit(Callable<T> task) throws ProvisioningRejectedException {
+    long enqueuedAt = System.nanoTime();
+    try {
+      return executor.submit(() -> {
+        queueWait.record(System.nanoTime() - enqueuedAt, TimeUnit.NANOSECONDS);
+        activeLaunches.incrementAndGet();
+        try {
+          return task.call();
+        } finally {
+          activeLaunches.decrementAndGet();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      rejected.increment();
+      LOGGER.warn("Provisioning request rejected, " + executor.getQueue().size()
+          + " requests already waiting.");
+      throw new ProvisioningRejectedException(
+          "Too many provisioning requests in progress, try again later.", retryAfterSeconds);
+    }
+  }
+
+  public int getActiveLaunches() {
+    return activeLaunches.get();
+  }
+
+  public int getQueueDepth() {
+    return executor.getQueue().size();
+  }
+
+  public void shutdown() {
+    executor.shutdown();
+  }
+}
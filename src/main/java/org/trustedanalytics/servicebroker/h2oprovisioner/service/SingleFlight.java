@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.service;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs at most one operation per key at a time. Callers asking for a key whose operation is still
+ * running join it and share its result. Successful results are kept for a limited time, so that a
+ * retried request is answered without running the operation again.
+ *
+ * @param <V> result of the operation
+ */
+public class SingleFlight<V> {
+
+  private final Map<String, Flight> running = new HashMap<>();
+  private final Cache<String, Flight> completed;
+  private final Counter started;
+  private final Counter joined;
+  private final Counter cached;
+
+  /**
+   * @param name name of the counter of flights, tagged with result started, joined or cached
+   * @param resultTtl how long successful results are kept, 0 not to keep them
+   */
+  public SingleFlight(String name, long resultTtl, TimeUnit unit, MeterRegistry meterRegistry) {
+    this.completed = CacheBuilder.newBuilder().expireAfterWrite(resultTtl, unit).build();
+    this.started = meterRegistry.counter(name, "result", "started");
+    this.joined = meterRegistry.counter(name, "result", "joined");
+    this.cached = meterRegistry.counter(name, "result", "cached");
+  }
+
+  /**
+   * @return flight running for the key or its recent successful result, or a new flight which
+   *         the caller leads and has to finish with {@link Flight#complete} or {@link Flight#fail}
+   */
+  public synchronized Flight begin(String key) {
+    Flight flight = running.get(key);
+    if (flight != null) {
+      joined.increment();
+      return flight.follower();
+    }
+    flight = completed.getIfPresent(key);
+    if (flight != null) {
+      cached.increment();
+      return flight;
+    }
+
+    flight = new Flight(key, UUID.randomUUID().toString(), new CompletableFuture<>(), true);
+    running.put(key, flight);
+    started.increment();
+    return flight;
+  }
+
+  /**
+   * Drops kept result of the key, e.g. when it is no longer valid.
+   */
+  public void forget(String key) {
+    completed.invalidate(key);
+  }
+
+  private synchronized void finish(Flight flight, boolean succeeded) {
+    if (running.remove(flight.key, flight) && succeeded) {
+      completed.put(flight.key, flight.follower());
+    }
+  }
+
+  /**
+   * One run of the operation, as seen by one of its callers.
+   */
+  public final class Flight {
+    private final String key;
+    private final String id;
+    private final CompletableFuture<V> result;
+    private final boolean leader;
+
+    private Flight(String key, String id, CompletableFuture<V> result, boolean leader) {
+      this.key = key;
+      this.id = id;
+      this.result = result;
+      this.leader = leader;
+    }
+
+    /**
+     * @return id of the run, the same for all its callers
+     */
+    public String getId() {
+      return id;
+    }
+
+    public CompletableFuture<V> getResult() {
+      return result;
+    }
+
+    /**
+     * @return true if the caller started the run and is responsible for finishing it
+     */
+    public boolean isLeader() {
+      return leader;
+    }
+
+    public void complete(V value) {
+      Preconditions.checkState(leader, "Only leader can complete flight of %s", key);
+      result.complete(value);
+      finish(this, true);
+    }
+
+    public void fail(Throwable cause) {
+      Preconditions.checkState(leader, "Only leader can fail flight of %s", key);
+      result.completeExceptionally(cause);
+      finish(this, false);
+    }
+
+    private Flight follower() {
+      return new Flight(key, id, result, false);
+    }
+  }
+}
@@ -0,0 +1,457 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.service;
+
+import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.ConfigFingerprint;
+import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.HadoopConfigurationCache;
+import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.ImmutableConfiguration;
+import org.trustedanalytics.servicebroker.h2oprovisioner.registry.H2oInstance;
+import org.trustedanalytics.servicebroker.h2oprovisioner.registry.InstanceRegistry;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.H2oDeprovisioningException;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.H2oSpawnerException;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.JobNotFoundException;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oCredentials;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import org.apache.hadoop.yarn.api.records.YarnApplicationState;
+import org.apache.hadoop.yarn.util.ConverterUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps idle H2O clusters of configured shapes launched ahead of requests, so that provisioning
+ * of such a shape does not wait for YARN containers and H2O cloud formation. Warm clusters are
+ * spawned as instances with {@link #WARM_ID_PREFIX} ids and credentials nobody has seen; a
+ * cluster handed out is registered under the requested instance id and never comes back.
+ *
+ * <p>A cluster depends on the hadoop configuration and kerberos setting of the request, so the
+ * pool of a shape on a given hadoop cluster is filled after the first request for it. Pools are
+ * refilled by a single launcher, so warm launches take at most one h2odriver run next to the
+ * ones limited by {@link ProvisioningScheduler}.
+ *
+ * <p>Idle clusters are deprovisioned on shutdown. Clusters left running by a provisioner which
+ * did not shut down cleanly are found in the registry at startup and deprovisioned as soon as a
+ * request brings hadoop configuration of their cluster. A handed out cluster keeps its
+ * {@code H2O_BROKER_warm-*} YARN job name, so it can be deprovisioned only through its registry
+ * entry, not by the job name lookup used for instances the registry does not know.
+ */
+public class WarmPool {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(WarmPool.class);
+
+  public static final String WARM_ID_PREFIX = "warm-";
+
+  private static final long APPLICATION_ID_POLL_MILLIS = 200;
+
+  private final H2oSpawner h2oSpawner;
+  private final H2oDeprovisioner h2oDeprovisioner;
+  private final InstanceRegistry instanceRegistry;
+  private final HadoopConfigurationCache hadoopConfigurations;
+  private final Set<Shape> shapes;
+  private final int size;
+  private final ExecutorService launcher;
+  private final long applicationIdTimeoutNanos;
+  private final ConcurrentMap<PoolKey, Pool> pools = new ConcurrentHashMap<>();
+  private final ConcurrentMap<ConfigFingerprint, List<H2oInstance>> leftovers;
+  private final Counter hits;
+  private final Counter misses;
+  private final Timer idleTime;
+  private volatile boolean shutdown;
+
+  /**
+   * @param size number of idle clusters kept for every shape and hadoop cluster
+   * @param launcher executor warm clusters are launched and discarded on
+   * @param applicationIdTimeout how long a launched cluster may wait for h2odriver to report its
+   *        YARN application id; clusters without it could not be deprovisioned once handed out
+   */
+  public WarmPool(H2oSpawner h2oSpawner, H2oDeprovisioner h2oDeprovisioner,
+      InstanceRegistry instanceRegistry, HadoopConfigurationCache hadoopConfigurations,
+      Set<Shape> shapes, int size, ExecutorService launcher, long applicationIdTimeout,
+      TimeUnit unit, MeterRegistry meterRegistry) {
+    this.h2oSpawner = h2oSpawner;
+    this.h2oDeprovisioner = h2oDeprovisioner;
+    this.instanceRegistry = instanceRegistry;
+    this.hadoopConfigurations = hadoopConfigurations;
+    this.shapes = ImmutableSet.copyOf(shapes);
+    this.size = size;
+    this.launcher = launcher;
+    this.applicationIdTimeoutNanos = unit.toNanos(applicationIdTimeout);
+    this.leftovers = findLeftovers(instanceRegistry);
+
+    for (Shape shape : this.shapes) {
+      Gauge.builder("h2o.warmpool.idle", this, pool -> pool.idle(shape))
+          .description("Idle warm H2O clusters")
+          .tags("memory", shape.getMemory(), "nodes", shape.getNodesCount())
+          .register(meterRegistry);
+      Gauge.builder("h2o.warmpool.idle.memory", this,
+          pool -> pool.idle(shape) * (double) shape.getClusterMemoryBytes())
+          .description("YARN memory held by idle warm H2O clusters").baseUnit("bytes")
+          .tags("memory", shape.getMemory(), "nodes", shape.getNodesCount())
+          .register(meterRegistry);
+    }
+    this.hits = Counter.builder("h2o.warmpool.requests").tag("result", "hit")
+        .description("Provisioning requests of warm pool shapes").register(meterRegistry);
+    this.misses = Counter.builder("h2o.warmpool.requests").tag("result", "miss")
+        .description("Provisioning requests of warm pool shapes").register(meterRegistry);
+    this.idleTime = Timer.builder("h2o.warmpool.idle.time")
+        .description("Time warm H2O cluster was idle before it was handed out")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Hands out an idle cluster of requested shape, registered as {@code serviceInstanceId}, and
+   * starts launching its replacement.
+   *
+   * @return credentials of the cluster, empty if there is no idle cluster of the shape
+   */
+  public Optional<H2oCredentials> take(String serviceInstanceId, String memory, String nodesCount,
+      boolean kerberos, Map<String, String> hadoopConfiguration) {
+    if (!leftovers.isEmpty()) {
+      reclaimLeftovers(hadoopConfiguration);
+    }
+    Shape shape = new Shape(memory, nodesCount);
+    if (shutdown || size == 0 || !shapes.contains(shape)) {
+      return Optional.empty();
+    }
+
+    ImmutableConfiguration hadoopConf = hadoopConfigurations.get(hadoopConfiguration);
+    PoolKey key = new PoolKey(shape, kerberos, hadoopConf.getFingerprint());
+    Pool pool = pools.computeIfAbsent(key,
+        k -> new Pool(k, ImmutableMap.copyOf(hadoopConfiguration)));
+    try {
+      WarmCluster cluster;
+      while ((cluster = pool.idle.poll()) != null) {
+        Optional<H2oCredentials> credentials = isRunning(cluster, hadoopConf, kerberos)
+            ? handOut(cluster, serviceInstanceId) : Optional.empty();
+        if (credentials.isPresent()) {
+          hits.increment();
+          idleTime.record(System.nanoTime() - cluster.readyAt, TimeUnit.NANOSECONDS);
+          return credentials;
+        }
+        discard(pool, cluster.warmId);
+      }
+      misses.increment();
+      return Optional.empty();
+    } finally {
+      refill(pool);
+    }
+  }
+
+  public void shutdown() {
+    shutdown = true;
+    launcher.shutdownNow();
+    for (Pool pool : pools.values()) {
+      WarmCluster cluster;
+      while ((cluster = pool.idle.poll()) != null) {
+        deprovision(pool, cluster.warmId);
+      }
+    }
+  }
+
+  /**
+   * @return warm clusters registered as running, by fingerprint of hadoop configuration of their
+   *         cluster; nothing else runs them after restart
+   */
+  private static ConcurrentMap<ConfigFingerprint, List<H2oInstance>> findLeftovers(
+      InstanceRegistry instanceRegistry) {
+    ConcurrentMap<ConfigFingerprint, List<H2oInstance>> found = new ConcurrentHashMap<>();
+    for (H2oInstance instance : instanceRegistry.list()) {
+      if (!isWarm(instance.getInstanceId())
+          || instance.getState() != H2oInstance.State.RUNNING) {
+        continue;
+      }
+      if (instance.getConfigFingerprint() == null) {
+        LOGGER.warn("Warm h2o " + instance.getInstanceId() + " left by previous run has no "
+            + "cluster configuration recorded, it has to be killed on YARN manually");
+        continue;
+      }
+      found.computeIfAbsent(ConfigFingerprint.valueOf(instance.getConfigFingerprint()),
+          fingerprint -> new ArrayList<>()).add(instance);
+    }
+    if (!found.isEmpty()) {
+      LOGGER.info("Found warm h2o clusters left by previous run on " + found.size()
+          + " cluster(s), they will be deprovisioned");
+    }
+    return found;
+  }
+
+  /**
+   * @return true if the id is one of ids warm clusters are spawned under
+   */
+  public static boolean isWarm(String instanceId) {
+    return instanceId.startsWith(WARM_ID_PREFIX);
+  }
+
+  private void reclaimLeftovers(Map<String, String> hadoopConfiguration) {
+    ConfigFingerprint fingerprint =
+        hadoopConfigurations.get(hadoopConfiguration).getFingerprint();
+    List<H2oInstance> instances = leftovers.remove(fingerprint);
+    if (instances == null) {
+      return;
+    }
+    Map<String, String> conf = ImmutableMap.copyOf(hadoopConfiguration);
+    for (H2oInstance instance : instances) {
+      try {
+        launcher.execute(() -> deprovision(instance.getInstanceId(), conf, instance.isKerberos()));
+      } catch (RejectedExecutionException e) {
+        LOGGER.warn("Warm h2o " + instance.getInstanceId() + " left running, pool is shut down");
+      }
+    }
+  }
+
+  private int idle(Shape shape) {
+    return pools.values().stream().filter(pool -> pool.key.shape.equals(shape))
+        .mapToInt(pool -> pool.idle.size()).sum();
+  }
+
+  private boolean isRunning(WarmCluster cluster, ImmutableConfiguration hadoopConf,
+      boolean kerberos) {
+    try {
+      Optional<YarnApplicationState> state = h2oDeprovisioner.getApplicationState(
+          ConverterUtils.toApplicationId(cluster.applicationId), hadoopConf, kerberos);
+      if (state.isPresent() && state.get() == YarnApplicationState.RUNNING) {
+        return true;
+      }
+      LOGGER.info("Warm h2o " + cluster.warmId + " is not running: " + state.orElse(null));
+    } catch (H2oDeprovisioningException e) {
+      LOGGER.warn("Unable to check warm h2o " + cluster.warmId, e);
+    }
+    return false;
+  }
+
+  private Optional<H2oCredentials> handOut(WarmCluster cluster, String serviceInstanceId) {
+    Optional<H2oInstance> warm = instanceRegistry.get(cluster.warmId)
+        .filter(instance -> instance.getState() == H2oInstance.State.RUNNING);
+    if (!warm.isPresent()) {
+      return Optional.empty();
+    }
+
+    H2oInstance instance = warm.get().copy();
+    instance.setInstanceId(serviceInstanceId);
+    instance.setCreatedAt(System.currentTimeMillis());
+    try {
+      instanceRegistry.put(instance);
+    } catch (UncheckedIOException e) {
+      // not registered under the requested id, it could not be found by it when deprovisioned
+      LOGGER.error("Unable to register " + serviceInstanceId, e);
+      return Optional.empty();
+    }
+    try {
+      instanceRegistry.updateState(cluster.warmId, H2oInstance.State.DELETED);
+    } catch (UncheckedIOException e) {
+      LOGGER.error("Unable to mark warm h2o " + cluster.warmId + " as handed out", e);
+    }
+    LOGGER.info("Warm h2o " + cluster.warmId + " (" + cluster.applicationId + ") handed out to "
+        + serviceInstanceId);
+    return Optional.of(instance.getCredentials());
+  }
+
+  private void refill(Pool pool) {
+    synchronized (pool) {
+      while (!shutdown && pool.idle.size() + pool.launching < size) {
+        pool.launching++;
+        try {
+          launcher.execute(() -> launch(pool));
+        } catch (RejectedExecutionException e) {
+          pool.launching--;
+          return;
+        }
+      }
+    }
+  }
+
+  private void launch(Pool pool) {
+    String warmId = WARM_ID_PREFIX + UUID.randomUUID();
+    Shape shape = pool.key.shape;
+    try {
+      h2oSpawner.provisionInstance(warmId, shape.getMemory(), shape.getNodesCount(),
+          pool.key.kerberos, pool.hadoopConfiguration);
+      Optional<String> applicationId = awaitApplicationId(warmId);
+      if (!applicationId.isPresent()) {
+        LOGGER.warn("YARN application id of warm h2o " + warmId + " is not known, discarding it");
+      } else {
+        synchronized (pool) {
+          if (!shutdown) {
+            pool.idle.add(new WarmCluster(warmId, applicationId.get(), System.nanoTime()));
+            LOGGER.info("Warm h2o " + warmId + " of shape " + shape + " is ready");
+            return;
+          }
+        }
+      }
+      deprovision(pool, warmId);
+    } catch (H2oSpawnerException e) {
+      LOGGER.warn("Unable to launch warm h2o of shape " + shape, e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      deprovision(pool, warmId);
+    } finally {
+      synchronized (pool) {
+        pool.launching--;
+      }
+    }
+  }
+
+  private Optional<String> awaitApplicationId(String warmId) throws InterruptedException {
+    // h2odriver reports the id when it exits, shortly after the flow address
+    long deadline = System.nanoTime() + applicationIdTimeoutNanos;
+    while (true) {
+      Optional<H2oInstance> instance = instanceRegistry.get(warmId);
+      if (!instance.isPresent() || instance.get().getState() != H2oInstance.State.RUNNING) {
+        return Optional.empty();
+      }
+      if (instance.get().getApplicationId() != null) {
+        return Optional.of(instance.get().getApplicationId());
+      }
+      if (System.nanoTime() - deadline >= 0) {
+        return Optional.empty();
+      }
+      TimeUnit.MILLISECONDS.sleep(APPLICATION_ID_POLL_MILLIS);
+    }
+  }
+
+  private void discard(Pool pool, String warmId) {
+    try {
+      launcher.execute(() -> deprovision(pool, warmId));
+    } catch (RejectedExecutionException e) {
+      LOGGER.warn("Warm h2o " + warmId + " left running, pool is shut down");
+    }
+  }
+
+  private void deprovision(Pool pool, String warmId) {
+    deprovision(warmId, pool.hadoopConfiguration, pool.key.kerberos);
+  }
+
+  private void deprovision(String warmId, Map<String, String> hadoopConfiguration,
+      boolean kerberos) {
+    try {
+      h2oDeprovisioner.deprovisionInstance(warmId, hadoopConfiguration, kerberos);
+    } catch (H2oDeprovisioningException | JobNotFoundException | UncheckedIOException e) {
+      LOGGER.warn("Unable to deprovision warm h2o " + warmId, e);
+    }
+  }
+
+  /**
+   * Memory per node and nodes count of an H2O cluster, as they are sent in provisioning request.
+   */
+  @Getter
+  @EqualsAndHashCode
+  @ToString
+  public static final class Shape {
+    private final String memory;
+    private final String nodesCount;
+
+    public Shape(String memory, String nodesCount) {
+      this.memory = memory;
+      this.nodesCount = nodesCount;
+    }
+
+    /**
+     * @param shapes comma separated {@code memory:nodesCount} pairs, e.g. {@code 1g:1,4g:3}
+     */
+    public static Set<Shape> parseAll(String shapes) {
+      ImmutableSet.Builder<Shape> parsed = ImmutableSet.builder();
+      for (String shape : Splitter.on(',').trimResults().omitEmptyStrings().split(shapes)) {
+        List<String> parts = Splitter.on(':').trimResults().splitToList(shape);
+        if (parts.size() != 2) {
+          throw new IllegalArgumentException("Expected memory:nodesCount, got: " + shape);
+        }
+        Shape parsedShape = new Shape(parts.get(0), parts.get(1));
+        parsedShape.getClusterMemoryBytes();
+        parsed.add(parsedShape);
+      }
+      return parsed.build();
+    }
+
+    /**
+     * @return memory of all nodes, in bytes; memory is given like -mapperXmx of h2odriver
+     */
+    public long getClusterMemoryBytes() {
+      String value = memory.toLowerCase(Locale.ROOT);
+      int unit = value.isEmpty() ? -1 : "kmgt".indexOf(value.charAt(value.length() - 1));
+      try {
+        long perNode = unit < 0 ? Long.parseLong(value)
+            : Long.parseLong(value.substring(0, value.length() - 1)) << (10 * (unit + 1));
+        return perNode * Integer.parseInt(nodesCount);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid H2O cluster shape: " + this, e);
+      }
+    }
+  }
+
+  @EqualsAndHashCode
+  private static final class PoolKey {
+    private final Shape shape;
+    private final boolean kerberos;
+    private final ConfigFingerprint hadoopConfiguration;
+
+    private PoolKey(Shape shape, boolean kerberos, ConfigFingerprint hadoopConfiguration) {
+      this.shape = shape;
+      this.kerberos = kerberos;
+      this.hadoopConfiguration = hadoopConfiguration;
+    }
+  }
+
+  private static final class Pool {
+    private final PoolKey key;
+    private final Map<String, String> hadoopConfiguration;
+    private final Queue<WarmCluster> idle = new ConcurrentLinkedQueue<>();
+    // guarded by this
+    private int launching;
+
+    private Pool(PoolKey key, Map<String, String> hadoopConfiguration) {
+      this.key = key;
+      this.hadoopConfiguration = hadoopConfiguration;
+    }
+  }
+
+  private static final class WarmCluster {
+    private final String warmId;
+    private final String applicationId;
+    private final long readyAt;
+
+    private WarmCluster(String warmId, String applicationId, long readyAt) {
+      this.warmId = warmId;
+      this.applicationId = applicationId;
+      this.readyAt = readyAt;
+    }
+  }
+}
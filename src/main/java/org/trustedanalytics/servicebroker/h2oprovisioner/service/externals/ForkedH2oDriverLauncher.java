@@ -0,0 +1,73 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.service.externals;
+
+import org.trustedanalytics.servicebroker.h2oprovisioner.service.PhaseMetrics;
+import org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.helpers.ExternalProcessExecutor;
+import org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.helpers.LaunchEnvironment;
+
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Forks {@code hadoop jar} process. Hadoop configuration is passed to it through HADOOP_CONF_DIR
+ * pointing to a config directory of the launch.
+ */
+public class ForkedH2oDriverLauncher implements H2oDriverLauncher {
+
+  private static final String HADOOP_CONF_DIR_ENV_VAR = "HADOOP_CONF_DIR";
+
+  private final HadoopConfDirs confDirs;
+  private final ExternalProcessExecutor processExecutor;
+  private final long timeout;
+  private final TimeUnit timeoutUnit;
+  private final PhaseMetrics phases;
+
+  /**
+   * @param timeout driver process still running after this time is killed
+   * @param phases provisioning phases, config directory preparation is recorded as
+   *        {@code conf_dir}
+   */
+  public ForkedH2oDriverLauncher(HadoopConfDirs confDirs, ExternalProcessExecutor processExecutor,
+      long timeout, TimeUnit timeoutUnit, PhaseMetrics phases) {
+    this.confDirs = confDirs;
+    this.processExecutor = processExecutor;
+    this.timeout = timeout;
+    this.timeoutUnit = timeoutUnit;
+    this.phases = phases;
+  }
+
+  @Override
+  public int launch(String[] command, Map<String, String> envVariables, Configuration hadoopConf,
+      Consumer<String> outputListener) throws IOException {
+    try (HadoopConfDirs.Lease confDir = acquireConfDir(hadoopConf)) {
+      LaunchEnvironment env = LaunchEnvironment.system().with(envVariables)
+          .with(HADOOP_CONF_DIR_ENV_VAR, confDir.getPath().toString());
+      return processExecutor.runCommand("h2odriver", command, env, outputListener,
+          timeout, timeoutUnit);
+    }
+  }
+
+  private HadoopConfDirs.Lease acquireConfDir(Configuration hadoopConf) throws IOException {
+    try (PhaseMetrics.Phase phase = phases.start("conf_dir")) {
+      HadoopConfDirs.Lease confDir = confDirs.acquire(hadoopConf);
+      phase.succeeded();
+      return confDir;
+    }
+  }
+}
@@ -14,29 +14,73 @@
 
 package org.trustedanalytics.servicebroker.h2oprovisioner.service.externals;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.hadoop.conf.Configuration;
-import org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.helpers.ExternalProcessExecutor;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
 
 public class H2oDriverExec {
 
-  private final String yarnConfDir;
+  private final H2oDriverLauncher launcher;
+  private final H2oUiFileParser h2oUiFileParser;
 
-  public H2oDriverExec(String yarnConfDir) {
-    this.yarnConfDir = yarnConfDir;
+  /**
+   * @param h2oUiFileParser waits for the notify file after the driver returns, a disowned driver
+   *        may exit before H2O writes its address there
+   */
+  public H2oDriverExec(H2oDriverLauncher launcher, H2oUiFileParser h2oUiFileParser) {
+    this.launcher = launcher;
+    this.h2oUiFileParser = h2oUiFileParser;
   }
 
-  public void spawnH2oOnYarn(String[] command, Map<String, String> commandEnvVariables, Configuration hadoopConf)
+  /**
+   * @param output follows driver output, it gets H2O Flow address as soon as the driver reports it
+   * @return YARN application id of spawned H2O, null if it could not be read from driver output
+   */
+  public ApplicationId spawnH2oOnYarn(String[] command, Map<String, String> commandEnvVariables,
+      Configuration hadoopConf, H2oDriverOutputParser output)
       throws ExternalProcessException, IOException {
-    try (FileOutputStream stream = new FileOutputStream(yarnConfDir + "/yarn-site.xml")) {
-      hadoopConf.writeXml(new OutputStreamWriter(stream));
+    if (launcher.readsOutput()) {
+      checkExitCode(launcher.launch(command, commandEnvVariables, hadoopConf, output));
+      return output.getApplicationId();
     }
 
-    int h2oExitCode = ExternalProcessExecutor.runCommand(command, commandEnvVariables);
+    Path notifyFile = Files.createTempFile("h2o_ui_", null);
+    try {
+      checkExitCode(launcher.launch(withNotifyFile(command, notifyFile), commandEnvVariables,
+          hadoopConf, output));
+      output.flowUrlReported(awaitNotifyFile(notifyFile));
+      return output.getApplicationId();
+    } finally {
+      Files.deleteIfExists(notifyFile);
+    }
+  }
+
+  private String awaitNotifyFile(Path notifyFile) throws IOException {
+    try {
+      return h2oUiFileParser.awaitFlowUrl(notifyFile.toString());
+    } catch (TimeoutException e) {
+      throw new IOException(e.getMessage(), e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Waiting for h2odriver notify file cancelled");
+    }
+  }
+
+  private static String[] withNotifyFile(String[] command, Path notifyFile) {
+    String[] withNotify = Arrays.copyOf(command, command.length + 2);
+    withNotify[command.length] = "-notify";
+    withNotify[command.length + 1] = notifyFile.toString();
+    return withNotify;
+  }
+
+  private static void checkExitCode(int h2oExitCode) throws ExternalProcessException {
     if (h2oExitCode != 0) {
       throw new ExternalProcessException("h2odriver.jar exited with code " + h2oExitCode);
     }
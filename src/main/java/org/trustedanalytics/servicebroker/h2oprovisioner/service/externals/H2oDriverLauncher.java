@@ -0,0 +1,41 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.service.externals;
+
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Runs h2odriver. The command is a {@code hadoop jar <driver jar> <driver args>} command line.
+ */
+public interface H2oDriverLauncher {
+
+  /**
+   * @param outputListener gets lines printed by h2odriver, if the launcher can read them
+   * @return h2odriver exit code
+   */
+  int launch(String[] command, Map<String, String> envVariables, Configuration hadoopConf,
+      Consumer<String> outputListener) throws IOException;
+
+  /**
+   * @return false if the output listener gets no lines, so h2odriver has to report its address
+   *         through a notify file
+   */
+  default boolean readsOutput() {
+    return true;
+  }
+}
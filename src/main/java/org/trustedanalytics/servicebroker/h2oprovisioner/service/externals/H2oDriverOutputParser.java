@@ -0,0 +1,142 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.service.externals;
+
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Follows h2odriver output as it is printed. Picks YARN application id of the H2O job, which the
+ * driver prints in yarn logs hint and as the MapReduce job id with the same numbers, the address
+ * of H2O Flow and the progress of cluster formation.
+ */
+public class H2oDriverOutputParser implements Consumer<String> {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(H2oDriverOutputParser.class);
+
+  private static final Pattern APPLICATION_ID = Pattern.compile("application_(\\d+)_(\\d+)");
+  private static final Pattern JOB_ID = Pattern.compile("job_(\\d+)_(\\d+)");
+  private static final Pattern FLOW_URL =
+      Pattern.compile("Open H2O Flow in your web browser: (?:https?://)?([^/\\s]+)");
+  private static final Pattern CLOUD_FORMING =
+      Pattern.compile("Waiting for H2O cluster to come up");
+  private static final Pattern CLOUD_UP = Pattern.compile("H2O cluster \\(\\d+ nodes?\\) is up");
+
+  public enum Progress {
+    STARTED, SUBMITTED, CLOUD_FORMING, CLOUD_UP
+  }
+
+  private final CompletableFuture<String> flowUrl = new CompletableFuture<>();
+  private volatile ApplicationId applicationId;
+  private volatile Progress progress = Progress.STARTED;
+
+  @Override
+  public void accept(String line) {
+    if (applicationId == null) {
+      parseApplicationId(line);
+    }
+    if (!flowUrl.isDone()) {
+      Matcher matcher = FLOW_URL.matcher(line);
+      if (matcher.find()) {
+        flowUrlReported(matcher.group(1));
+      }
+    }
+    if (CLOUD_FORMING.matcher(line).find()) {
+      advance(Progress.CLOUD_FORMING);
+    } else if (CLOUD_UP.matcher(line).find()) {
+      advance(Progress.CLOUD_UP);
+    }
+  }
+
+  /**
+   * Sets H2O Flow address known from elsewhere than the output, e.g. the driver notify file.
+   */
+  public void flowUrlReported(String hostAndPort) {
+    if (flowUrl.complete(hostAndPort)) {
+      LOGGER.info("UI address = " + hostAndPort);
+    }
+  }
+
+  /**
+   * Waits until the driver reports H2O Flow address, which happens once the cluster is up and
+   * usually before the driver exits.
+   *
+   * @param driver completes when the driver exits
+   * @throws IOException when the driver fails or exits without reporting the address
+   * @throws TimeoutException when no address is reported within the timeout
+   */
+  public String awaitFlowUrl(CompletableFuture<?> driver, long timeout, TimeUnit unit)
+      throws IOException, InterruptedException, TimeoutException {
+    try {
+      CompletableFuture.anyOf(flowUrl, driver).get(timeout, unit);
+    } catch (ExecutionException e) {
+      if (!flowUrl.isDone()) {
+        throw new IOException("h2odriver failed before reporting H2O Flow address", e.getCause());
+      }
+    } catch (TimeoutException e) {
+      throw new TimeoutException("h2odriver did not report H2O Flow address within "
+          + timeout + " " + unit.name().toLowerCase() + ", last progress: " + progress);
+    }
+    String url = flowUrl.getNow(null);
+    if (url == null) {
+      throw new IOException("h2odriver exited without reporting H2O Flow address");
+    }
+    return url;
+  }
+
+  /**
+   * @return application id, null if the driver did not print it
+   */
+  public ApplicationId getApplicationId() {
+    return applicationId;
+  }
+
+  public Progress getProgress() {
+    return progress;
+  }
+
+  private void parseApplicationId(String line) {
+    Matcher matcher = APPLICATION_ID.matcher(line);
+    if (!matcher.find()) {
+      matcher = JOB_ID.matcher(line);
+      if (!matcher.find()) {
+        return;
+      }
+    }
+    applicationId = ApplicationId.newInstance(Long.parseLong(matcher.group(1)),
+        Integer.parseInt(matcher.group(2)));
+    advance(Progress.SUBMITTED);
+  }
+
+  private void advance(Progress next) {
+    // stdout and stderr are followed by separate threads, progress never goes back
+    synchronized (this) {
+      if (next.compareTo(progress) <= 0) {
+        return;
+      }
+      progress = next;
+    }
+    LOGGER.info("h2odriver progress: " + next);
+  }
+}
@@ -21,11 +21,97 @@ import org.slf4j.LoggerFactory;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+/**
+ * Reads the notify file of h2odriver, used when the launcher cannot follow driver output.
+ */
 public class H2oUiFileParser {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(H2oUiFileParser.class);
 
+  // driver completion does not produce file events, so the watch is polled at least this often
+  private static final long MAX_WATCH_WAIT_MILLIS = 200;
+
+  private final long timeoutMillis;
+
+  public H2oUiFileParser() {
+    this(10, TimeUnit.MINUTES);
+  }
+
+  public H2oUiFileParser(long timeout, TimeUnit unit) {
+    this.timeoutMillis = unit.toMillis(timeout);
+  }
+
+  /**
+   * Waits until a complete first line shows up in the notify file and returns it. Used after a
+   * disowned driver returned, H2O may write its address there later.
+   *
+   * @throws TimeoutException when no address shows up within the configured deadline
+   */
+  public String awaitFlowUrl(String h2oUiFilePath)
+      throws IOException, InterruptedException, TimeoutException {
+    return awaitFlowUrl(h2oUiFilePath, null);
+  }
+
+  /**
+   * Waits until h2odriver writes a complete first line to the notify file and returns it. The
+   * address is returned as soon as it appears, even if the driver is still running. If the driver
+   * fails first, its failure is rethrown; if it exits without writing a complete line, whatever it
+   * left in the file is parsed as before.
+   *
+   * @param driver running driver, null if the address is waited for regardless of the driver
+   * @throws TimeoutException when no address shows up within the configured deadline
+   */
+  public String awaitFlowUrl(String h2oUiFilePath, Future<?> driver)
+      throws IOException, InterruptedException, TimeoutException {
+
+    Path file = Paths.get(h2oUiFilePath).toAbsolutePath();
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+    try (WatchService watcher = file.getFileSystem().newWatchService()) {
+      file.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+          StandardWatchEventKinds.ENTRY_MODIFY);
+
+      while (true) {
+        Optional<String> address = readCompleteFirstLine(file);
+        if (address.isPresent()) {
+          LOGGER.info("UI address = " + address.get());
+          return address.get();
+        }
+        if (driver != null && driver.isDone()) {
+          checkDriverSucceeded(driver);
+          return getFlowUrl(h2oUiFilePath);
+        }
+
+        long remainingNanos = deadline - System.nanoTime();
+        if (remainingNanos <= 0) {
+          throw new TimeoutException("h2odriver did not write the H2O UI address to " + file
+              + " within " + timeoutMillis + " ms");
+        }
+        WatchKey key = watcher.poll(
+            Math.min(remainingNanos, TimeUnit.MILLISECONDS.toNanos(MAX_WATCH_WAIT_MILLIS)),
+            TimeUnit.NANOSECONDS);
+        if (key != null) {
+          key.pollEvents();
+          key.reset();
+        }
+      }
+    }
+  }
+
   public String getFlowUrl(String h2oUiFilePath) throws IOException {
     try (FileReader reader = new FileReader(h2oUiFilePath)) {
       return getFlowUrl(new BufferedReader(reader));
@@ -46,7 +132,36 @@ public class H2oUiFileParser {
       }
     }
 
+    if (address == null) {
+      throw new IOException("H2O UI file is empty");
+    }
     LOGGER.info("UI address = " + address);
     return address;
   }
+
+  private static Optional<String> readCompleteFirstLine(Path file) throws IOException {
+    byte[] content;
+    try {
+      content = Files.readAllBytes(file);
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    }
+    // the driver may still be writing, a line counts only once its terminator is there
+    for (int i = 0; i < content.length; i++) {
+      if (content[i] == '\n') {
+        String line = new String(content, 0, i, StandardCharsets.UTF_8).trim();
+        return line.isEmpty() ? Optional.empty() : Optional.of(line);
+      }
+    }
+    return Optional.empty();
+  }
+
+  private static void checkDriverSucceeded(Future<?> driver)
+      throws IOException, InterruptedException {
+    try {
+      driver.get();
+    } catch (ExecutionException e) {
+      throw new IOException("h2odriver failed before writing the H2O UI address", e.getCause());
+    }
+  }
 }
@@ -0,0 +1,266 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.service.externals;
+
+import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.ConfigFingerprint;
+import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.ImmutableConfiguration;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import org.apache.hadoop.conf.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Hadoop config directories for h2odriver launches. Each directory holds files of the base
+ * HADOOP_CONF_DIR with yarn-site.xml replaced by launch configuration. Directories are named by
+ * hash of the configuration, so the same configuration is written only once, also across
+ * restarts. Least recently used directories above the limit are deleted, unless a launch still
+ * uses them.
+ */
+public class HadoopConfDirs {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(HadoopConfDirs.class);
+
+  private static final String YARN_SITE = "yarn-site.xml";
+  // complete directories are named by hash only, anything else is a leftover of a write or delete
+  private static final String TMP_SUFFIX = ".tmp";
+  private static final String DELETED_SUFFIX = ".deleted";
+
+  private final Path baseConfDir;
+  private final Path root;
+  private final int maxDirs;
+  private final Map<String, ConfDir> dirs = new LinkedHashMap<>(16, 0.75f, true);
+
+  /**
+   * @param root directory kept across restarts; directories found there are reused, leftovers of
+   *        interrupted writes and deletes are removed
+   */
+  public HadoopConfDirs(String baseConfDir, Path root, int maxDirs) throws IOException {
+    this.baseConfDir = Paths.get(baseConfDir);
+    this.root = Files.createDirectories(root);
+    this.maxDirs = maxDirs;
+    loadExisting();
+    evictUnused();
+  }
+
+  /**
+   * @return directory with given configuration, it is not deleted until the lease is closed
+   */
+  public Lease acquire(Configuration hadoopConf) throws IOException {
+    String hash = hash(hadoopConf);
+    ConfDir dir;
+    synchronized (this) {
+      dir = dirs.computeIfAbsent(hash, h -> new ConfDir(root.resolve(h)));
+      dir.users++;
+    }
+
+    try {
+      dir.writeOnce(hadoopConf);
+    } catch (IOException | RuntimeException e) {
+      release(hash, dir);
+      throw e;
+    }
+    evictUnused();
+    return new Lease(hash, dir);
+  }
+
+  @VisibleForTesting
+  synchronized int size() {
+    return dirs.size();
+  }
+
+  @VisibleForTesting
+  static String hash(Configuration hadoopConf) {
+    if (hadoopConf instanceof ImmutableConfiguration) {
+      return ((ImmutableConfiguration) hadoopConf).getFingerprint().getValue();
+    }
+    return ConfigFingerprint.of(hadoopConf).getValue();
+  }
+
+  private synchronized void release(String hash, ConfDir dir) {
+    dir.users--;
+    if (!dir.written && dir.users == 0) {
+      dirs.remove(hash, dir);
+    }
+  }
+
+  private void evictUnused() {
+    List<Path> evicted = new ArrayList<>();
+    synchronized (this) {
+      Iterator<ConfDir> eldestFirst = dirs.values().iterator();
+      while (dirs.size() > maxDirs && eldestFirst.hasNext()) {
+        ConfDir dir = eldestFirst.next();
+        if (dir.users == 0) {
+          eldestFirst.remove();
+          // renamed under the lock, so that a new directory of the same configuration is written
+          // again instead of reusing this one
+          dir.moveAside().ifPresent(evicted::add);
+        }
+      }
+    }
+    evicted.forEach(HadoopConfDirs::delete);
+  }
+
+  private void loadExisting() throws IOException {
+    List<Path> existing = new ArrayList<>();
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(root)) {
+      for (Path entry : entries) {
+        if (entry.getFileName().toString().contains(".")) {
+          delete(entry);
+        } else if (Files.isDirectory(entry)) {
+          existing.add(entry);
+        }
+      }
+    }
+    existing.sort(Comparator.comparing(HadoopConfDirs::lastModified));
+    for (Path path : existing) {
+      ConfDir dir = new ConfDir(path);
+      dir.written = true;
+      dirs.put(path.getFileName().toString(), dir);
+    }
+    LOGGER.info("Hadoop config dirs found in " + root + ": " + existing.size());
+  }
+
+  private static long lastModified(Path path) {
+    try {
+      return Files.getLastModifiedTime(path).toMillis();
+    } catch (IOException e) {
+      return 0L;
+    }
+  }
+
+  public final class Lease implements AutoCloseable {
+    private final String hash;
+    private final ConfDir dir;
+
+    private Lease(String hash, ConfDir dir) {
+      this.hash = hash;
+      this.dir = dir;
+    }
+
+    public Path getPath() {
+      return dir.path;
+    }
+
+    @Override
+    public void close() {
+      release(hash, dir);
+      evictUnused();
+    }
+  }
+
+  private final class ConfDir {
+    private final Path path;
+    private int users;
+    private volatile boolean written;
+
+    private ConfDir(Path path) {
+      this.path = path;
+    }
+
+    private synchronized void writeOnce(Configuration hadoopConf) throws IOException {
+      if (written) {
+        return;
+      }
+      if (Files.isDirectory(path)) {
+        // directories are moved in place when complete, so an existing one can be reused
+        written = true;
+        return;
+      }
+
+      Path tmp = Files.createTempDirectory(root, path.getFileName() + TMP_SUFFIX);
+      try {
+        copyBaseConf(tmp);
+        try (Writer writer = new OutputStreamWriter(
+            Files.newOutputStream(tmp.resolve(YARN_SITE)), StandardCharsets.UTF_8)) {
+          hadoopConf.writeXml(writer);
+        }
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+        deleteRecursively(tmp);
+        throw e;
+      }
+      written = true;
+      LOGGER.info("Hadoop config dir created: " + path);
+    }
+
+    private void copyBaseConf(Path target) throws IOException {
+      if (!Files.isDirectory(baseConfDir)) {
+        return;
+      }
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(baseConfDir,
+          file -> Files.isRegularFile(file) && !YARN_SITE.equals(file.getFileName().toString()))) {
+        for (Path file : files) {
+          Files.copy(file, target.resolve(file.getFileName()));
+        }
+      }
+    }
+
+    /**
+     * @return new path of the directory, empty if there is none
+     */
+    private Optional<Path> moveAside() {
+      if (!Files.isDirectory(path)) {
+        return Optional.empty();
+      }
+      Path deleted = path.resolveSibling(path.getFileName() + DELETED_SUFFIX + UUID.randomUUID());
+      try {
+        return Optional.of(Files.move(path, deleted, StandardCopyOption.ATOMIC_MOVE));
+      } catch (IOException e) {
+        LOGGER.warn("Unable to delete hadoop config dir: " + path, e);
+        return Optional.empty();
+      }
+    }
+  }
+
+  private static void delete(Path dir) {
+    try {
+      deleteRecursively(dir);
+      LOGGER.info("Hadoop config dir deleted: " + dir);
+    } catch (IOException e) {
+      LOGGER.warn("Unable to delete hadoop config dir: " + dir, e);
+    }
+  }
+
+  private static void deleteRecursively(Path dir) throws IOException {
+    if (!Files.exists(dir)) {
+      return;
+    }
+    try (Stream<Path> paths = Files.walk(dir)) {
+      for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(path);
+      }
+    }
+  }
+}
@@ -0,0 +1,308 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.service.externals;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.base.Throwables;
+import com.google.common.io.CharStreams;
+
+import org.apache.hadoop.conf.Configuration;
+import org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.helpers.ProcessTimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.security.Permission;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Runs h2odriver inside provisioner JVM, which saves JVM startup and hadoop classpath scanning
+ * of {@code hadoop jar}. Drivers run on the given executor. Every launch gets its own class
+ * loader over the driver jar and hadoop classpath, closed when the driver returns, so static
+ * state of hadoop and h2odriver classes (UserGroupInformation login, FileSystem cache, parsed
+ * driver options) is never seen by another launch. Executor threads bound the number of loaders
+ * alive at once, a driver that missed its deadline keeps its loader until it returns.
+ *
+ * <p>h2odriver calls {@code System.exit} on bad arguments and some errors. While an in-process
+ * launcher exists, a security manager refuses exit to code loaded by a driver class loader; the
+ * launch fails instead of the provisioner JVM.
+ */
+public class InProcessH2oDriverLauncher implements H2oDriverLauncher {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(InProcessH2oDriverLauncher.class);
+
+  private static final String DRIVER_CLASS = "water.hadoop.h2odriver";
+  private static final String HADOOP_USER_NAME_ENV_VAR = "HADOOP_USER_NAME";
+
+  private final Supplier<List<URL>> hadoopClasspath;
+  private final ExecutorService executor;
+  private final long timeout;
+  private final TimeUnit timeoutUnit;
+
+  /**
+   * @param hadoopClasspath hadoop classpath in {@code hadoop classpath} output format, when
+   *        empty it is taken from {@code hadoop classpath} command on the first launch
+   * @param executor runs drivers, its thread count bounds concurrent launches and loaders
+   * @param timeout driver still running after this time is interrupted
+   */
+  public InProcessH2oDriverLauncher(String hadoopClasspath, ExecutorService executor,
+      long timeout, TimeUnit timeoutUnit) {
+    this.hadoopClasspath = Suppliers.memoize(() -> toUrls(
+        Strings.isNullOrEmpty(hadoopClasspath) ? readHadoopClasspath() : hadoopClasspath));
+    this.executor = executor;
+    this.timeout = timeout;
+    this.timeoutUnit = timeoutUnit;
+    DriverExitGuard.install();
+  }
+
+  /**
+   * Driver prints to provisioner stdout here, so output listener gets no lines.
+   */
+  @Override
+  public int launch(String[] command, Map<String, String> envVariables, Configuration hadoopConf,
+      Consumer<String> outputListener) throws IOException {
+    Preconditions.checkArgument(command.length > 2 && "jar".equals(command[1]),
+        "Not a 'hadoop jar' command: " + Arrays.toString(command));
+    String driverJar = command[2];
+    String[] driverArgs = Arrays.copyOfRange(command, 3, command.length);
+    String userName = envVariables.get(HADOOP_USER_NAME_ENV_VAR);
+
+    Future<Integer> driver =
+        executor.submit(() -> runDriver(driverJar, driverArgs, hadoopConf, userName));
+    try {
+      return driver.get(timeout, timeoutUnit);
+    } catch (TimeoutException e) {
+      driver.cancel(true);
+      throw new ProcessTimeoutException(
+          "h2odriver did not finish within " + timeout + " " + timeoutUnit.name().toLowerCase());
+    } catch (InterruptedException e) {
+      driver.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("h2odriver cancelled");
+    } catch (ExecutionException e) {
+      Throwables.propagateIfPossible(e.getCause(), IOException.class);
+      throw new IOException("Unable to run " + DRIVER_CLASS + " from " + driverJar, e.getCause());
+    }
+  }
+
+  private int runDriver(String driverJar, String[] driverArgs, Configuration hadoopConf,
+      String userName) throws IOException, ReflectiveOperationException {
+    Thread thread = Thread.currentThread();
+    ClassLoader previousLoader = thread.getContextClassLoader();
+    try (URLClassLoader loader = newLoader(driverJar)) {
+      thread.setContextClassLoader(loader);
+      return new IsolatedDriver(loader).run(hadoopConf, driverArgs, userName);
+    } finally {
+      thread.setContextClassLoader(previousLoader);
+    }
+  }
+
+  private URLClassLoader newLoader(String driverJar) throws MalformedURLException {
+    List<URL> classpath = new ArrayList<>();
+    classpath.add(new File(driverJar).toURI().toURL());
+    classpath.addAll(hadoopClasspath.get());
+    return new DriverClassLoader(classpath.toArray(new URL[classpath.size()]));
+  }
+
+  @Override
+  public boolean readsOutput() {
+    return false;
+  }
+
+
+  private static String readHadoopClasspath() {
+    try {
+      Process process = new ProcessBuilder("hadoop", "classpath")
+          .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+      String output;
+      try (Reader stdout =
+          new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8)) {
+        output = CharStreams.toString(stdout);
+      }
+      int exitCode = process.waitFor();
+      if (exitCode != 0) {
+        throw new IllegalStateException("'hadoop classpath' exited with code " + exitCode);
+      }
+      return output.trim();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while reading hadoop classpath", e);
+    }
+  }
+
+  @VisibleForTesting
+  static List<URL> toUrls(String hadoopClasspath) {
+    List<URL> urls = new ArrayList<>();
+    for (String entry : Splitter.on(File.pathSeparatorChar).omitEmptyStrings().trimResults()
+        .split(hadoopClasspath)) {
+      if (entry.endsWith("*")) {
+        File[] jars = new File(entry.substring(0, entry.length() - 1))
+            .listFiles((dir, name) -> name.endsWith(".jar"));
+        if (jars != null) {
+          Arrays.sort(jars);
+          for (File jar : jars) {
+            urls.add(toUrl(jar));
+          }
+        }
+      } else {
+        urls.add(toUrl(new File(entry)));
+      }
+    }
+    LOGGER.info("Hadoop classpath for in-process h2odriver: " + urls.size() + " entries");
+    return urls;
+  }
+
+  private static URL toUrl(File file) {
+    try {
+      return file.toURI().toURL();
+    } catch (MalformedURLException e) {
+      throw new IllegalArgumentException("Invalid classpath entry: " + file, e);
+    }
+  }
+
+  /**
+   * Hadoop and h2odriver classes seen through the class loader of a launch.
+   */
+  private static final class IsolatedDriver {
+    private final ClassLoader loader;
+
+    private IsolatedDriver(ClassLoader loader) {
+      this.loader = loader;
+    }
+
+    private int run(Configuration hadoopConf, String[] driverArgs, String userName)
+        throws ReflectiveOperationException {
+      Object conf = copyConfiguration(hadoopConf);
+      Class<?> ugiClass = loader.loadClass("org.apache.hadoop.security.UserGroupInformation");
+      ugiClass.getMethod("setConfiguration", confClass()).invoke(null, conf);
+
+      try {
+        if (userName == null) {
+          return runTool(conf, driverArgs);
+        }
+
+        // replaces HADOOP_USER_NAME environment variable of the forked driver
+        Object ugi = ugiClass.getMethod("createRemoteUser", String.class).invoke(null, userName);
+        PrivilegedExceptionAction<Integer> runDriver = () -> runTool(conf, driverArgs);
+        return (Integer) ugiClass.getMethod("doAs", PrivilegedExceptionAction.class)
+            .invoke(ugi, runDriver);
+      } finally {
+        // cached file systems keep client threads, which would keep the closed loader alive
+        loader.loadClass("org.apache.hadoop.fs.FileSystem").getMethod("closeAll").invoke(null);
+      }
+    }
+
+    private Object copyConfiguration(Configuration hadoopConf)
+        throws ReflectiveOperationException {
+      Object conf = confClass().getConstructor(boolean.class).newInstance(true);
+      Method set = confClass().getMethod("set", String.class, String.class);
+      for (Map.Entry<String, String> entry : hadoopConf) {
+        set.invoke(conf, entry.getKey(), entry.getValue());
+      }
+      return conf;
+    }
+
+    private int runTool(Object conf, String[] driverArgs) throws ReflectiveOperationException {
+      Class<?> toolClass = loader.loadClass("org.apache.hadoop.util.Tool");
+      Object driver = loader.loadClass(DRIVER_CLASS).getConstructor().newInstance();
+      Method run = loader.loadClass("org.apache.hadoop.util.ToolRunner")
+          .getMethod("run", confClass(), toolClass, String[].class);
+      try {
+        return (Integer) run.invoke(null, conf, driver, driverArgs);
+      } catch (InvocationTargetException e) {
+        throw new ReflectiveOperationException(DRIVER_CLASS + " failed", e.getCause());
+      }
+    }
+
+    private Class<?> confClass() throws ClassNotFoundException {
+      return loader.loadClass("org.apache.hadoop.conf.Configuration");
+    }
+  }
+
+  /**
+   * Class loader of a single launch, parent is the extension class loader: JDK classes only,
+   * nothing from provisioner classpath.
+   */
+  private static final class DriverClassLoader extends URLClassLoader {
+    private DriverClassLoader(URL[] classpath) {
+      super(classpath, ClassLoader.getSystemClassLoader().getParent());
+    }
+  }
+
+  /**
+   * Permits everything except {@code System.exit} called with driver classes on the stack.
+   */
+  private static final class DriverExitGuard extends SecurityManager {
+
+    private static synchronized void install() {
+      SecurityManager current = System.getSecurityManager();
+      if (current instanceof DriverExitGuard) {
+        return;
+      }
+      if (current != null) {
+        LOGGER.warn("Security manager already installed, System.exit of in-process h2odriver "
+            + "would stop the provisioner.");
+        return;
+      }
+      System.setSecurityManager(new DriverExitGuard());
+    }
+
+    @Override
+    public void checkExit(int status) {
+      for (Class<?> caller : getClassContext()) {
+        if (caller.getClassLoader() instanceof DriverClassLoader) {
+          throw new SecurityException(DRIVER_CLASS + " called System.exit(" + status + ")");
+        }
+      }
+    }
+
+    @Override
+    public void checkPermission(Permission permission) {
+      // everything else is permitted, as without a security manager
+    }
+
+    @Override
+    public void checkPermission(Permission permission, Object context) {
+      // everything else is permitted, as without a security manager
+    }
+  }
+}
@@ -17,23 +17,36 @@ package org.trustedanalytics.servicebroker.h2oprovisioner.service.externals;
 import com.google.common.annotations.VisibleForTesting;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.KerberosCredentialManager;
 import org.trustedanalytics.servicebroker.h2oprovisioner.config.KerberosProperties;
 import org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.helpers.ExternalProcessExecutor;
+import org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.helpers.LaunchEnvironment;
 
 import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
 
 public class KinitExec {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(KinitExec.class);
 
   private final KerberosProperties krb;
+  private final ExternalProcessExecutor processExecutor;
+  private final KerberosCredentialManager.CachedLogin<Long> ticketCache;
+  private final String[] loginCmd;
 
-  public KinitExec(KerberosProperties krbProperties) throws IOException {
+  public KinitExec(KerberosProperties krbProperties, KerberosCredentialManager credentialManager,
+      ExternalProcessExecutor processExecutor) throws IOException {
     this.krb = krbProperties;
+    this.processExecutor = processExecutor;
+    // credentials do not change, so the command is the same for every login
+    this.loginCmd =
+        new String[] {"/bin/sh", "-c", "echo " + krb.getPassword() + " | kinit " + krb.getUser()};
+    long ticketLifetimeMillis = TimeUnit.SECONDS.toMillis(krbProperties.getTicketLifetime());
+    this.ticketCache = credentialManager.register("ticket cache of " + krb.getUser(), this::kinit,
+        obtainedAt -> obtainedAt + ticketLifetimeMillis);
     try {
       String krbConfTemplate =
           new String(Files.readAllBytes(Paths.get(krbProperties.getConfFile())));
@@ -58,13 +71,28 @@ public class KinitExec {
     }
   }
 
+  /**
+   * Makes sure ticket cache holds valid ticket; kinit is run only when there is none.
+   */
   public void loginToKerberos() throws ExternalProcessException, IOException {
+    try {
+      ticketCache.get();
+    } catch (IOException e) {
+      if (e.getCause() instanceof ExternalProcessException) {
+        throw (ExternalProcessException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  private long kinit() throws ExternalProcessException, IOException {
     LOGGER.info("Try to log in kerberos");
-    String[] loginCmd =
-        {"/bin/sh", "-c", "echo " + krb.getPassword() + " | kinit " + krb.getUser()};
-    int kinitExitCode = ExternalProcessExecutor.runCommand(loginCmd, new HashMap<String, String>());
+    long obtainedAt = System.currentTimeMillis();
+    int kinitExitCode = processExecutor.runCommand("kinit", loginCmd,
+        LaunchEnvironment.system(), line -> {}, krb.getKinitTimeout(), TimeUnit.SECONDS);
     if (kinitExitCode != 0) {
       throw new ExternalProcessException("kinit exited with code " + kinitExitCode);
     }
+    return obtainedAt;
   }
 }
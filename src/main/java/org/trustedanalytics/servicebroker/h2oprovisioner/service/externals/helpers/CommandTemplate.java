@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.helpers;
+
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Ints;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Command line with fixed arguments known up front and slots for arguments of a single launch.
+ * Filling it costs one copy of the prepared array.
+ */
+public final class CommandTemplate {
+
+  private final String[] arguments;
+  private final int[] slots;
+
+  private CommandTemplate(String[] arguments, int[] slots) {
+    this.arguments = arguments;
+    this.slots = slots;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * @param values arguments of the launch, in order of the slots
+   */
+  public String[] fill(String... values) {
+    Preconditions.checkArgument(values.length == slots.length, "Expected %s arguments, got %s",
+        slots.length, values.length);
+    String[] command = arguments.clone();
+    for (int i = 0; i < slots.length; i++) {
+      command[slots[i]] = values[i];
+    }
+    return command;
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(arguments);
+  }
+
+  public static final class Builder {
+    private final List<String> arguments = new ArrayList<>();
+    private final List<Integer> slots = new ArrayList<>();
+
+    private Builder() {
+    }
+
+    public Builder arg(String... fixed) {
+      arguments.addAll(Arrays.asList(fixed));
+      return this;
+    }
+
+    public Builder slot() {
+      slots.add(arguments.size());
+      arguments.add(null);
+      return this;
+    }
+
+    public CommandTemplate build() {
+      return new CommandTemplate(arguments.toArray(new String[arguments.size()]),
+          Ints.toArray(slots));
+    }
+  }
+}
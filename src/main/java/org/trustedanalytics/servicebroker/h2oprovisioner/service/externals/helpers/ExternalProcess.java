@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.helpers;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Running external command. Waiting for it is bounded by a deadline; a command that misses it,
+ * or whose waiting thread is interrupted, is killed together with its child processes. Time
+ * spent in every command is recorded in {@code h2o.external.command} timer, tagged with the
+ * command name and outcome.
+ */
+public class ExternalProcess {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ExternalProcess.class);
+
+  private final String name;
+  private final Process process;
+  private final ProcessOutputPump.Output output;
+  private final MeterRegistry meterRegistry;
+  private final long startedAt = System.nanoTime();
+
+  ExternalProcess(String name, Process process, ProcessOutputPump.Output output,
+      MeterRegistry meterRegistry) {
+    this.name = name;
+    this.process = process;
+    this.output = output;
+    this.meterRegistry = meterRegistry;
+  }
+
+  /**
+   * Waits until the command exits and its output is passed to listeners.
+   *
+   * @return exit code
+   * @throws ProcessTimeoutException when the command is still running after the timeout
+   * @throws InterruptedIOException when the calling thread is interrupted, the command is killed
+   *         and the interrupt flag is kept
+   */
+  public int waitFor(long timeout, TimeUnit unit) throws IOException {
+    try {
+      if (!process.waitFor(timeout, unit)) {
+        kill();
+        record("timeout");
+        logRecentOutput("did not finish in time");
+        throw new ProcessTimeoutException(
+            name + " did not finish within " + timeout + " " + unit.name().toLowerCase());
+      }
+      // listener has to see the whole output before the caller continues
+      output.await();
+    } catch (InterruptedException e) {
+      kill();
+      record("cancelled");
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(name + " cancelled");
+    }
+
+    int exitCode = process.exitValue();
+    record(exitCode == 0 ? "success" : "failure");
+    if (exitCode != 0) {
+      logRecentOutput("exited with code " + exitCode);
+    }
+    LOGGER.info("===================");
+    LOGGER.info("Exit value: " + exitCode);
+    LOGGER.info("===================");
+    return exitCode;
+  }
+
+  /**
+   * Kills the command and its child processes, if they are still running.
+   */
+  public void cancel() {
+    if (process.isAlive()) {
+      kill();
+    }
+  }
+
+  /**
+   * @return last lines printed by the command, as many as its output pump keeps
+   */
+  public List<String> getRecentOutput() {
+    return output.recentLines();
+  }
+
+  public boolean isAlive() {
+    return process.isAlive();
+  }
+
+  private void kill() {
+    LOGGER.warn("Killing " + name);
+    ProcessTree.kill(process);
+  }
+
+  private void logRecentOutput(String reason) {
+    LOGGER.warn(name + " " + reason + ", last output:\n"
+        + String.join("\n", output.recentLines()));
+  }
+
+  private void record(String outcome) {
+    Timer.builder("h2o.external.command").description("Time spent in external commands")
+        .tags("command", name, "outcome", outcome).publishPercentileHistogram()
+        .register(meterRegistry)
+        .record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+  }
+}
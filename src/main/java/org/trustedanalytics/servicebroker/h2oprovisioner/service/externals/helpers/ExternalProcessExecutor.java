@@ -14,92 +14,102 @@
 
 package org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.helpers;
 
+import io.micrometer.core.instrument.MeterRegistry;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
+/**
+ * Runs external commands; their output is drained by the given pump and time spent in them is
+ * recorded in the given registry, see {@link ExternalProcess}.
+ */
 public class ExternalProcessExecutor {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(ExternalProcessExecutor.class);
 
-  private ExternalProcessExecutor() {}
+  /**
+   * Output lines of commands run while this MDC key is set are tagged with its value.
+   */
+  public static final String INSTANCE_ID_MDC_KEY = "instanceId";
 
-  public static int runCommand(String[] command, Map<String, String> commandEnvVariables) throws IOException {
-    String lineToRun = Arrays.asList(command).stream().collect(Collectors.joining(" "));
+  private final ProcessOutputPump outputPump;
+  private final MeterRegistry meterRegistry;
 
-    LOGGER.info("===================");
-    LOGGER.info("Command to invoke:");
-    LOGGER.info(lineToRun);
-    LOGGER.info("===================");
-
-    Process pr = Runtime.getRuntime().exec(command, getProcessEnvWithVariables(commandEnvVariables));
-    BufferedReader in = new BufferedReader(new InputStreamReader(pr.getInputStream()));
-    BufferedReader err = new BufferedReader(new InputStreamReader(pr.getErrorStream()));
-
-    new Thread(getPrintOutputJob(in)).start();
-    new Thread(getPrintErrorJob(err)).start();
+  public ExternalProcessExecutor(ProcessOutputPump outputPump, MeterRegistry meterRegistry) {
+    this.outputPump = outputPump;
+    this.meterRegistry = meterRegistry;
+  }
 
-    try {
-      pr.waitFor();
-    } catch (InterruptedException e) {
-      LOGGER.info("Command '" + lineToRun + "' interrupted.", e);
-    }
+  public void shutdown() {
+    outputPump.shutdown();
+  }
 
-    int exitCode = pr.exitValue();
-    LOGGER.info("===================");
-    LOGGER.info("Exit value: " + exitCode);
-    LOGGER.info("===================");
-    return exitCode;
+  public int runCommand(String name, String[] command,
+      Map<String, String> commandEnvVariables, long timeout, TimeUnit unit) throws IOException {
+    return runCommand(name, command, LaunchEnvironment.system().with(commandEnvVariables),
+        line -> {}, timeout, unit);
   }
 
-  private static Runnable getPrintOutputJob(BufferedReader in) {
-    return getPrintJob(in, "      ");
+  /**
+   * @param outputListener gets every line printed by the command, both to stdout and stderr
+   * @throws ProcessTimeoutException when the command does not finish within the timeout
+   */
+  public int runCommand(String name, String[] command,
+      Map<String, String> commandEnvVariables, Consumer<String> outputListener, long timeout,
+      TimeUnit unit) throws IOException {
+    return runCommand(name, command, LaunchEnvironment.system().with(commandEnvVariables),
+        outputListener, timeout, unit);
   }
 
-  private static Runnable getPrintErrorJob(BufferedReader err) {
-    return getPrintJob(err, "ERROR ");
+  /**
+   * @param outputListener gets every line printed by the command, both to stdout and stderr
+   * @throws ProcessTimeoutException when the command does not finish within the timeout
+   */
+  public int runCommand(String name, String[] command, LaunchEnvironment environment,
+      Consumer<String> outputListener, long timeout, TimeUnit unit) throws IOException {
+    return start(name, command, environment, outputListener, outputListener)
+        .waitFor(timeout, unit);
   }
 
-  private static Runnable getPrintJob(BufferedReader stream, String printPrefix) {
-    return () -> {
-      try {
-          logStreamContent(stream, printPrefix);
-      } catch (IOException e) {
-        LOGGER.info(printPrefix + "Error while closing process output stream.", e);
-      }
-    };
+  /**
+   * @param name command name used in metrics
+   * @param stdoutListener gets lines printed by the command to stdout, as they are printed
+   * @param stderrListener gets lines printed by the command to stderr, as they are printed
+   */
+  public ExternalProcess start(String name, String[] command,
+      Map<String, String> commandEnvVariables, Consumer<String> stdoutListener,
+      Consumer<String> stderrListener) throws IOException {
+    return start(name, command, LaunchEnvironment.system().with(commandEnvVariables),
+        stdoutListener, stderrListener);
   }
 
-  private static void logStreamContent(BufferedReader stream, String linePrefix) throws IOException {
-    try {
-      String line;
-      while ((line = stream.readLine()) != null) {
-        LOGGER.info(linePrefix + line);
-      }
-    } catch (IOException e) {
-      LOGGER.info(linePrefix + "Error while reading process output.", e);
-    } finally {
-      stream.close();
-    }
+  /**
+   * @param name command name used in metrics
+   * @param stdoutListener gets lines printed by the command to stdout, as they are printed
+   * @param stderrListener gets lines printed by the command to stderr, as they are printed
+   */
+  public ExternalProcess start(String name, String[] command,
+      LaunchEnvironment environment, Consumer<String> stdoutListener,
+      Consumer<String> stderrListener) throws IOException {
+    LOGGER.info("===================");
+    LOGGER.info("Command to invoke:");
+    LOGGER.info(String.join(" ", command));
+    LOGGER.info("===================");
+
+    Process pr = Runtime.getRuntime().exec(command, environment.toArray());
+    ProcessOutputPump.Output output =
+        outputPump.drain(tag(command), pr, stdoutListener, stderrListener);
+    return new ExternalProcess(name, pr, output, meterRegistry);
   }
-  
-  private static String[] getProcessEnvWithVariables(Map<String, String> variables) {
-    Map<String, String> environment = new HashMap<String, String>(System.getenv());
-    environment.putAll(variables);
-
-    String[] processEnv = new String[environment.size()];
-    int count = 0;
-    for (Map.Entry<String, String> variable : environment.entrySet()) {
-      processEnv[count++] = variable.getKey() + "=" + variable.getValue();
-    }
-
-    return processEnv;
+
+  private static String tag(String[] command) {
+    String instanceId = MDC.get(INSTANCE_ID_MDC_KEY);
+    return instanceId != null ? instanceId : command[0];
   }
 }
@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.helpers;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Environment of a child process: environment of the provisioner with some variables overridden.
+ * Environment of the provisioner does not change, so it is read and formatted once; overrides
+ * are kept apart and copied only when another one is added. A launch then costs one copy of the
+ * formatted array and formatting of the overrides, instead of a copy of the whole environment
+ * map which {@link ProcessBuilder} makes for every process.
+ */
+public final class LaunchEnvironment {
+
+  private static final LaunchEnvironment SYSTEM = new LaunchEnvironment(ImmutableMap.of());
+
+  private final ImmutableMap<String, String> overrides;
+
+  private LaunchEnvironment(ImmutableMap<String, String> overrides) {
+    this.overrides = overrides;
+  }
+
+  /**
+   * @return environment of the provisioner, without overrides
+   */
+  public static LaunchEnvironment system() {
+    return SYSTEM;
+  }
+
+  public LaunchEnvironment with(String name, String value) {
+    return with(ImmutableMap.of(name, value));
+  }
+
+  public LaunchEnvironment with(Map<String, String> variables) {
+    if (variables.isEmpty()) {
+      return this;
+    }
+    if (overrides.isEmpty() && variables instanceof ImmutableMap) {
+      return new LaunchEnvironment((ImmutableMap<String, String>) variables);
+    }
+    Map<String, String> merged = new HashMap<>(overrides);
+    merged.putAll(variables);
+    return new LaunchEnvironment(ImmutableMap.copyOf(merged));
+  }
+
+  /**
+   * @return variables overriding environment of the provisioner
+   */
+  public Map<String, String> getOverrides() {
+    return overrides;
+  }
+
+  /**
+   * @return environment in {@code name=value} format of {@link Runtime#exec(String[], String[])}
+   */
+  public String[] toArray() {
+    String[] base = Base.ENTRIES;
+    if (overrides.isEmpty()) {
+      return base.clone();
+    }
+
+    int added = 0;
+    for (String name : overrides.keySet()) {
+      if (!Base.INDEX.containsKey(name)) {
+        added++;
+      }
+    }
+    String[] env = Arrays.copyOf(base, base.length + added);
+    int next = base.length;
+    for (Map.Entry<String, String> variable : overrides.entrySet()) {
+      Integer index = Base.INDEX.get(variable.getKey());
+      env[index != null ? index : next++] = variable.getKey() + "=" + variable.getValue();
+    }
+    return env;
+  }
+
+  /**
+   * Environment of the provisioner, formatted on first use.
+   */
+  private static final class Base {
+    private static final String[] ENTRIES;
+    private static final Map<String, Integer> INDEX;
+
+    static {
+      Map<String, String> env = System.getenv();
+      String[] entries = new String[env.size()];
+      ImmutableMap.Builder<String, Integer> index = ImmutableMap.builder();
+      int count = 0;
+      for (Map.Entry<String, String> variable : env.entrySet()) {
+        index.put(variable.getKey(), count);
+        entries[count++] = variable.getKey() + "=" + variable.getValue();
+      }
+      ENTRIES = entries;
+      INDEX = index.build();
+    }
+
+    private Base() {
+    }
+  }
+}
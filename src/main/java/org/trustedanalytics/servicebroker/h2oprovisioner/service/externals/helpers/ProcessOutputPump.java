@@ -0,0 +1,193 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.helpers;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Drains stdout and stderr of child processes, one blocking reader per stream, on a bounded pool
+ * of shared threads. A stream of a process started while all readers are busy waits for a free
+ * one; the process is not affected until its pipe buffer fills up. Every stream has a fixed size
+ * line buffer, a line longer than that is passed on in pieces. The last lines printed by every
+ * process are kept in a bounded ring, see {@link Output#recentLines()}.
+ */
+public class ProcessOutputPump {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ProcessOutputPump.class);
+
+  private final ExecutorService readers;
+  private final int maxLineLength;
+  private final int recentLines;
+
+  /**
+   * @param readers number of streams read at the same time, two for every running process
+   * @param recentLines number of last output lines kept for every process
+   */
+  public ProcessOutputPump(int readers, int maxLineLength, int recentLines) {
+    this.readers = Executors.newFixedThreadPool(readers,
+        new ThreadFactoryBuilder().setNameFormat("process-output-%d").setDaemon(true).build());
+    this.maxLineLength = maxLineLength;
+    this.recentLines = recentLines;
+  }
+
+  /**
+   * Starts draining output of the process. Lines are logged with the tag and passed to listeners
+   * on reader threads, as they are printed.
+   */
+  public Output drain(String tag, Process process, Consumer<String> stdoutListener,
+      Consumer<String> stderrListener) {
+    Output output = new Output(recentLines);
+    readers.execute(new Reader("[" + tag + "]       ", process.getInputStream(), stdoutListener,
+        output));
+    readers.execute(new Reader("[" + tag + "] ERROR ", process.getErrorStream(), stderrListener,
+        output));
+    return output;
+  }
+
+  public void shutdown() {
+    readers.shutdownNow();
+  }
+
+  /**
+   * Output of one process.
+   */
+  public static final class Output {
+    private final CountDownLatch drained = new CountDownLatch(2);
+    private final String[] ring;
+    private int next;
+    private int size;
+
+    private Output(int recentLines) {
+      this.ring = new String[recentLines];
+    }
+
+    /**
+     * Waits until both streams are drained and closed.
+     */
+    public void await() throws InterruptedException {
+      drained.await();
+    }
+
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+      return drained.await(timeout, unit);
+    }
+
+    /**
+     * @return last lines printed to either stream, oldest first
+     */
+    public synchronized List<String> recentLines() {
+      List<String> lines = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        lines.add(ring[(next - size + i + ring.length) % ring.length]);
+      }
+      return lines;
+    }
+
+    private synchronized void add(String line) {
+      if (ring.length == 0) {
+        return;
+      }
+      ring[next] = line;
+      next = (next + 1) % ring.length;
+      size = Math.min(size + 1, ring.length);
+    }
+  }
+
+  private final class Reader implements Runnable {
+    private final String prefix;
+    private final InputStream stream;
+    private final Consumer<String> listener;
+    private final Output output;
+    private final byte[] line = new byte[maxLineLength];
+    private int length;
+
+    private Reader(String prefix, InputStream stream, Consumer<String> listener, Output output) {
+      this.prefix = prefix;
+      this.stream = stream;
+      this.listener = listener;
+      this.output = output;
+    }
+
+    @Override
+    public void run() {
+      try {
+        int read;
+        while ((read = stream.read(line, length, line.length - length)) >= 0) {
+          splitLines(length, read);
+        }
+      } catch (IOException | RuntimeException e) {
+        LOGGER.info(prefix + "Error while reading process output.", e);
+      } finally {
+        close();
+      }
+    }
+
+    private void splitLines(int from, int read) {
+      length += read;
+      int start = 0;
+      for (int i = from; i < length; i++) {
+        if (line[i] == '\n') {
+          emit(start, i);
+          start = i + 1;
+        }
+      }
+      if (start == 0 && length == line.length) {
+        // no line end within the buffer, pass on what is there
+        emit(0, length);
+        start = length;
+      }
+      System.arraycopy(line, start, line, 0, length - start);
+      length -= start;
+    }
+
+    private void emit(int from, int to) {
+      int end = to > from && line[to - 1] == '\r' ? to - 1 : to;
+      String text = new String(line, from, end - from, Charset.defaultCharset());
+      LOGGER.info(prefix + text);
+      output.add(text);
+      try {
+        listener.accept(text);
+      } catch (RuntimeException e) {
+        LOGGER.warn(prefix + "Output listener failed.", e);
+      }
+    }
+
+    private void close() {
+      if (length > 0) {
+        emit(0, length);
+        length = 0;
+      }
+      try {
+        stream.close();
+      } catch (IOException e) {
+        LOGGER.info(prefix + "Error while closing process output stream.", e);
+      }
+      output.drained.countDown();
+    }
+  }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.helpers;
+
+import com.google.common.base.Splitter;
+import com.google.common.io.CharStreams;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Kills a child process together with processes it started, e.g. {@code kinit} run by
+ * {@code sh -c}. Children are found with {@code pgrep -P}, since Java 8 has no process handles;
+ * when they cannot be found only the process itself is killed.
+ */
+final class ProcessTree {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ProcessTree.class);
+
+  private static final long HELPER_TIMEOUT_SECONDS = 5;
+
+  private ProcessTree() {}
+
+  static void kill(Process process) {
+    OptionalLong pid = pid(process);
+    if (pid.isPresent() && process.isAlive()) {
+      // descendants are collected first, they would be adopted by init once the parent is gone
+      List<String> descendants = new ArrayList<>();
+      collectDescendants(String.valueOf(pid.getAsLong()), descendants);
+      if (!descendants.isEmpty()) {
+        List<String> killCommand = new ArrayList<>();
+        killCommand.add("kill");
+        killCommand.add("-KILL");
+        killCommand.addAll(descendants);
+        run(killCommand);
+      }
+    }
+    try {
+      process.destroyForcibly().waitFor(HELPER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void collectDescendants(String pid, List<String> descendants) {
+    List<String> children = new ArrayList<>();
+    for (String child : Splitter.on('\n').omitEmptyStrings().trimResults()
+        .split(run(Arrays.asList("pgrep", "-P", pid)))) {
+      children.add(child);
+    }
+    for (String child : children) {
+      collectDescendants(child, descendants);
+    }
+    descendants.addAll(children);
+  }
+
+  private static String run(List<String> command) {
+    try {
+      Process helper = new ProcessBuilder(command).redirectErrorStream(true).start();
+      String output;
+      try (Reader stdout =
+          new InputStreamReader(helper.getInputStream(), StandardCharsets.UTF_8)) {
+        output = CharStreams.toString(stdout);
+      }
+      if (!helper.waitFor(HELPER_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        helper.destroyForcibly();
+      }
+      return output;
+    } catch (IOException e) {
+      LOGGER.warn("Unable to run " + command, e);
+      return "";
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return "";
+    }
+  }
+
+  private static OptionalLong pid(Process process) {
+    try {
+      // Java 9 and newer
+      return OptionalLong.of((Long) Process.class.getMethod("pid").invoke(process));
+    } catch (ReflectiveOperationException e) {
+      // UNIXProcess of Java 8
+    }
+    try {
+      Field pid = process.getClass().getDeclaredField("pid");
+      pid.setAccessible(true);
+      return OptionalLong.of(pid.getInt(process));
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      LOGGER.debug("Unable to get pid of " + process, e);
+      return OptionalLong.empty();
+    }
+  }
+}
@@ -16,16 +16,20 @@ package org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients;
 import static org.hamcrest.MatcherAssert.*;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.IOException;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.hadoop.yarn.api.records.ApplicationId;
@@ -95,6 +99,69 @@ public class DeprovisionerYarnClientTest {
     verify(yarnClientMock).start();
   }
 
+  @Test
+  public void getH2oJobId_jobIndexedAndRunning_applicationsNotListed() throws Exception {
+    // given
+    ApplicationReport report = mock(ApplicationReport.class);
+    when(report.getName()).thenReturn(expectedH2oJobName);
+    when(report.getYarnApplicationState()).thenReturn(YarnApplicationState.RUNNING);
+    when(yarnClientMock.getApplicationReport(expectedYarnJobId1)).thenReturn(report);
+    H2oJobIndex.ClusterJobs knownJobs = new H2oJobIndex.ClusterJobs();
+    knownJobs.put(expectedH2oJobName, expectedYarnJobId1);
+    DeprovisionerYarnClient sut =
+        new DeprovisionerYarnClient(yarnClientMock, broken -> {}, knownJobs);
+
+    // when
+    ApplicationId actualJobId = sut.getH2oJobId(testServiceInstanceId);
+
+    // then
+    assertEquals(expectedYarnJobId1, actualJobId);
+    verify(yarnClientMock, never()).getApplications(expectedApplicationType,
+        expectedApplicationState);
+  }
+
+  @Test
+  public void getH2oJobId_indexedJobFinished_jobFoundByScanAndIndexed() throws Exception {
+    // given
+    ApplicationReport report = mock(ApplicationReport.class);
+    when(report.getName()).thenReturn(expectedH2oJobName);
+    when(report.getYarnApplicationState()).thenReturn(YarnApplicationState.FINISHED);
+    when(yarnClientMock.getApplicationReport(expectedYarnJobId2)).thenReturn(report);
+    when(yarnClientMock.getApplications(expectedApplicationType, expectedApplicationState))
+        .thenReturn(yarnReportWithOneJob);
+    H2oJobIndex.ClusterJobs knownJobs = new H2oJobIndex.ClusterJobs();
+    knownJobs.put(expectedH2oJobName, expectedYarnJobId2);
+    DeprovisionerYarnClient sut =
+        new DeprovisionerYarnClient(yarnClientMock, broken -> {}, knownJobs);
+
+    // when
+    ApplicationId actualJobId = sut.getH2oJobId(testServiceInstanceId);
+
+    // then
+    assertEquals(expectedYarnJobId1, actualJobId);
+    assertEquals(expectedYarnJobId1, knownJobs.get(expectedH2oJobName).get());
+  }
+
+  @Test
+  public void close_killFailedWithIOException_clientReleasedAsBroken() throws Exception {
+    // given
+    boolean[] releasedAsBroken = new boolean[1];
+    doThrow(new IOException()).when(yarnClientMock).killApplication(expectedYarnJobId1);
+    DeprovisionerYarnClient sut =
+        new DeprovisionerYarnClient(yarnClientMock, broken -> releasedAsBroken[0] = broken);
+
+    // when
+    try {
+      sut.killApplication(expectedYarnJobId1);
+    } catch (IOException e) {
+      // expected
+    }
+    sut.close();
+
+    // then
+    assertThat(releasedAsBroken[0], equalTo(true));
+  }
+
   @Test
   public void getH2oJobId_oneJobReturnedByYarnClient_JobIdReturned() throws Exception {
     // given
@@ -152,6 +219,34 @@ public class DeprovisionerYarnClientTest {
 
   }
 
+  @Test
+  public void getRunningH2oJobsByName_twoJobsWithSameName_bothJobIdsReturned() throws Exception {
+    // given
+    when(yarnClientMock.getApplications(expectedApplicationType, expectedApplicationState))
+        .thenReturn(yarnReportWithTwoJobs);
+    DeprovisionerYarnClient sut = new DeprovisionerYarnClient(yarnClientMock);
+
+    // when
+    Map<String, List<ApplicationId>> jobs = sut.getRunningH2oJobsByName();
+
+    // then
+    assertThat(jobs.get(expectedH2oJobName), contains(expectedYarnJobId1, expectedYarnJobId2));
+  }
+
+  @Test
+  public void getRunningH2oJobs_twoJobsWithSameName_jobNameLeftOut() throws Exception {
+    // given
+    when(yarnClientMock.getApplications(expectedApplicationType, expectedApplicationState))
+        .thenReturn(yarnReportWithTwoJobs);
+    DeprovisionerYarnClient sut = new DeprovisionerYarnClient(yarnClientMock);
+
+    // when
+    Map<String, ApplicationId> jobs = sut.getRunningH2oJobs();
+
+    // then
+    assertThat(jobs.keySet(), not(hasItem(expectedH2oJobName)));
+  }
+
   @Test
   public void killApplication_invokesKillOnYarnClient() throws Exception {
     // given
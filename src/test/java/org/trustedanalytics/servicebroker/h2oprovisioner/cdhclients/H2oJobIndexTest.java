@@ -0,0 +1,150 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients;
+
+import com.google.common.collect.ImmutableMap;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.service.Service;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.client.api.YarnClient;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.util.MatcherAssertionErrors.assertThat;
+
+public class H2oJobIndexTest {
+
+  private static final long CLUSTER_TIMESTAMP = 1460000000000L;
+
+  @Test
+  public void update_jobNotRunningAnyMore_jobRemoved() {
+    // arrange
+    H2oJobIndex.ClusterJobs jobs = new H2oJobIndex.ClusterJobs();
+    jobs.put("H2O_BROKER_old", appId(1));
+
+    // act
+    jobs.update(ImmutableMap.of("H2O_BROKER_new", appId(2)));
+
+    // assert
+    assertThat(jobs.get("H2O_BROKER_old").isPresent(), equalTo(false));
+    assertThat(jobs.get("H2O_BROKER_new").get(), equalTo(appId(2)));
+  }
+
+  @Test
+  public void update_jobLaunchedAfterListing_jobKept() {
+    // arrange
+    H2oJobIndex.ClusterJobs jobs = new H2oJobIndex.ClusterJobs();
+    jobs.put("H2O_BROKER_launched", appId(3));
+
+    // act
+    jobs.update(ImmutableMap.of("H2O_BROKER_new", appId(2)));
+
+    // assert
+    assertThat(jobs.get("H2O_BROKER_launched").get(), equalTo(appId(3)));
+  }
+
+  @Test
+  public void update_resourceManagerRestarted_jobsOfPreviousRunRemoved() {
+    // arrange
+    H2oJobIndex.ClusterJobs jobs = new H2oJobIndex.ClusterJobs();
+    jobs.put("H2O_BROKER_old", appId(7));
+
+    // act
+    jobs.update(ImmutableMap.of("H2O_BROKER_new",
+        ApplicationId.newInstance(CLUSTER_TIMESTAMP + 1, 1)));
+
+    // assert
+    assertThat(jobs.get("H2O_BROKER_old").isPresent(), equalTo(false));
+  }
+
+  @Test
+  public void forCluster_sameConfiguration_sameJobsReturned() {
+    // arrange
+    H2oJobIndex index = new H2oJobIndex(1, TimeUnit.HOURS);
+
+    // act
+    H2oJobIndex.ClusterJobs first = index.forCluster("user", conf("rm:8032"));
+    H2oJobIndex.ClusterJobs second = index.forCluster("user", conf("rm:8032"));
+
+    // assert
+    assertThat(second, sameInstance(first));
+  }
+
+  @Test
+  public void refresh_clusterNotUsedRecently_clusterNotPolled() {
+    // arrange
+    H2oJobIndex index = new H2oJobIndex(1, TimeUnit.HOURS);
+    index.forCluster("user", conf("rm:8032"));
+    AtomicInteger polls = new AtomicInteger();
+
+    // act
+    index.refresh((user, hadoopConf) -> {
+      polls.incrementAndGet();
+      return ImmutableMap.of();
+    }, System.currentTimeMillis() + TimeUnit.HOURS.toMillis(2));
+
+    // assert
+    assertThat(polls.get(), equalTo(0));
+  }
+
+  @Test
+  public void refresh_throughProvider_clusterNotMarkedUsed() throws Exception {
+    // arrange
+    H2oJobIndex index = new H2oJobIndex(500, TimeUnit.MILLISECONDS);
+    YarnClient yarnClient = mock(YarnClient.class);
+    when(yarnClient.isInState(Service.STATE.STARTED)).thenReturn(true);
+    when(yarnClient.getApplications(any(Set.class), any(EnumSet.class)))
+        .thenReturn(Collections.emptyList());
+    YarnClientPool pool = new YarnClientPool(2, 60, 3600, TimeUnit.SECONDS,
+        new SimpleMeterRegistry());
+    DeprovisionerYarnClientProvider provider =
+        new DeprovisionerYarnClientProvider(pool, index, (user, conf) -> yarnClient);
+    index.forCluster("user", conf("rm:8032"));
+
+    // act
+    Thread.sleep(350);
+    index.refresh(provider::runningH2oJobs, System.currentTimeMillis());
+    Thread.sleep(300);
+    index.refresh(provider::runningH2oJobs, System.currentTimeMillis());
+    pool.shutdown();
+
+    // assert
+    verify(yarnClient, times(1)).getApplications(any(Set.class), any(EnumSet.class));
+  }
+
+  private static ApplicationId appId(int id) {
+    return ApplicationId.newInstance(CLUSTER_TIMESTAMP, id);
+  }
+
+  private static Configuration conf(String resourceManager) {
+    Configuration conf = new Configuration(false);
+    conf.set("yarn.resourcemanager.address", resourceManager);
+    return conf;
+  }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients;
+
+import com.google.common.collect.ImmutableMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.springframework.test.util.MatcherAssertionErrors.assertThat;
+
+public class HadoopConfigurationCacheTest {
+
+  private static final Map<String, String> CLUSTER_CONF =
+      ImmutableMap.of("yarn.resourcemanager.address", "rm:8032", "key", "value");
+
+  @Test
+  public void get_sameEntriesInDifferentOrder_cachedConfigurationReturned() {
+    // arrange
+    HadoopConfigurationCache cache = new HadoopConfigurationCache(4);
+    ImmutableConfiguration first = cache.get(CLUSTER_CONF);
+
+    // act
+    ImmutableConfiguration second =
+        cache.get(ImmutableMap.of("key", "value", "yarn.resourcemanager.address", "rm:8032"));
+
+    // assert
+    assertThat(second, sameInstance(first));
+    assertThat(second.get("yarn.resourcemanager.address"), equalTo("rm:8032"));
+    assertThat(cache.stats().hitCount(), equalTo(1L));
+    assertThat(cache.stats().missCount(), equalTo(1L));
+  }
+
+  @Test
+  public void get_moreConfigurationsThanMaxSize_oldestEvicted() {
+    // arrange
+    HadoopConfigurationCache cache = new HadoopConfigurationCache(1);
+    cache.get(CLUSTER_CONF);
+
+    // act
+    cache.get(ImmutableMap.of("key", "other"));
+
+    // assert
+    assertThat(cache.size(), equalTo(1L));
+    assertThat(cache.stats().evictionCount(), equalTo(1L));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void set_cachedConfiguration_exceptionThrown() {
+    new HadoopConfigurationCache(4).get(CLUSTER_CONF).set("key", "changed");
+  }
+
+  @Test
+  public void copy_cachedConfiguration_copyModifiable() {
+    // arrange
+    ImmutableConfiguration cached = new HadoopConfigurationCache(4).get(CLUSTER_CONF);
+
+    // act
+    Configuration copy = cached.copy();
+    copy.set("key", "changed");
+
+    // assert
+    assertThat(copy.get("key"), equalTo("changed"));
+    assertThat(cached.get("key"), equalTo("value"));
+  }
+
+  @Test
+  public void writeXml_cachedConfiguration_serializedFormWritten() throws Exception {
+    // arrange
+    ImmutableConfiguration cached = new HadoopConfigurationCache(4).get(CLUSTER_CONF);
+    StringWriter xml = new StringWriter();
+
+    // act
+    cached.writeXml(xml);
+
+    // assert
+    assertThat(xml.toString(), equalTo(cached.getXml()));
+  }
+}
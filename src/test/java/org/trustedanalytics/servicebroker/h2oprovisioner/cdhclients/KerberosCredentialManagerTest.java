@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.springframework.test.util.MatcherAssertionErrors.assertThat;
+
+public class KerberosCredentialManagerTest {
+
+  private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+  private final KerberosCredentialManager manager = new KerberosCredentialManager();
+  private final AtomicInteger logins = new AtomicInteger();
+
+  @After
+  public void tearDown() {
+    manager.shutdown();
+  }
+
+  @Test
+  public void get_validCredentials_loginDoneOnce() throws IOException {
+    // arrange
+    KerberosCredentialManager.CachedLogin<Integer> login =
+        manager.register("test", logins::incrementAndGet, value -> now() + HOUR);
+
+    // act
+    login.get();
+    int credentials = login.get();
+
+    // assert
+    assertThat(credentials, equalTo(1));
+    assertThat(logins.get(), equalTo(1));
+  }
+
+  @Test
+  public void get_credentialsExpired_loggedInAgain() throws IOException {
+    // arrange
+    KerberosCredentialManager.CachedLogin<Integer> login =
+        manager.register("test", logins::incrementAndGet, value -> now() - 1);
+
+    // act
+    login.get();
+    int credentials = login.get();
+
+    // assert
+    assertThat(credentials, equalTo(2));
+  }
+
+  @Test
+  public void get_concurrentRequests_singleLogin() throws Exception {
+    // arrange
+    CountDownLatch loginStarted = new CountDownLatch(1);
+    CountDownLatch releaseLogin = new CountDownLatch(1);
+    KerberosCredentialManager.CachedLogin<Integer> login = manager.register("test", () -> {
+      loginStarted.countDown();
+      releaseLogin.await();
+      return logins.incrementAndGet();
+    }, value -> now() + HOUR);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    // act
+    List<Future<Integer>> results = new ArrayList<>();
+    results.add(executor.submit(login::get));
+    loginStarted.await();
+    for (int i = 0; i < 3; i++) {
+      results.add(executor.submit(login::get));
+    }
+    releaseLogin.countDown();
+
+    // assert
+    for (Future<Integer> result : results) {
+      assertThat(result.get(), equalTo(1));
+    }
+    assertThat(logins.get(), equalTo(1));
+    executor.shutdown();
+  }
+
+  @Test
+  public void renew_validCredentials_newCredentialsObtained() throws IOException {
+    // arrange
+    KerberosCredentialManager.CachedLogin<Integer> login =
+        manager.register("test", logins::incrementAndGet, value -> now() + HOUR);
+    login.get();
+
+    // act
+    login.renew();
+
+    // assert
+    assertThat(login.get(), equalTo(2));
+  }
+
+  @Test(expected = IOException.class)
+  public void get_loginFails_exceptionThrown() throws IOException {
+    manager.register("test", () -> {
+      throw new IllegalStateException("KDC not reachable");
+    }, value -> now() + HOUR).get();
+  }
+
+  private static long now() {
+    return System.currentTimeMillis();
+  }
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients;
+
+import com.google.common.collect.ImmutableMap;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.apache.hadoop.service.Service;
+import org.apache.hadoop.yarn.client.api.YarnClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.util.MatcherAssertionErrors.assertThat;
+
+public class YarnClientPoolTest {
+
+  private static final ConfigFingerprint CLUSTER = ConfigFingerprint.of(ImmutableMap.of("k", "v"));
+  private static final ConfigFingerprint OTHER_CLUSTER =
+      ConfigFingerprint.of(ImmutableMap.of("k", "other"));
+
+  private SimpleMeterRegistry meterRegistry;
+  private YarnClientPool pool;
+
+  @Before
+  public void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    pool = new YarnClientPool(2, 60, 3600, TimeUnit.SECONDS, meterRegistry);
+  }
+
+  @After
+  public void tearDown() {
+    pool.shutdown();
+  }
+
+  @Test
+  public void borrow_clientGivenBack_sameClientReused() throws IOException {
+    // arrange
+    YarnClientPool.PooledClient first = pool.borrow("user", CLUSTER, this::startedClient);
+    pool.giveBack(first, false);
+
+    // act
+    YarnClientPool.PooledClient second = pool.borrow("user", CLUSTER, this::startedClient);
+
+    // assert
+    assertThat(second, sameInstance(first));
+    assertThat(meterRegistry.get("h2o.yarn.clients.reused").counter().count(), equalTo(1.0));
+  }
+
+  @Test
+  public void borrow_otherUser_newClientCreated() throws IOException {
+    // arrange
+    YarnClientPool.PooledClient first = pool.borrow("user", CLUSTER, this::startedClient);
+    pool.giveBack(first, false);
+
+    // act
+    YarnClientPool.PooledClient second = pool.borrow("other", CLUSTER, this::startedClient);
+
+    // assert
+    assertThat(second, not(sameInstance(first)));
+  }
+
+  @Test
+  public void giveBack_brokenClient_clientStopped() throws IOException {
+    // arrange
+    YarnClientPool.PooledClient pooled = pool.borrow("user", CLUSTER, this::startedClient);
+
+    // act
+    pool.giveBack(pooled, true);
+
+    // assert
+    verify(pooled.getClient()).stop();
+    assertThat(pool.idleClients(), equalTo(0));
+    assertThat(pool.activeClients(), equalTo(0));
+  }
+
+  @Test
+  public void borrow_limitReachedWithIdleClient_idleClientStopped() throws IOException {
+    // arrange
+    YarnClientPool.PooledClient idle = pool.borrow("user", CLUSTER, this::startedClient);
+    pool.borrow("user", CLUSTER, this::startedClient);
+    pool.giveBack(idle, false);
+
+    // act
+    pool.borrow("user", OTHER_CLUSTER, this::startedClient);
+
+    // assert
+    verify(idle.getClient()).stop();
+    assertThat(pool.activeClients(), equalTo(2));
+  }
+
+  @Test(expected = IOException.class)
+  public void borrow_limitReachedAllClientsInUse_exceptionThrown() throws IOException {
+    pool.borrow("user", CLUSTER, this::startedClient);
+    pool.borrow("user", CLUSTER, this::startedClient);
+    pool.borrow("user", CLUSTER, this::startedClient);
+  }
+
+  @Test
+  public void evictExpired_idleTimeoutPassed_clientStopped() throws IOException {
+    // arrange
+    YarnClientPool.PooledClient pooled = pool.borrow("user", CLUSTER, this::startedClient);
+    pool.giveBack(pooled, false);
+
+    // act
+    pool.evictExpired(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(61));
+
+    // assert
+    verify(pooled.getClient()).stop();
+    assertThat(pool.idleClients(), equalTo(0));
+  }
+
+  @Test
+  public void evictExpired_clientUsedRecently_clientKept() throws IOException {
+    // arrange
+    YarnClientPool.PooledClient pooled = pool.borrow("user", CLUSTER, this::startedClient);
+    pool.giveBack(pooled, false);
+
+    // act
+    pool.evictExpired(System.currentTimeMillis());
+
+    // assert
+    verify(pooled.getClient(), never()).stop();
+    assertThat(pool.idleClients(), equalTo(1));
+  }
+
+  private YarnClient startedClient() {
+    YarnClient client = mock(YarnClient.class);
+    when(client.isInState(Service.STATE.STARTED)).thenReturn(true);
+    return client;
+  }
+}
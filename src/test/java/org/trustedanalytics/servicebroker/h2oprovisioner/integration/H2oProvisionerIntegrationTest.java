@@ -15,7 +15,9 @@
 package org.trustedanalytics.servicebroker.h2oprovisioner.integration;
 
 import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -26,7 +28,7 @@ import org.trustedanalytics.servicebroker.h2oprovisioner.config.ExternalConfigur
 import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oCredentials;
 import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oProvisionerRequestData;
 import org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.H2oDriverExec;
-import org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.H2oUiFileParser;
+import org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.H2oDriverOutputParser;
 import org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.KinitExec;
 
 import com.google.common.collect.ImmutableMap;
@@ -70,9 +72,6 @@ public class H2oProvisionerIntegrationTest {
 
   @Autowired
   public H2oDriverExec h2oDriverExec;
-
-  @Autowired
-  public H2oUiFileParser h2oUiFileParser;
   
   @Test
   public void testCreateServiceInstance_success_shouldReturnCreatedInstance() throws Exception {
@@ -83,7 +82,12 @@ public class H2oProvisionerIntegrationTest {
     final Map<String, String> yarnConfig = ImmutableMap.of("key1", "value1", "key2", "value2");
     final H2oProvisionerRequestData params = new H2oProvisionerRequestData(yarnConfig, "userToken");
 
-    when(h2oUiFileParser.getFlowUrl("h2o_ui_" + INSTANCE_ID)).thenReturn("qwerty.com:80");
+    doAnswer(invocation -> {
+      ((H2oDriverOutputParser) invocation.getArguments()[3])
+          .accept("Open H2O Flow in your web browser: http://qwerty.com:80");
+      return null;
+    }).when(h2oDriverExec).spawnH2oOnYarn(any(String[].class), any(Map.class),
+        any(Configuration.class), any(H2oDriverOutputParser.class));
 
     // act
     ResponseEntity<H2oCredentials> h2oCredentialsEntity =
@@ -106,14 +110,12 @@ public class H2oProvisionerIntegrationTest {
         conf.getH2oDriverJarpath(), "-driverif", conf.getH2oDriverIp(), "-driverport",
         String.valueOf(TestConfig.FAKE_DRIVER_CALLBACK_PORT), "-mapperXmx", MEMORY, "-nodes",
         NODES_COUNT, "-output", "/tmp/h2o/" + INSTANCE_ID, "-jobname", "H2O_BROKER_" + INSTANCE_ID,
-        "-notify", "h2o_ui_" + INSTANCE_ID, "-username", TestConfig.FAKE_H2O_INSTANCE_USERNAME,
+        "-username", TestConfig.FAKE_H2O_INSTANCE_USERNAME,
         "-password", TestConfig.FAKE_H2O_INSTANCE_PASSWORD, "-disown",}),
         eq(new HashMap<String, String>()), 
-        hadoopConfCaptor.capture());
+        hadoopConfCaptor.capture(), any(H2oDriverOutputParser.class));
     Configuration yarnConf = hadoopConfCaptor.getValue();
     assertThat(yarnConf.get("key1"), equalTo("value1"));
     assertThat(yarnConf.get("key2"), equalTo("value2"));
-
-    verify(h2oUiFileParser, times(1)).getFlowUrl("h2o_ui_" + INSTANCE_ID);
   }
 }
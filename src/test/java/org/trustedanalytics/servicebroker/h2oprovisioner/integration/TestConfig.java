@@ -19,15 +19,18 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
 import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.DeprovisionerYarnClientProvider;
+import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.HadoopConfigurationCache;
 import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.KerberosClient;
 import org.trustedanalytics.servicebroker.h2oprovisioner.config.KerberosProperties;
 import org.trustedanalytics.servicebroker.h2oprovisioner.credentials.CredentialsSupplier;
 import org.trustedanalytics.servicebroker.h2oprovisioner.ports.PortsPool;
+import org.trustedanalytics.servicebroker.h2oprovisioner.registry.InstanceRegistry;
 import org.trustedanalytics.servicebroker.h2oprovisioner.service.H2oDeprovisioner;
 import org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.H2oDriverExec;
-import org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.H2oUiFileParser;
 import org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.KinitExec;
 
+import io.micrometer.core.instrument.MeterRegistry;
+
 import static org.mockito.Mockito.mock;
 
 @Configuration
@@ -63,18 +66,16 @@ public class TestConfig {
     return mock(H2oDriverExec.class);
   }
 
-  @Bean
-  public H2oUiFileParser h2oUiFileParser() {
-    return mock(H2oUiFileParser.class);
-  }
-
   @Bean
   @Autowired
   public H2oDeprovisioner getH2oDeprovisioner(KerberosProperties kerberosProperties,
       KerberosClient kerberosClient,
-      DeprovisionerYarnClientProvider deprovisionerYarnClientProvider) {
+      DeprovisionerYarnClientProvider deprovisionerYarnClientProvider, PortsPool portsPool,
+      HadoopConfigurationCache hadoopConfigurationCache, InstanceRegistry instanceRegistry,
+      MeterRegistry meterRegistry) {
     return new H2oDeprovisioner(kerberosProperties.getUser(), kerberosClient,
-        deprovisionerYarnClientProvider);
+        deprovisionerYarnClientProvider, portsPool, hadoopConfigurationCache, instanceRegistry, 4,
+        meterRegistry);
   }
 
   @Bean
@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.loadtest;
+
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.ApplicationReport;
+import org.apache.hadoop.yarn.api.records.YarnApplicationState;
+import org.apache.hadoop.yarn.client.api.impl.YarnClientImpl;
+import org.apache.hadoop.yarn.exceptions.ApplicationNotFoundException;
+import org.apache.hadoop.yarn.exceptions.YarnException;
+import org.apache.hadoop.yarn.util.Records;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * YARN stand-in for load tests. Application ids are made up by the h2odriver stub, so every
+ * application is taken as running until it is killed; running applications are never listed.
+ * Calls take configured time, as calls to a resource manager would. Clients created for the same
+ * {@link Applications} share state.
+ */
+public class InMemoryYarnClient extends YarnClientImpl {
+
+  private final Applications applications;
+  private final long latencyMillis;
+
+  public InMemoryYarnClient(Applications applications, long latencyMillis) {
+    this.applications = applications;
+    this.latencyMillis = latencyMillis;
+  }
+
+  @Override
+  protected void serviceStart() {
+    // there is no resource manager to connect to
+  }
+
+  @Override
+  protected void serviceStop() {
+    // nothing to release
+  }
+
+  @Override
+  public void killApplication(ApplicationId applicationId) throws YarnException, IOException {
+    call();
+    if (!applications.killed.add(applicationId)) {
+      throw new ApplicationNotFoundException(
+          "Application with id '" + applicationId + "' doesn't exist in RM.");
+    }
+  }
+
+  @Override
+  public ApplicationReport getApplicationReport(ApplicationId applicationId)
+      throws YarnException, IOException {
+    call();
+    ApplicationReport report = Records.newRecord(ApplicationReport.class);
+    report.setApplicationId(applicationId);
+    report.setYarnApplicationState(applications.killed.contains(applicationId)
+        ? YarnApplicationState.KILLED : YarnApplicationState.RUNNING);
+    return report;
+  }
+
+  @Override
+  public List<ApplicationReport> getApplications(Set<String> applicationTypes,
+      EnumSet<YarnApplicationState> applicationStates) throws YarnException, IOException {
+    call();
+    return Collections.emptyList();
+  }
+
+  private void call() throws InterruptedIOException {
+    if (latencyMillis <= 0) {
+      return;
+    }
+    try {
+      TimeUnit.MILLISECONDS.sleep(latencyMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted YARN call");
+    }
+  }
+
+  /**
+   * Applications of one in-memory cluster.
+   */
+  public static final class Applications {
+    private final Set<ApplicationId> killed = ConcurrentHashMap.newKeySet();
+
+    public int killedCount() {
+      return killed.size();
+    }
+  }
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.loadtest;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.embedded.EmbeddedWebApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+import org.trustedanalytics.servicebroker.h2oprovisioner.Application;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oProvisionerRequestData;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oProvisionerRestApi;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oProvisionerRestClient;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test of the whole provisioner on one machine. Starts the application with YARN replaced by
+ * {@link InMemoryYarnClient}, then sends concurrent create and delete requests through
+ * {@link H2oProvisionerRestClient}; every worker creates an instance and deletes it. h2odriver is
+ * replaced by src/test/loadtest/hadoop, which has to be first on PATH; run it with
+ * {@code mvn -Ploadtest verify -DskipTests}.
+ *
+ * <p>System properties: loadtest.instances (default 200), loadtest.concurrency (default 16),
+ * loadtest.yarnLatencyMillis (default 0). Reports throughput, latency percentiles, failures,
+ * threads and file descriptors of the JVM at the end.
+ */
+public final class LoadTest {
+
+  private static final Map<String, String> YARN_CONF =
+      ImmutableMap.of("yarn.resourcemanager.address", "localhost:8032");
+
+  private LoadTest() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    int instances = Integer.getInteger("loadtest.instances", 200);
+    int concurrency = Integer.getInteger("loadtest.concurrency", 16);
+
+    Path krbConf = Files.createTempFile("loadtest-krb5", ".conf");
+    Files.write(krbConf, "[realms]\n".getBytes(StandardCharsets.UTF_8));
+    ConfigurableApplicationContext context = new SpringApplicationBuilder(Application.class)
+        .profiles("default", "loadtest")
+        .properties("server.port=0", "h2o.registry.path=", "kerberos.confFile=" + krbConf,
+            "h2o.driver.portUpperBound=55299",
+            "h2o.provisioning.maxConcurrentLaunches=" + concurrency,
+            "h2o.provisioning.queueCapacity=" + instances,
+            "logging.level.org.trustedanalytics=WARN")
+        .run(args);
+    try {
+      int port = ((EmbeddedWebApplicationContext) context).getEmbeddedServletContainer().getPort();
+      H2oProvisionerRestApi client =
+          new H2oProvisionerRestClient("http://localhost:" + port, new RestTemplate());
+      Report report = run(client, instances, concurrency);
+      report.print(System.out);
+      System.out.println("YARN applications killed: "
+          + context.getBean(InMemoryYarnClient.Applications.class).killedCount());
+    } finally {
+      context.close();
+      Files.deleteIfExists(krbConf);
+    }
+  }
+
+  private static Report run(H2oProvisionerRestApi client, int instances, int concurrency)
+      throws InterruptedException {
+    Report report = new Report(instances);
+    ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("loadtest-sampler").setDaemon(true).build());
+    sampler.scheduleAtFixedRate(report::sample, 0, 100, TimeUnit.MILLISECONDS);
+    ExecutorService workers = Executors.newFixedThreadPool(concurrency,
+        new ThreadFactoryBuilder().setNameFormat("loadtest-worker-%d").build());
+
+    long start = System.nanoTime();
+    for (int i = 0; i < instances; i++) {
+      String instanceId = "loadtest-" + i;
+      workers.execute(() -> createAndDelete(client, instanceId, report));
+    }
+    workers.shutdown();
+    workers.awaitTermination(1, TimeUnit.HOURS);
+    report.elapsedNanos = System.nanoTime() - start;
+
+    sampler.shutdownNow();
+    report.sample();
+    return report;
+  }
+
+  private static void createAndDelete(H2oProvisionerRestApi client, String instanceId,
+      Report report) {
+    long start = System.nanoTime();
+    try {
+      client.createH2oInstance(instanceId, "1", "512m", false,
+          new H2oProvisionerRequestData(YARN_CONF, null));
+      report.created.add(System.nanoTime() - start);
+    } catch (RestClientException e) {
+      report.createFailures.incrementAndGet();
+      return;
+    }
+
+    start = System.nanoTime();
+    try {
+      client.deleteH2oInstance(instanceId, YARN_CONF, false);
+      report.deleted.add(System.nanoTime() - start);
+    } catch (RestClientException e) {
+      report.deleteFailures.incrementAndGet();
+    }
+  }
+
+  private static final class Report {
+    private final Latencies created;
+    private final Latencies deleted;
+    private final AtomicLong createFailures = new AtomicLong();
+    private final AtomicLong deleteFailures = new AtomicLong();
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    private volatile long maxFileDescriptors = -1;
+    private long elapsedNanos;
+
+    private Report(int instances) {
+      created = new Latencies(instances);
+      deleted = new Latencies(instances);
+    }
+
+    private void sample() {
+      long fds = openFileDescriptors();
+      if (fds > maxFileDescriptors) {
+        maxFileDescriptors = fds;
+      }
+    }
+
+    private long openFileDescriptors() {
+      if (os instanceof com.sun.management.UnixOperatingSystemMXBean) {
+        return ((com.sun.management.UnixOperatingSystemMXBean) os).getOpenFileDescriptorCount();
+      }
+      return -1;
+    }
+
+    private void print(java.io.PrintStream out) {
+      double seconds = elapsedNanos / 1e9;
+      out.println("=== h2o-provisioner load test ===");
+      out.printf("duration: %.1f s%n", seconds);
+      created.print(out, "create", seconds, createFailures.get());
+      deleted.print(out, "delete", seconds, deleteFailures.get());
+      out.printf("threads: live %d, peak %d%n", threads.getThreadCount(),
+          threads.getPeakThreadCount());
+      out.printf("file descriptors: open %d, peak sampled %d%n", openFileDescriptors(),
+          maxFileDescriptors);
+    }
+  }
+
+  private static final class Latencies {
+    private final List<Long> nanos;
+
+    private Latencies(int expected) {
+      nanos = new ArrayList<>(expected);
+    }
+
+    private synchronized void add(long latencyNanos) {
+      nanos.add(latencyNanos);
+    }
+
+    private synchronized void print(java.io.PrintStream out, String operation, double seconds,
+        long failures) {
+      long[] sorted = nanos.stream().mapToLong(Long::longValue).toArray();
+      Arrays.sort(sorted);
+      out.printf("%s: %d ok, %d failed, %.1f ops/s, p50 %.1f ms, p99 %.1f ms, max %.1f ms%n",
+          operation, sorted.length, failures, sorted.length / seconds, millis(sorted, 0.5),
+          millis(sorted, 0.99), millis(sorted, 1.0));
+    }
+
+    private static double millis(long[] sorted, double quantile) {
+      if (sorted.length == 0) {
+        return Double.NaN;
+      }
+      int index = (int) Math.ceil(quantile * sorted.length) - 1;
+      return sorted[Math.max(index, 0)] / 1e6;
+    }
+  }
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.loadtest;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.DeprovisionerYarnClientProvider;
+import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.H2oJobIndex;
+import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.YarnClientPool;
+
+/**
+ * Replaces YARN with {@link InMemoryYarnClient}, the rest of the application is not changed.
+ */
+@Configuration
+@Profile("loadtest")
+public class LoadTestConfig {
+
+  @Bean
+  public InMemoryYarnClient.Applications yarnApplications() {
+    return new InMemoryYarnClient.Applications();
+  }
+
+  @Bean
+  @Primary
+  public DeprovisionerYarnClientProvider inMemoryYarnClientProvider(YarnClientPool yarnClientPool,
+      H2oJobIndex h2oJobIndex, InMemoryYarnClient.Applications yarnApplications,
+      @Value("${loadtest.yarnLatencyMillis:0}") long yarnLatencyMillis) {
+    return new DeprovisionerYarnClientProvider(yarnClientPool, h2oJobIndex, (user, conf) -> {
+      InMemoryYarnClient client = new InMemoryYarnClient(yarnApplications, yarnLatencyMillis);
+      client.init(conf);
+      client.start();
+      return client;
+    });
+  }
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.ports;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.util.MatcherAssertionErrors.assertThat;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AtomicBitmapPortsPoolTest {
+
+  @Mock
+  private PortChecker portChecker;
+
+  @Test
+  public void create_validPortNumbers_objectCreated() {
+    new AtomicBitmapPortsPool(portChecker, 8080, 8090);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void create_invalidPortNumbers1_exceptionThrown() {
+    new AtomicBitmapPortsPool(portChecker, 0, 8090);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void create_invalidPortNumbers2_exceptionThrown() {
+    new AtomicBitmapPortsPool(portChecker, 8080, 65536);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void create_invalidPortNumbers3_exceptionThrown() {
+    new AtomicBitmapPortsPool(portChecker, 1000, 100);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void create_equalBounds_exceptionThrown() {
+    new AtomicBitmapPortsPool(portChecker, 8080, 8080);
+  }
+
+  @Test
+  public void getPort_allPortsAvailable_claimedPortsNotReturnedAgain() throws IOException {
+    AtomicBitmapPortsPool portsPool = new AtomicBitmapPortsPool(port -> true, 1, 3);
+    assertThat(portsPool.getPort(), equalTo(1));
+    assertThat(portsPool.getPort(), equalTo(2));
+    assertThat(portsPool.getPort(), equalTo(3));
+    assertThat(portsPool.claimedPorts(), equalTo(3));
+  }
+
+  @Test(expected = IOException.class)
+  public void getPort_allPortsClaimed_exceptionThrown() throws IOException {
+    AtomicBitmapPortsPool portsPool = new AtomicBitmapPortsPool(port -> true, 1, 2);
+    portsPool.getPort();
+    portsPool.getPort();
+    portsPool.getPort();
+  }
+
+  @Test
+  public void getPort_portsReleased_returnsPortsOneAfterAnother() throws IOException {
+    AtomicBitmapPortsPool portsPool = new AtomicBitmapPortsPool(port -> true, 1, 3);
+    for (int i = 0; i < 3; i++) {
+      for (int expected = 1; expected <= 3; expected++) {
+        int port = portsPool.getPort();
+        assertThat(port, equalTo(expected));
+        portsPool.releasePort(port);
+      }
+    }
+    assertThat(portsPool.claimedPorts(), equalTo(0));
+  }
+
+  @Test
+  public void getPort_oddPortsAvailable_evenPortsGivenBackToPool() throws IOException {
+    AtomicBitmapPortsPool portsPool = new AtomicBitmapPortsPool(port -> port % 2 != 0, 1, 4);
+    assertThat(portsPool.getPort(), equalTo(1));
+    assertThat(portsPool.getPort(), equalTo(3));
+    assertThat(portsPool.claimedPorts(), equalTo(2));
+  }
+
+  @Test
+  public void getPort_allPortsUnavailable_checkAllPortsOnlyOnceThenThrowsException() {
+    when(portChecker.isAvailable(anyInt())).thenReturn(false);
+    AtomicBitmapPortsPool portsPool = new AtomicBitmapPortsPool(portChecker, 1, 4);
+
+    try {
+      portsPool.getPort();
+    } catch (IOException e) {
+      assertThat(e.getMessage(), equalTo("No port in the pool is available."));
+    }
+
+    for (int port = 1; port <= 4; port++) {
+      verify(portChecker, times(1)).isAvailable(port);
+    }
+    assertThat(portsPool.claimedPorts(), equalTo(0));
+  }
+
+  @Test
+  public void releasePort_portOutOfRange_ignored() throws IOException {
+    AtomicBitmapPortsPool portsPool = new AtomicBitmapPortsPool(port -> true, 100, 101);
+    portsPool.getPort();
+    portsPool.releasePort(99);
+    portsPool.releasePort(102);
+    assertThat(portsPool.claimedPorts(), equalTo(1));
+  }
+
+  @Test
+  public void getPort_concurrentCallers_everyPortClaimedOnce() throws Exception {
+    int lower = 10000;
+    int upper = 14999;
+    AtomicBitmapPortsPool portsPool = new AtomicBitmapPortsPool(port -> true, lower, upper);
+    Set<Integer> claimed = ConcurrentHashMap.newKeySet();
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    List<Future<Boolean>> results = new ArrayList<>();
+    for (int i = 0; i <= upper - lower; i++) {
+      results.add(executor.submit(() -> claimed.add(portsPool.getPort())));
+    }
+    for (Future<Boolean> result : results) {
+      assertThat(result.get(), equalTo(true));
+    }
+    executor.shutdown();
+
+    assertThat(claimed.size(), equalTo(upper - lower + 1));
+    assertThat(portsPool.claimedPorts(), equalTo(upper - lower + 1));
+  }
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.ports;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.util.MatcherAssertionErrors.assertThat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class LeasingPortsPoolTest {
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private LeasingPortsPool sut;
+
+  @After
+  public void tearDown() {
+    sut.shutdown();
+  }
+
+  @Test
+  public void getPort_sameInstanceTwice_sameLeaseReturned() throws IOException {
+    sut = leasingPool(new RangedPortsPool(port -> true, 1, 3), 3);
+
+    PortLease first = sut.getPort("instance1");
+    PortLease second = sut.getPort("instance1");
+
+    assertThat(second, sameInstance(first));
+  }
+
+  @Test
+  public void getPort_sameInstanceConcurrently_oneLeaseReturnedOtherPortsGivenBack()
+      throws Exception {
+    AtomicBitmapPortsPool delegate = new AtomicBitmapPortsPool(port -> true, 1, 16);
+    sut = leasingPool(delegate, 16);
+    int threads = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<PortLease>> leases = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      leases.add(executor.submit(() -> {
+        start.await();
+        return sut.getPort("instance1");
+      }));
+    }
+
+    start.countDown();
+    PortLease first = leases.get(0).get(5, TimeUnit.SECONDS);
+    for (Future<PortLease> lease : leases) {
+      assertThat(lease.get(5, TimeUnit.SECONDS), sameInstance(first));
+    }
+    executor.shutdown();
+
+    assertThat(sut.leasedPorts(), equalTo(1));
+    assertThat(delegate.claimedPorts(), equalTo(1));
+  }
+
+  @Test
+  public void getPort_delegateReturnsLeasedPort_leasedPortSkipped() throws IOException {
+    sut = leasingPool(new RangedPortsPool(port -> true, 1, 3), 3);
+    PortLease first = sut.getPort("instance1");
+    sut.getPort("instance2");
+    sut.getPort("instance3");
+    sut.release("instance2");
+
+    PortLease lease = sut.getPort("instance4");
+
+    assertThat(lease.getPort(), not(equalTo(first.getPort())));
+    assertThat(lease.getPort(), equalTo(2));
+  }
+
+  @Test(expected = IOException.class)
+  public void getPort_allPortsLeased_exceptionThrown() throws IOException {
+    sut = leasingPool(new RangedPortsPool(port -> true, 1, 2), 2);
+    sut.getPort("instance1");
+    sut.getPort("instance2");
+    sut.getPort("instance3");
+  }
+
+  @Test
+  public void release_leasedPort_portGivenBackToDelegate() throws IOException {
+    PortsPool delegate = mock(PortsPool.class);
+    sut = leasingPool(delegate, 10);
+    PortLease lease = sut.getPort("instance1");
+
+    sut.release("instance1");
+
+    verify(delegate).releasePort(lease.getPort());
+    assertThat(sut.leasedPorts(), equalTo(0));
+  }
+
+  @Test
+  public void reclaimExpired_unconfirmedLeaseOlderThanTtl_leaseReclaimed() throws IOException {
+    AtomicBitmapPortsPool delegate = new AtomicBitmapPortsPool(port -> true, 1, 2);
+    sut = leasingPool(delegate, 2);
+    PortLease lease = sut.getPort("instance1");
+
+    sut.reclaimExpired(lease.getAcquiredAt() + TimeUnit.SECONDS.toMillis(60));
+
+    assertThat(sut.leasedPorts(), equalTo(0));
+    assertThat(delegate.claimedPorts(), equalTo(0));
+  }
+
+  @Test
+  public void confirm_leaseReclaimed_confirmationRefused() throws IOException {
+    sut = leasingPool(new AtomicBitmapPortsPool(port -> true, 1, 2), 2);
+    PortLease lease = sut.getPort("instance1");
+    sut.reclaimExpired(lease.getAcquiredAt() + TimeUnit.SECONDS.toMillis(60));
+
+    boolean confirmed = lease.confirm();
+
+    assertThat(confirmed, equalTo(false));
+    assertThat(sut.leasedPorts(), equalTo(0));
+  }
+
+  @Test
+  public void reclaimExpired_confirmedLease_leaseKept() throws IOException {
+    sut = leasingPool(new AtomicBitmapPortsPool(port -> true, 1, 2), 2);
+    PortLease lease = sut.getPort("instance1");
+    lease.confirm();
+
+    sut.reclaimExpired(lease.getAcquiredAt() + TimeUnit.SECONDS.toMillis(60));
+
+    assertThat(sut.leasedPorts(), equalTo(1));
+  }
+
+  @Test
+  public void reclaimExpired_unconfirmedLeaseWithinTtl_leaseKept() throws IOException {
+    sut = leasingPool(new AtomicBitmapPortsPool(port -> true, 1, 2), 2);
+    PortLease lease = sut.getPort("instance1");
+
+    sut.reclaimExpired(lease.getAcquiredAt() + TimeUnit.SECONDS.toMillis(10));
+
+    assertThat(sut.leasedPorts(), equalTo(1));
+  }
+
+  @Test
+  public void getPort_leaseTaken_occupancyExported() throws IOException {
+    sut = leasingPool(new AtomicBitmapPortsPool(port -> true, 1, 4), 4);
+
+    sut.getPort("instance1");
+    sut.getPort("instance2");
+
+    assertThat(meterRegistry.get("h2o.ports.leased").gauge().value(), equalTo(2.0));
+    assertThat(meterRegistry.get("h2o.ports.capacity").gauge().value(), equalTo(4.0));
+  }
+
+  private LeasingPortsPool leasingPool(PortsPool delegate, int capacity) {
+    return new LeasingPortsPool(delegate, capacity, 30, TimeUnit.SECONDS, meterRegistry);
+  }
+}
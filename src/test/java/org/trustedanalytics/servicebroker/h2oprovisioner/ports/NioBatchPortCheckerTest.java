@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.ports;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.BitSet;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.springframework.test.util.MatcherAssertionErrors.assertThat;
+
+public class NioBatchPortCheckerTest {
+
+  @Test
+  public void availablePorts_portTaken_portNotInResult() throws IOException {
+    try (ServerSocket taken = new ServerSocket(0)) {
+      // arrange
+      int port = taken.getLocalPort();
+      NioBatchPortChecker checker = new NioBatchPortChecker(0);
+
+      // act
+      BitSet available = checker.availablePorts(port, port);
+
+      // assert
+      assertThat(available.get(0), equalTo(false));
+      assertThat(checker.isAvailable(port), equalTo(false));
+    }
+  }
+
+  @Test
+  public void availablePorts_portFree_portInResult() throws IOException {
+    // arrange
+    int port;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    NioBatchPortChecker checker = new NioBatchPortChecker(0);
+
+    // act
+    BitSet available = checker.availablePorts(port, port);
+
+    // assert
+    assertThat(available.get(0), equalTo(true));
+  }
+
+  @Test
+  public void availablePorts_freePortSkipped_portNotInResult() throws IOException {
+    // arrange
+    int port;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    NioBatchPortChecker checker = new NioBatchPortChecker(0);
+
+    // act
+    BitSet available = checker.availablePorts(port, port, skipped -> skipped == port);
+
+    // assert
+    assertThat(available.get(0), equalTo(false));
+  }
+
+  @Test
+  public void isAvailable_portTakenAfterFreshRangeCheck_portNotAvailable() throws IOException {
+    // arrange
+    int port;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    NioBatchPortChecker checker = new NioBatchPortChecker(60000);
+    checker.availablePorts(port, port);
+
+    try (ServerSocket taken = new ServerSocket(port)) {
+      // act, assert
+      assertThat(checker.isAvailable(port), equalTo(false));
+    }
+  }
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.ports;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.springframework.test.util.MatcherAssertionErrors.assertThat;
+
+public class PrefetchedPortsPoolTest {
+
+  private PrefetchedPortsPool portsPool;
+
+  @After
+  public void tearDown() {
+    if (portsPool != null) {
+      portsPool.shutdown();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void create_invalidPortNumbers_exceptionThrown() {
+    portsPool = new PrefetchedPortsPool(port -> true, 1000, 100, 1, TimeUnit.HOURS);
+  }
+
+  @Test
+  public void getPort_allPortsAvailable_portsReturnedOneAfterAnother() throws IOException {
+    // arrange
+    portsPool = new PrefetchedPortsPool(port -> true, 1, 3, 1, TimeUnit.HOURS);
+
+    // act, assert
+    assertThat(portsPool.getPort(), equalTo(1));
+    assertThat(portsPool.getPort(), equalTo(2));
+    assertThat(portsPool.getPort(), equalTo(3));
+  }
+
+  @Test
+  public void getPort_somePortsTaken_onlyAvailablePortsReturned() throws IOException {
+    // arrange
+    portsPool = new PrefetchedPortsPool(port -> port % 2 == 0, 1, 4, 1, TimeUnit.HOURS);
+
+    // act, assert
+    assertThat(portsPool.getPort(), equalTo(2));
+    assertThat(portsPool.getPort(), equalTo(4));
+  }
+
+  @Test(expected = IOException.class)
+  public void getPort_allPortsClaimed_exceptionThrown() throws IOException {
+    portsPool = new PrefetchedPortsPool(port -> true, 1, 2, 1, TimeUnit.HOURS);
+    portsPool.getPort();
+    portsPool.getPort();
+    portsPool.getPort();
+  }
+
+  @Test
+  public void refresh_claimedPortsSkipped_startsAfterLastPort() throws IOException {
+    // arrange
+    portsPool = new PrefetchedPortsPool(port -> true, 1, 4, 1, TimeUnit.HOURS);
+    portsPool.getPort();
+    portsPool.getPort();
+
+    // act
+    portsPool.refresh();
+
+    // assert
+    assertThat(portsPool.knownFreePorts(), equalTo(2));
+    assertThat(portsPool.getPort(), equalTo(3));
+  }
+
+  @Test
+  public void refresh_portHandedOut_portNotProbed() throws IOException {
+    // arrange
+    Set<Integer> probed = new HashSet<>();
+    portsPool = new PrefetchedPortsPool(port -> probed.add(port), 1, 3, 1, TimeUnit.HOURS);
+    int handedOut = portsPool.getPort();
+    probed.clear();
+
+    // act
+    portsPool.refresh();
+
+    // assert
+    assertThat(probed.contains(handedOut), equalTo(false));
+    assertThat(probed.size(), equalTo(2));
+  }
+
+  @Test
+  public void releasePort_portReleased_portReturnedAfterRefresh() throws IOException {
+    // arrange
+    portsPool = new PrefetchedPortsPool(port -> true, 1, 1, 1, TimeUnit.HOURS);
+    int port = portsPool.getPort();
+
+    // act
+    portsPool.releasePort(port);
+    portsPool.refresh();
+
+    // assert
+    assertThat(portsPool.getPort(), equalTo(1));
+  }
+
+  @Test
+  public void refresh_checkerUsesRangeCheck_singlePortChecksNotUsed() throws IOException {
+    // arrange
+    PortChecker rangeOnly = new PortChecker() {
+      @Override
+      public boolean isAvailable(int port) {
+        throw new AssertionError("single port check not expected");
+      }
+
+      @Override
+      public BitSet availablePorts(int lowerBound, int upperBound, IntPredicate skipped) {
+        BitSet available = new BitSet();
+        available.set(1);
+        return available;
+      }
+    };
+
+    // act
+    portsPool = new PrefetchedPortsPool(rangeOnly, 10, 12, 1, TimeUnit.HOURS);
+
+    // assert
+    assertThat(portsPool.getPort(), equalTo(11));
+  }
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.registry;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oCredentials;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.springframework.test.util.MatcherAssertionErrors.assertThat;
+
+public class MappedLogInstanceRegistryTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Path path;
+
+  @Before
+  public void setUp() throws IOException {
+    path = folder.getRoot().toPath().resolve("registry").resolve("instances.log");
+  }
+
+  @Test
+  public void reopen_instancesPut_instancesLoaded() throws IOException {
+    // arrange
+    MappedLogInstanceRegistry registry = new MappedLogInstanceRegistry(path);
+    registry.put(instance("a", "application_1457000000000_0001"));
+    registry.put(instance("b", null));
+    registry.shutdown();
+
+    // act
+    MappedLogInstanceRegistry reopened = new MappedLogInstanceRegistry(path);
+
+    // assert
+    assertThat(reopened.list().size(), equalTo(2));
+    assertThat(reopened.get("a").get(), equalTo(instance("a", "application_1457000000000_0001")));
+    assertThat(reopened.get("b").get(), equalTo(instance("b", null)));
+  }
+
+  @Test
+  public void reopen_stateUpdated_latestStateLoaded() throws IOException {
+    // arrange
+    MappedLogInstanceRegistry registry = new MappedLogInstanceRegistry(path);
+    registry.put(instance("a", "application_1457000000000_0001"));
+    registry.updateState("a", H2oInstance.State.DELETED);
+    registry.shutdown();
+
+    // act
+    MappedLogInstanceRegistry reopened = new MappedLogInstanceRegistry(path);
+
+    // assert
+    assertThat(reopened.get("a").get().getState(), equalTo(H2oInstance.State.DELETED));
+  }
+
+  @Test
+  public void updateState_unknownInstance_falseReturned() throws IOException {
+    // arrange
+    MappedLogInstanceRegistry registry = new MappedLogInstanceRegistry(path);
+
+    // act
+    boolean updated = registry.updateState("a", H2oInstance.State.DELETED);
+
+    // assert
+    assertThat(updated, equalTo(false));
+    assertThat(registry.records(), equalTo(0));
+  }
+
+  @Test
+  public void compact_deletedAndSupersededRecords_onlyRunningInstancesKept() throws IOException {
+    // arrange
+    MappedLogInstanceRegistry registry = new MappedLogInstanceRegistry(path);
+    registry.put(instance("a", null));
+    registry.put(instance("a", "application_1457000000000_0001"));
+    registry.put(instance("b", "application_1457000000000_0002"));
+    registry.updateState("b", H2oInstance.State.DELETED);
+
+    // act
+    registry.compact();
+    registry.put(instance("c", "application_1457000000000_0003"));
+    registry.shutdown();
+    MappedLogInstanceRegistry reopened = new MappedLogInstanceRegistry(path);
+
+    // assert
+    assertThat(registry.get("b").isPresent(), equalTo(false));
+    assertThat(reopened.records(), equalTo(2));
+    assertThat(reopened.get("a").get(), equalTo(instance("a", "application_1457000000000_0001")));
+    assertThat(reopened.get("b").isPresent(), equalTo(false));
+    assertThat(reopened.get("c").isPresent(), equalTo(true));
+  }
+
+  @Test
+  public void reopen_tornRecordAtEnd_recordIgnoredAndLogAppendable() throws IOException {
+    // arrange
+    MappedLogInstanceRegistry registry = new MappedLogInstanceRegistry(path);
+    registry.put(instance("a", null));
+    registry.shutdown();
+    try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+      file.seek(4);
+      int end = 4 + 8 + file.readInt();
+      file.seek(end);
+      file.writeInt(100);
+      file.writeInt(12345);
+      file.write(new byte[50]);
+    }
+
+    // act
+    MappedLogInstanceRegistry reopened = new MappedLogInstanceRegistry(path);
+    reopened.put(instance("b", null));
+    reopened.shutdown();
+
+    // assert
+    MappedLogInstanceRegistry again = new MappedLogInstanceRegistry(path);
+    assertThat(again.records(), equalTo(2));
+    assertThat(again.get("a").isPresent(), equalTo(true));
+    assertThat(again.get("b").isPresent(), equalTo(true));
+  }
+
+  @Test(expected = IOException.class)
+  public void new_fileOfOtherFormat_exceptionThrown() throws IOException {
+    // arrange
+    Files.createDirectories(path.getParent());
+    Files.write(path, "not a registry".getBytes());
+
+    // act
+    new MappedLogInstanceRegistry(path);
+  }
+
+  @Test
+  public void get_returnedInstanceModified_registryNotChanged() throws IOException {
+    // arrange
+    MappedLogInstanceRegistry registry = new MappedLogInstanceRegistry(path);
+    registry.put(instance("a", null));
+
+    // act
+    registry.get("a").get().setState(H2oInstance.State.DELETED);
+
+    // assert
+    assertThat(registry.get("a").get().getState(), equalTo(H2oInstance.State.RUNNING));
+  }
+
+  private static H2oInstance instance(String id, String applicationId) {
+    return new H2oInstance(id, applicationId, 54310,
+        new H2oCredentials("10.0.0.1", "54321", "user", "pass"), 1457000000000L,
+        H2oInstance.State.RUNNING, "fingerprint", true);
+  }
+}
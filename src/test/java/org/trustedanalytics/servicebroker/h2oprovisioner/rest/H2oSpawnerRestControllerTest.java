@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.rest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oBatchDeleteRequest;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oInstanceStatus;
+
+import java.util.Collections;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.springframework.test.util.MatcherAssertionErrors.assertThat;
+
+public class H2oSpawnerRestControllerTest {
+
+  private static final H2oInstanceStatus STATUS = new H2oInstanceStatus("a",
+      "application_1457000000000_0001", H2oInstanceStatus.State.RUNNING, null, 1L);
+
+  @Rule
+  public final ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void withETag_noIfNoneMatch_bodyAndETagReturned() {
+    // act
+    ResponseEntity<H2oInstanceStatus> response =
+        H2oSpawnerRestController.withETag(STATUS, null);
+
+    // assert
+    assertThat(response.getStatusCode(), equalTo(HttpStatus.OK));
+    assertThat(response.getBody(), equalTo(STATUS));
+    assertThat(response.getHeaders().getETag(), not(nullValue()));
+  }
+
+  @Test
+  public void withETag_matchingIfNoneMatch_notModifiedReturned() {
+    // arrange
+    String eTag = H2oSpawnerRestController.withETag(STATUS, null).getHeaders().getETag();
+
+    // act
+    ResponseEntity<H2oInstanceStatus> response =
+        H2oSpawnerRestController.withETag(STATUS, "\"other\", " + eTag);
+
+    // assert
+    assertThat(response.getStatusCode(), equalTo(HttpStatus.NOT_MODIFIED));
+    assertThat(response.getBody(), nullValue());
+  }
+
+  @Test
+  public void withETag_statusChanged_bodyReturned() {
+    // arrange
+    String eTag = H2oSpawnerRestController.withETag(STATUS, null).getHeaders().getETag();
+    H2oInstanceStatus stopped = new H2oInstanceStatus("a", "application_1457000000000_0001",
+        H2oInstanceStatus.State.STOPPED, null, 1L);
+
+    // act
+    ResponseEntity<H2oInstanceStatus> response =
+        H2oSpawnerRestController.withETag(stopped, eTag);
+
+    // assert
+    assertThat(response.getStatusCode(), equalTo(HttpStatus.OK));
+  }
+
+  @Test
+  public void deprovisionH2os_noInstanceIds_invalidRequestExceptionThrown() throws Exception {
+    // arrange
+    H2oBatchDeleteRequest request = new H2oBatchDeleteRequest(null, Collections.emptyMap());
+
+    // act
+    // assert
+    thrown.expect(InvalidRequestException.class);
+    new H2oSpawnerRestController().deprovisionH2os(request, "on");
+  }
+}
@@ -17,6 +17,7 @@ package org.trustedanalytics.servicebroker.h2oprovisioner.rest.api;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -25,12 +26,19 @@ import com.google.common.collect.ImmutableMap;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.client.RestOperations;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 @RunWith(MockitoJUnitRunner.class)
 public class H2oProvisionerRestClientTest {
 
@@ -40,9 +48,20 @@ public class H2oProvisionerRestClientTest {
       "http://baseUrl.com/rest/instances/serviceInstanceId/create?nodesCount=2&memory=512m&kerberos=";
   private static final String EFFECTIVE_URL_KRB_ON = EFFECTIVE_URL_BASE + "on";
   private static final String EFFECTIVE_URL_KRB_OFF = EFFECTIVE_URL_BASE + "off";
+  private static final String EFFECTIVE_URL_SUBMIT =
+      "http://baseUrl.com/rest/instances/serviceInstanceId/create/async?nodesCount=2&memory=512m&kerberos=on";
+  private static final String EFFECTIVE_URL_OPERATION =
+      "http://baseUrl.com/rest/operations/operationId";
+  private static final String EFFECTIVE_URL_INSTANCE =
+      "http://baseUrl.com/rest/instances/serviceInstanceId";
+  private static final String EFFECTIVE_URL_INSTANCES =
+      "http://baseUrl.com/rest/instances?page=1&size=20";
   private static final String EFFECTIVE_URL_DELETE =
       "http://baseUrl.com/rest/instances/serviceInstanceId/delete?kerberos=on";
 
+  private static final String EFFECTIVE_URL_DELETE_MANY =
+      "http://baseUrl.com/rest/instances/delete?kerberos=off";
+
   private static final ImmutableMap<String, String> YARN_CONF =
       ImmutableMap.of("key1", "value1", "key2", "value2");
 
@@ -105,4 +124,105 @@ public class H2oProvisionerRestClientTest {
     assertEquals(HttpStatus.OK, response.getStatusCode());
     assertEquals(expectedJobId, response.getBody());
   }
+
+  @Test
+  public void submitH2oInstanceCreation_restReturnedResponse_responsePassed() {
+    // arrange
+    H2oProvisioningOperation operation = new H2oProvisioningOperation("operationId",
+        "serviceInstanceId", H2oProvisioningOperation.State.PENDING, null, null);
+    when(restOperations.postForEntity(EFFECTIVE_URL_SUBMIT, params,
+        H2oProvisioningOperation.class))
+            .thenReturn(new ResponseEntity<>(operation, HttpStatus.ACCEPTED));
+
+    // act
+    ResponseEntity<H2oProvisioningOperation> response =
+        h2oRest.submitH2oInstanceCreation("serviceInstanceId", "2", "512m", true, params);
+
+    // assert
+    assertThat(response.getStatusCode(), equalTo(HttpStatus.ACCEPTED));
+    assertThat(response.getBody(), equalTo(operation));
+  }
+
+  @Test
+  public void getProvisioningOperation_restReturnedResponse_responsePassed() {
+    // arrange
+    H2oProvisioningOperation operation = new H2oProvisioningOperation("operationId",
+        "serviceInstanceId", H2oProvisioningOperation.State.SUCCEEDED, H2O_CREDENTIALS, null);
+    when(restOperations.getForEntity(EFFECTIVE_URL_OPERATION, H2oProvisioningOperation.class))
+        .thenReturn(new ResponseEntity<>(operation, HttpStatus.OK));
+
+    // act
+    ResponseEntity<H2oProvisioningOperation> response =
+        h2oRest.getProvisioningOperation("operationId");
+
+    // assert
+    assertThat(response.getStatusCode(), equalTo(HttpStatus.OK));
+    assertThat(response.getBody().getCredentials(), equalTo(H2O_CREDENTIALS));
+  }
+
+  @Test
+  public void getH2oInstance_restReturnedResponse_responsePassed() {
+    // arrange
+    H2oInstanceStatus status = new H2oInstanceStatus("serviceInstanceId", "application_1_0001",
+        H2oInstanceStatus.State.RUNNING, H2O_CREDENTIALS, 1L);
+    when(restOperations.getForEntity(EFFECTIVE_URL_INSTANCE, H2oInstanceStatus.class))
+        .thenReturn(new ResponseEntity<>(status, HttpStatus.OK));
+
+    // act
+    ResponseEntity<H2oInstanceStatus> response = h2oRest.getH2oInstance("serviceInstanceId");
+
+    // assert
+    assertThat(response.getBody(), equalTo(status));
+  }
+
+  @Test
+  public void getH2oInstance_eTagGiven_ifNoneMatchHeaderSent() {
+    // arrange
+    ArgumentCaptor<HttpEntity> request = ArgumentCaptor.forClass(HttpEntity.class);
+    when(restOperations.exchange(eq(EFFECTIVE_URL_INSTANCE), eq(HttpMethod.GET),
+        request.capture(), eq(H2oInstanceStatus.class)))
+            .thenReturn(new ResponseEntity<>(HttpStatus.NOT_MODIFIED));
+
+    // act
+    ResponseEntity<H2oInstanceStatus> response =
+        h2oRest.getH2oInstance("serviceInstanceId", "\"abc\"");
+
+    // assert
+    assertThat(response.getStatusCode(), equalTo(HttpStatus.NOT_MODIFIED));
+    assertThat(request.getValue().getHeaders().getIfNoneMatch().get(0), equalTo("\"abc\""));
+  }
+
+  @Test
+  public void getH2oInstances_restReturnedResponse_responsePassed() {
+    // arrange
+    H2oInstancesPage page = new H2oInstancesPage(Collections.emptyList(), 1, 20, 0);
+    when(restOperations.getForEntity(EFFECTIVE_URL_INSTANCES, H2oInstancesPage.class))
+        .thenReturn(new ResponseEntity<>(page, HttpStatus.OK));
+
+    // act
+    ResponseEntity<H2oInstancesPage> response = h2oRest.getH2oInstances(1, 20);
+
+    // assert
+    assertThat(response.getBody(), equalTo(page));
+  }
+
+  @Test
+  public void deleteH2oInstances_restReturnedResponse_responsePassed() {
+    // arrange
+    List<String> instanceIds = Arrays.asList("id1", "id2");
+    H2oBatchDeleteResult result = new H2oBatchDeleteResult(Arrays.asList(
+        new H2oInstanceDeletion("id1", "application_1_0001", H2oInstanceDeletion.Result.DELETED,
+            null),
+        new H2oInstanceDeletion("id2", null, H2oInstanceDeletion.Result.NOT_FOUND, "none")));
+    when(restOperations.postForEntity(EFFECTIVE_URL_DELETE_MANY,
+        new H2oBatchDeleteRequest(instanceIds, YARN_CONF), H2oBatchDeleteResult.class))
+            .thenReturn(new ResponseEntity<>(result, HttpStatus.OK));
+
+    // act
+    ResponseEntity<H2oBatchDeleteResult> response =
+        h2oRest.deleteH2oInstances(instanceIds, YARN_CONF, false);
+
+    // assert
+    assertThat(response.getBody(), equalTo(result));
+  }
 }
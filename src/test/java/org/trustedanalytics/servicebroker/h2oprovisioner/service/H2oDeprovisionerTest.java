@@ -18,17 +18,27 @@ import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
 
 import javax.security.auth.login.LoginException;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.YarnApplicationState;
+import org.apache.hadoop.yarn.exceptions.ApplicationNotFoundException;
 import org.apache.hadoop.yarn.exceptions.YarnException;
 import org.junit.Before;
 import org.junit.Rule;
@@ -37,8 +47,19 @@ import org.junit.rules.ExpectedException;
 import org.mockito.ArgumentCaptor;
 import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.DeprovisionerYarnClient;
 import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.DeprovisionerYarnClientProvider;
+import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.HadoopConfigurationCache;
 import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.KerberosClient;
+import org.trustedanalytics.servicebroker.h2oprovisioner.ports.PortsPool;
+import org.trustedanalytics.servicebroker.h2oprovisioner.registry.H2oInstance;
+import org.trustedanalytics.servicebroker.h2oprovisioner.registry.InMemoryInstanceRegistry;
+import org.trustedanalytics.servicebroker.h2oprovisioner.registry.InstanceRegistry;
 import org.trustedanalytics.servicebroker.h2oprovisioner.rest.H2oDeprovisioningException;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.JobNotFoundException;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oBatchDeleteResult;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oInstanceDeletion;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 
 public class H2oDeprovisionerTest {
 
@@ -46,6 +67,10 @@ public class H2oDeprovisionerTest {
       mock(DeprovisionerYarnClientProvider.class);
   private DeprovisionerYarnClient yarnClientMock = mock(DeprovisionerYarnClient.class);
   private KerberosClient kerberosClientMock = mock(KerberosClient.class);
+  private PortsPool portsPoolMock = mock(PortsPool.class);
+  private HadoopConfigurationCache hadoopConfigurations = new HadoopConfigurationCache(4);
+  private InstanceRegistry instanceRegistry = new InMemoryInstanceRegistry();
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
   private final String kerberosUser = "askfap";
   private Map<String, String> testHadoopConf = new HashMap<>();
   private Configuration expectedHadoopConf;
@@ -68,6 +93,8 @@ public class H2oDeprovisionerTest {
     testHadoopConf.forEach(expectedHadoopConf::set);
 
     when(yarnClientMock.getH2oJobId(testInstanceId)).thenReturn(applicationIdMock);
+    when(yarnClientMock.getApplicationState(any()))
+        .thenReturn(Optional.of(YarnApplicationState.RUNNING));
 
     when(yarnClientProviderMock.getClient(any(), any())).thenReturn(yarnClientMock);
 
@@ -78,7 +105,8 @@ public class H2oDeprovisionerTest {
   public void deprovisionInstanceForKrb_EverythingWorks_AllExternalsCalled() throws Exception {
     // given
     H2oDeprovisioner sut =
-        new H2oDeprovisioner(kerberosUser, kerberosClientMock, yarnClientProviderMock);
+        new H2oDeprovisioner(kerberosUser, kerberosClientMock, yarnClientProviderMock,
+            portsPoolMock, hadoopConfigurations, instanceRegistry, 2, meterRegistry);
 
     // when
     String killedJobId = sut.deprovisionInstance(testInstanceId, testHadoopConf, true);
@@ -92,16 +120,39 @@ public class H2oDeprovisionerTest {
     verify(yarnClientMock).start();
     verify(yarnClientMock).getH2oJobId(testInstanceId);
     verify(yarnClientMock).killApplication(applicationIdMock);
+    verify(yarnClientMock).close();
+    verify(portsPoolMock).release(testInstanceId);
     assertEquals(applicationIdMock.toString(), killedJobId);
   }
 
+  @Test
+  public void deprovisionInstanceForKrb_EverythingWorks_PhasesRecorded() throws Exception {
+    // given
+    H2oDeprovisioner sut =
+        new H2oDeprovisioner(kerberosUser, kerberosClientMock, yarnClientProviderMock,
+            portsPoolMock, hadoopConfigurations, instanceRegistry, 1, meterRegistry);
+
+    // when
+    sut.deprovisionInstance(testInstanceId, testHadoopConf, true);
+
+    // then
+    for (String phase : Arrays.asList("login", "yarn_client", "job_lookup", "kill")) {
+      assertEquals(1L, meterRegistry.get(H2oDeprovisioner.PHASE_METRICS_NAME)
+          .tag("phase", phase).timer().count());
+      assertEquals(1.0, meterRegistry.get(H2oDeprovisioner.PHASE_METRICS_NAME + ".runs")
+          .tag("phase", phase).tag("outcome", "success").counter().count(), 0.0);
+    }
+    sut.shutdown();
+  }
+
   @Test
   public void deprovisionInstanceForKrb_KerberosClientThrowsLoginException_ExceptionThrown()
       throws Exception {
     // given
     when(kerberosClientMock.logInToKerberos(any())).thenThrow(new LoginException());
     H2oDeprovisioner sut =
-        new H2oDeprovisioner(kerberosUser, kerberosClientMock, yarnClientProviderMock);
+        new H2oDeprovisioner(kerberosUser, kerberosClientMock, yarnClientProviderMock,
+            portsPoolMock, hadoopConfigurations, instanceRegistry, 2, meterRegistry);
 
     // when
     //then
@@ -115,7 +166,8 @@ public class H2oDeprovisionerTest {
     // given
     when(kerberosClientMock.logInToKerberos(any())).thenThrow(new IOException());
     H2oDeprovisioner sut =
-        new H2oDeprovisioner(kerberosUser, kerberosClientMock, yarnClientProviderMock);
+        new H2oDeprovisioner(kerberosUser, kerberosClientMock, yarnClientProviderMock,
+            portsPoolMock, hadoopConfigurations, instanceRegistry, 2, meterRegistry);
 
     // when
     //then
@@ -129,7 +181,8 @@ public class H2oDeprovisionerTest {
     // given
     when(yarnClientProviderMock.getClient(kerberosUser, expectedHadoopConf)).thenThrow(new IOException());
     H2oDeprovisioner sut =
-        new H2oDeprovisioner(kerberosUser, kerberosClientMock, yarnClientProviderMock);
+        new H2oDeprovisioner(kerberosUser, kerberosClientMock, yarnClientProviderMock,
+            portsPoolMock, hadoopConfigurations, instanceRegistry, 2, meterRegistry);
 
     // when
     //then
@@ -144,7 +197,8 @@ public class H2oDeprovisionerTest {
     // given
     when(yarnClientMock.getH2oJobId(testInstanceId)).thenThrow(new YarnException());
     H2oDeprovisioner sut =
-        new H2oDeprovisioner(kerberosUser, kerberosClientMock, yarnClientProviderMock);
+        new H2oDeprovisioner(kerberosUser, kerberosClientMock, yarnClientProviderMock,
+            portsPoolMock, hadoopConfigurations, instanceRegistry, 2, meterRegistry);
 
     // when
     //then
@@ -158,7 +212,8 @@ public class H2oDeprovisionerTest {
     // given
     doThrow(new YarnException()).when(yarnClientMock).killApplication(applicationIdMock);
     H2oDeprovisioner sut =
-        new H2oDeprovisioner(kerberosUser, kerberosClientMock, yarnClientProviderMock);
+        new H2oDeprovisioner(kerberosUser, kerberosClientMock, yarnClientProviderMock,
+            portsPoolMock, hadoopConfigurations, instanceRegistry, 2, meterRegistry);
 
     // when
     //then
@@ -172,11 +227,233 @@ public class H2oDeprovisionerTest {
     // given
     doThrow(new IOException()).when(yarnClientMock).killApplication(applicationIdMock);
     H2oDeprovisioner sut =
-        new H2oDeprovisioner(kerberosUser, kerberosClientMock, yarnClientProviderMock);
+        new H2oDeprovisioner(kerberosUser, kerberosClientMock, yarnClientProviderMock,
+            portsPoolMock, hadoopConfigurations, instanceRegistry, 2, meterRegistry);
 
     // when
     //then
     thrown.expect(H2oDeprovisioningException.class);
     sut.deprovisionInstance(testInstanceId, testHadoopConf, true);
   }
+
+  @Test
+  public void deprovisionInstance_applicationIdRegistered_killedWithoutLookup() throws Exception {
+    // given
+    ApplicationId registeredId = ApplicationId.newInstance(1457000000000L, 3);
+    instanceRegistry.put(registered(registeredId.toString()));
+    H2oDeprovisioner sut =
+        new H2oDeprovisioner(kerberosUser, kerberosClientMock, yarnClientProviderMock,
+            portsPoolMock, hadoopConfigurations, instanceRegistry, 2, meterRegistry);
+
+    // when
+    String killedJobId = sut.deprovisionInstance(testInstanceId, testHadoopConf, true);
+
+    // then
+    verify(yarnClientMock).killApplication(registeredId);
+    verify(yarnClientMock, never()).getH2oJobId(any());
+    assertEquals(registeredId.toString(), killedJobId);
+    assertEquals(H2oInstance.State.DELETED, instanceRegistry.get(testInstanceId).get().getState());
+  }
+
+  @Test
+  public void deprovisionInstance_registeredApplicationNotFound_fallsBackToLookup()
+      throws Exception {
+    // given
+    ApplicationId registeredId = ApplicationId.newInstance(1457000000000L, 3);
+    instanceRegistry.put(registered(registeredId.toString()));
+    doThrow(new ApplicationNotFoundException("gone")).when(yarnClientMock)
+        .killApplication(registeredId);
+    H2oDeprovisioner sut =
+        new H2oDeprovisioner(kerberosUser, kerberosClientMock, yarnClientProviderMock,
+            portsPoolMock, hadoopConfigurations, instanceRegistry, 2, meterRegistry);
+
+    // when
+    String killedJobId = sut.deprovisionInstance(testInstanceId, testHadoopConf, true);
+
+    // then
+    verify(yarnClientMock).getH2oJobId(testInstanceId);
+    verify(yarnClientMock).killApplication(applicationIdMock);
+    assertEquals(applicationIdMock.toString(), killedJobId);
+  }
+
+  @Test
+  public void deprovisionInstance_registeredApplicationFinished_notKilledJobNotFoundThrown()
+      throws Exception {
+    // given
+    ApplicationId registeredId = ApplicationId.newInstance(1457000000000L, 3);
+    instanceRegistry.put(registered(registeredId.toString()));
+    when(yarnClientMock.getApplicationState(registeredId))
+        .thenReturn(Optional.of(YarnApplicationState.FINISHED));
+    when(yarnClientMock.getH2oJobId(testInstanceId))
+        .thenThrow(new JobNotFoundException("No such H2O job on YARN exists"));
+    H2oDeprovisioner sut =
+        new H2oDeprovisioner(kerberosUser, kerberosClientMock, yarnClientProviderMock,
+            portsPoolMock, hadoopConfigurations, instanceRegistry, 2, meterRegistry);
+
+    // when
+    // then
+    thrown.expect(JobNotFoundException.class);
+    try {
+      sut.deprovisionInstance(testInstanceId, testHadoopConf, true);
+    } finally {
+      verify(yarnClientMock, never()).killApplication(registeredId);
+    }
+  }
+
+  @Test
+  public void deprovisionInstance_deletedTwice_secondDeletionNotFound() throws Exception {
+    // given
+    ApplicationId registeredId = ApplicationId.newInstance(1457000000000L, 3);
+    instanceRegistry.put(registered(registeredId.toString()));
+    H2oDeprovisioner sut =
+        new H2oDeprovisioner(kerberosUser, kerberosClientMock, yarnClientProviderMock,
+            portsPoolMock, hadoopConfigurations, instanceRegistry, 2, meterRegistry);
+    sut.deprovisionInstance(testInstanceId, testHadoopConf, true);
+    when(yarnClientMock.getH2oJobId(testInstanceId))
+        .thenThrow(new JobNotFoundException("No H2O job of " + testInstanceId));
+
+    // when
+    // then
+    thrown.expect(JobNotFoundException.class);
+    try {
+      sut.deprovisionInstance(testInstanceId, testHadoopConf, true);
+    } finally {
+      verify(yarnClientMock, times(1)).killApplication(registeredId);
+    }
+  }
+
+  @Test
+  public void deprovisionInstances_deletedInstance_runningJobsListed() throws Exception {
+    // given
+    instanceRegistry.put(registered(ApplicationId.newInstance(1457000000000L, 3).toString()));
+    instanceRegistry.updateState(testInstanceId, H2oInstance.State.DELETED);
+    when(yarnClientMock.getRunningH2oJobsByName()).thenReturn(ImmutableMap.of());
+    H2oDeprovisioner sut =
+        new H2oDeprovisioner(kerberosUser, kerberosClientMock, yarnClientProviderMock,
+            portsPoolMock, hadoopConfigurations, instanceRegistry, 2, meterRegistry);
+
+    // when
+    H2oBatchDeleteResult result = sut.deprovisionInstances(
+        Collections.singletonList(testInstanceId), testHadoopConf, true);
+
+    // then
+    verify(yarnClientMock).getRunningH2oJobsByName();
+    verify(yarnClientMock, never()).killApplication(any());
+    assertEquals(H2oInstanceDeletion.Result.NOT_FOUND, result.getInstances().get(0).getResult());
+  }
+
+  @Test
+  public void deprovisionInstances_someNotRegistered_runningJobsListedOnce() throws Exception {
+    // given
+    ApplicationId registeredId = ApplicationId.newInstance(1457000000000L, 3);
+    ApplicationId listedId = ApplicationId.newInstance(1457000000000L, 4);
+    instanceRegistry.put(registered(registeredId.toString()));
+    when(yarnClientMock.getRunningH2oJobsByName())
+        .thenReturn(ImmutableMap.of("H2O_BROKER_listed", ImmutableList.of(listedId)));
+    H2oDeprovisioner sut =
+        new H2oDeprovisioner(kerberosUser, kerberosClientMock, yarnClientProviderMock,
+            portsPoolMock, hadoopConfigurations, instanceRegistry, 2, meterRegistry);
+
+    // when
+    H2oBatchDeleteResult result = sut.deprovisionInstances(
+        Arrays.asList(testInstanceId, "listed", "unknown", "listed"), testHadoopConf, true);
+
+    // then
+    verify(yarnClientProviderMock).getClient(kerberosUser, expectedHadoopConf);
+    verify(yarnClientMock).getRunningH2oJobsByName();
+    verify(yarnClientMock).killApplication(registeredId);
+    verify(yarnClientMock).killApplication(listedId);
+    verify(yarnClientMock, never()).getH2oJobId(any());
+    verify(yarnClientMock).close();
+    assertEquals(Arrays.asList(
+        new H2oInstanceDeletion(testInstanceId, registeredId.toString(),
+            H2oInstanceDeletion.Result.DELETED, null),
+        new H2oInstanceDeletion("listed", listedId.toString(),
+            H2oInstanceDeletion.Result.DELETED, null),
+        new H2oInstanceDeletion("unknown", null, H2oInstanceDeletion.Result.NOT_FOUND,
+            "No running H2O job of unknown")),
+        result.getInstances());
+    verify(portsPoolMock).release(testInstanceId);
+    verify(portsPoolMock).release("listed");
+  }
+
+  @Test
+  public void deprovisionInstances_allRegistered_runningJobsNotListed() throws Exception {
+    // given
+    instanceRegistry.put(registered(ApplicationId.newInstance(1457000000000L, 3).toString()));
+    H2oDeprovisioner sut =
+        new H2oDeprovisioner(kerberosUser, kerberosClientMock, yarnClientProviderMock,
+            portsPoolMock, hadoopConfigurations, instanceRegistry, 2, meterRegistry);
+
+    // when
+    sut.deprovisionInstances(Collections.singletonList(testInstanceId), testHadoopConf, true);
+
+    // then
+    verify(yarnClientMock, never()).getRunningH2oJobsByName();
+  }
+
+  @Test
+  public void deprovisionInstances_killFails_failureReportedOthersDeleted() throws Exception {
+    // given
+    ApplicationId failingId = ApplicationId.newInstance(1457000000000L, 4);
+    ApplicationId killedId = ApplicationId.newInstance(1457000000000L, 5);
+    when(yarnClientMock.getRunningH2oJobsByName()).thenReturn(
+        ImmutableMap.of("H2O_BROKER_failing", ImmutableList.of(failingId), "H2O_BROKER_killed",
+            ImmutableList.of(killedId)));
+    doThrow(new YarnException("refused")).when(yarnClientMock).killApplication(failingId);
+    H2oDeprovisioner sut =
+        new H2oDeprovisioner(kerberosUser, kerberosClientMock, yarnClientProviderMock,
+            portsPoolMock, hadoopConfigurations, instanceRegistry, 2, meterRegistry);
+
+    // when
+    H2oBatchDeleteResult result = sut.deprovisionInstances(Arrays.asList("failing", "killed"),
+        testHadoopConf, true);
+
+    // then
+    assertEquals(H2oInstanceDeletion.Result.FAILED, result.getInstances().get(0).getResult());
+    assertEquals("refused", result.getInstances().get(0).getError());
+    assertEquals(H2oInstanceDeletion.Result.DELETED, result.getInstances().get(1).getResult());
+    verify(portsPoolMock, never()).release("failing");
+  }
+
+  @Test
+  public void deprovisionInstances_jobNameShared_failureReportedNothingKilled() throws Exception {
+    // given
+    when(yarnClientMock.getRunningH2oJobsByName()).thenReturn(ImmutableMap.of("H2O_BROKER_shared",
+        ImmutableList.of(ApplicationId.newInstance(1457000000000L, 4),
+            ApplicationId.newInstance(1457000000000L, 5))));
+    H2oDeprovisioner sut =
+        new H2oDeprovisioner(kerberosUser, kerberosClientMock, yarnClientProviderMock,
+            portsPoolMock, hadoopConfigurations, instanceRegistry, 2, meterRegistry);
+
+    // when
+    H2oBatchDeleteResult result = sut.deprovisionInstances(Collections.singletonList("shared"),
+        testHadoopConf, true);
+
+    // then
+    verify(yarnClientMock, never()).killApplication(any());
+    verify(portsPoolMock, never()).release("shared");
+    assertEquals(H2oInstanceDeletion.Result.FAILED, result.getInstances().get(0).getResult());
+    assertEquals("Error obtaining H2O job id from YARN. Found 2 apps with name H2O_BROKER_shared",
+        result.getInstances().get(0).getError());
+  }
+
+  @Test
+  public void deprovisionInstances_listingFails_exceptionThrown() throws Exception {
+    // given
+    when(yarnClientMock.getRunningH2oJobsByName()).thenThrow(new IOException());
+    H2oDeprovisioner sut =
+        new H2oDeprovisioner(kerberosUser, kerberosClientMock, yarnClientProviderMock,
+            portsPoolMock, hadoopConfigurations, instanceRegistry, 2, meterRegistry);
+
+    // when
+    // then
+    thrown.expect(H2oDeprovisioningException.class);
+    sut.deprovisionInstances(Collections.singletonList("a"), testHadoopConf, true);
+  }
+
+  private H2oInstance registered(String applicationId) {
+    return new H2oInstance(testInstanceId, applicationId, 54310, null, 0L,
+        H2oInstance.State.RUNNING, null, true);
+  }
 }
@@ -0,0 +1,142 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.service;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.JobNotFoundException;
+
+import com.google.common.collect.ImmutableMap;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class H2oDeprovisioningOperationsTest {
+
+  private static final String INSTANCE_ID = "instanceId";
+  private static final Map<String, String> YARN_CONF = ImmutableMap.of("key1", "value1");
+  private static final String APPLICATION_ID = "application_1457000000000_0001";
+
+  private final H2oDeprovisioner h2oDeprovisionerMock = mock(H2oDeprovisioner.class);
+  private final H2oProvisioningOperations provisioningOperationsMock =
+      mock(H2oProvisioningOperations.class);
+  private final ExecutorService executor = Executors.newFixedThreadPool(2);
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private H2oDeprovisioningOperations sut;
+
+  @Rule
+  public final ExpectedException thrown = ExpectedException.none();
+
+  @Before
+  public void setUp() {
+    sut = new H2oDeprovisioningOperations(h2oDeprovisionerMock, provisioningOperationsMock,
+        meterRegistry);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void deprovision_deprovisionerSucceeds_jobIdReturnedAndCredentialsForgotten()
+      throws Exception {
+    // given
+    when(h2oDeprovisionerMock.deprovisionInstance(INSTANCE_ID, YARN_CONF, true))
+        .thenReturn(APPLICATION_ID);
+
+    // when
+    String jobId = sut.deprovision(INSTANCE_ID, YARN_CONF, true);
+
+    // then
+    assertThat(jobId, equalTo(APPLICATION_ID));
+    verify(provisioningOperationsMock, times(2)).forget(INSTANCE_ID);
+  }
+
+  @Test
+  public void deprovision_deprovisionerFails_exceptionRethrown() throws Exception {
+    // given
+    when(h2oDeprovisionerMock.deprovisionInstance(INSTANCE_ID, YARN_CONF, true))
+        .thenThrow(new JobNotFoundException("No job found"));
+
+    // when
+    // then
+    thrown.expect(JobNotFoundException.class);
+    sut.deprovision(INSTANCE_ID, YARN_CONF, true);
+  }
+
+  @Test
+  public void deprovision_instanceBeingDeprovisioned_runningDeprovisioningJoined()
+      throws Exception {
+    // given
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch killed = new CountDownLatch(1);
+    when(h2oDeprovisionerMock.deprovisionInstance(INSTANCE_ID, YARN_CONF, true))
+        .thenAnswer(invocation -> {
+          started.countDown();
+          killed.await();
+          return APPLICATION_ID;
+        });
+    Future<String> first = executor.submit(() -> sut.deprovision(INSTANCE_ID, YARN_CONF, true));
+    started.await();
+
+    // when
+    Future<String> second = executor.submit(() -> sut.deprovision(INSTANCE_ID, YARN_CONF, true));
+    while (meterRegistry.counter(H2oDeprovisioningOperations.FLIGHTS_METRIC_NAME, "result",
+        "joined").count() < 1) {
+      Thread.sleep(10);
+    }
+    killed.countDown();
+
+    // then
+    assertThat(first.get(), equalTo(APPLICATION_ID));
+    assertThat(second.get(), equalTo(APPLICATION_ID));
+    verify(h2oDeprovisionerMock, times(1)).deprovisionInstance(INSTANCE_ID, YARN_CONF, true);
+  }
+
+  @Test
+  public void deprovision_deprovisionerThrowsError_nextDeprovisioningNotBlocked()
+      throws Exception {
+    // given
+    when(h2oDeprovisionerMock.deprovisionInstance(INSTANCE_ID, YARN_CONF, true))
+        .thenThrow(new OutOfMemoryError()).thenReturn(APPLICATION_ID);
+    try {
+      sut.deprovision(INSTANCE_ID, YARN_CONF, true);
+    } catch (OutOfMemoryError e) {
+      // expected, the flight has to be finished anyway
+    }
+
+    // when
+    String jobId = sut.deprovision(INSTANCE_ID, YARN_CONF, true);
+
+    // then
+    assertThat(jobId, equalTo(APPLICATION_ID));
+  }
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.service;
+
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.YarnApplicationState;
+import org.junit.Before;
+import org.junit.Test;
+import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.HadoopConfigurationCache;
+import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.ImmutableConfiguration;
+import org.trustedanalytics.servicebroker.h2oprovisioner.registry.H2oInstance;
+import org.trustedanalytics.servicebroker.h2oprovisioner.registry.InMemoryInstanceRegistry;
+import org.trustedanalytics.servicebroker.h2oprovisioner.registry.InstanceRegistry;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.InstanceNotFoundException;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oCredentials;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oInstanceStatus;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oInstancesPage;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.util.MatcherAssertionErrors.assertThat;
+
+public class H2oInstancesTest {
+
+  private static final ApplicationId APPLICATION_ID = ApplicationId.newInstance(1457000000000L, 1);
+
+  private InstanceRegistry instanceRegistry;
+  private HadoopConfigurationCache hadoopConfigurations;
+  private H2oDeprovisioner h2oDeprovisioner;
+  private ImmutableConfiguration hadoopConf;
+  private H2oInstances sut;
+
+  @Before
+  public void setUp() {
+    instanceRegistry = new InMemoryInstanceRegistry();
+    hadoopConfigurations = new HadoopConfigurationCache(4);
+    h2oDeprovisioner = mock(H2oDeprovisioner.class);
+    hadoopConf = hadoopConfigurations.get(ImmutableMap.of("key", "value"));
+    sut = new H2oInstances(instanceRegistry, hadoopConfigurations, h2oDeprovisioner, 60,
+        TimeUnit.SECONDS);
+  }
+
+  @Test(expected = InstanceNotFoundException.class)
+  public void get_unknownInstance_exceptionThrown() throws Exception {
+    sut.get("unknown");
+  }
+
+  @Test
+  public void get_recentlyCreatedInstance_returnedWithoutCheck() throws Exception {
+    // given
+    instanceRegistry.put(instance("a", System.currentTimeMillis(), hadoopConf));
+
+    // when
+    H2oInstanceStatus status = sut.get("a");
+
+    // then
+    assertThat(status.getState(), equalTo(H2oInstanceStatus.State.RUNNING));
+    assertThat(status.getApplicationId(), equalTo(APPLICATION_ID.toString()));
+    assertThat(status.getCredentials().getHostname(), equalTo("10.0.0.1"));
+    verify(h2oDeprovisioner, never()).getApplicationState(any(), any(), anyBoolean());
+  }
+
+  @Test
+  public void get_staleInstanceJobFinished_stoppedReturnedAndRegistered() throws Exception {
+    // given
+    instanceRegistry.put(instance("a", 0L, hadoopConf));
+    when(h2oDeprovisioner.getApplicationState(APPLICATION_ID, hadoopConf, true))
+        .thenReturn(Optional.of(YarnApplicationState.FINISHED));
+
+    // when
+    H2oInstanceStatus status = sut.get("a");
+
+    // then
+    assertThat(status.getState(), equalTo(H2oInstanceStatus.State.STOPPED));
+    assertThat(instanceRegistry.get("a").get().getState(), equalTo(H2oInstance.State.STOPPED));
+    assertThat(status.getCredentials(), nullValue());
+  }
+
+  @Test
+  public void get_staleInstanceJobRunning_checkedOnceWithinStalenessPeriod() throws Exception {
+    // given
+    instanceRegistry.put(instance("a", 0L, hadoopConf));
+    when(h2oDeprovisioner.getApplicationState(APPLICATION_ID, hadoopConf, true))
+        .thenReturn(Optional.of(YarnApplicationState.RUNNING));
+
+    // when
+    sut.get("a");
+    H2oInstanceStatus status = sut.get("a");
+
+    // then
+    assertThat(status.getState(), equalTo(H2oInstanceStatus.State.RUNNING));
+    verify(h2oDeprovisioner).getApplicationState(eq(APPLICATION_ID), any(), anyBoolean());
+  }
+
+  @Test
+  public void get_staleInstanceConfigurationNotKnown_returnedWithoutCheck() throws Exception {
+    // given
+    ImmutableConfiguration otherConf = new ImmutableConfiguration(ImmutableMap.of("k", "v"));
+    instanceRegistry.put(instance("a", 0L, otherConf));
+
+    // when
+    H2oInstanceStatus status = sut.get("a");
+
+    // then
+    assertThat(status.getState(), equalTo(H2oInstanceStatus.State.RUNNING));
+    verify(h2oDeprovisioner, never()).getApplicationState(any(), any(), anyBoolean());
+  }
+
+  @Test
+  public void list_secondPage_instancesOrderedByCreationTime() {
+    // given
+    instanceRegistry.put(instance("c", 3L, hadoopConf));
+    instanceRegistry.put(instance("a", 1L, hadoopConf));
+    instanceRegistry.put(instance("b", 2L, hadoopConf));
+
+    // when
+    H2oInstancesPage page = sut.list(1, 2);
+
+    // then
+    assertThat(page.getTotal(), equalTo(3L));
+    assertThat(page.getInstances().stream().map(H2oInstanceStatus::getInstanceId)
+        .collect(Collectors.toList()), contains("c"));
+  }
+
+  @Test
+  public void list_warmClusters_notListed() {
+    // given
+    instanceRegistry.put(instance("a", 1L, hadoopConf));
+    instanceRegistry.put(instance(WarmPool.WARM_ID_PREFIX + "1", 2L, hadoopConf));
+
+    // when
+    H2oInstancesPage page = sut.list(0, 10);
+
+    // then
+    assertThat(page.getTotal(), equalTo(1L));
+    assertThat(page.getInstances().stream().map(H2oInstanceStatus::getInstanceId)
+        .collect(Collectors.toList()), contains("a"));
+  }
+
+  @Test
+  public void list_runningInstance_listedWithoutCredentials() {
+    // given
+    instanceRegistry.put(instance("a", 1L, hadoopConf));
+
+    // when
+    H2oInstancesPage page = sut.list(0, 10);
+
+    // then
+    assertThat(page.getInstances().get(0).getCredentials(), nullValue());
+  }
+
+  @Test(expected = InstanceNotFoundException.class)
+  public void get_warmCluster_exceptionThrown() throws Exception {
+    // given
+    instanceRegistry.put(instance(WarmPool.WARM_ID_PREFIX + "1", 1L, hadoopConf));
+
+    // when
+    sut.get(WarmPool.WARM_ID_PREFIX + "1");
+  }
+
+  private static H2oInstance instance(String id, long createdAt,
+      ImmutableConfiguration hadoopConf) {
+    return new H2oInstance(id, APPLICATION_ID.toString(), 54310,
+        new H2oCredentials("10.0.0.1", "54321", "user", "pass"), createdAt,
+        H2oInstance.State.RUNNING, hadoopConf.getFingerprint().getValue(), true);
+  }
+}
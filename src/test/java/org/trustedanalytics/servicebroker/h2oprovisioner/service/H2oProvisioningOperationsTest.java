@@ -0,0 +1,255 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.service;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.H2oSpawnerException;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.OperationNotFoundException;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.ProvisioningRejectedException;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oCredentials;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oProvisioningOperation;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oProvisioningOperation.State;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class H2oProvisioningOperationsTest {
+
+  private static final String INSTANCE_ID = "instanceId";
+  private static final Map<String, String> YARN_CONF = ImmutableMap.of("key1", "value1");
+  private static final H2oCredentials CREDENTIALS =
+      new H2oCredentials("127.0.0.1", "54321", "user", "pass");
+
+  private final H2oSpawner h2oSpawnerMock = mock(H2oSpawner.class);
+  private final ProvisioningScheduler schedulerMock = mock(ProvisioningScheduler.class);
+  private final WarmPool warmPoolMock = mock(WarmPool.class);
+  private H2oProvisioningOperations sut;
+
+  @Rule
+  public final ExpectedException thrown = ExpectedException.none();
+
+  @Before
+  public void setUp() throws Exception {
+    when(schedulerMock.submit(any())).thenAnswer(invocation -> {
+      Callable<?> task = (Callable<?>) invocation.getArguments()[0];
+      try {
+        return Futures.immediateFuture(task.call());
+      } catch (Exception e) {
+        return Futures.immediateFailedFuture(e);
+      }
+    });
+    when(warmPoolMock.take(any(), any(), any(), anyBoolean(), any())).thenReturn(Optional.empty());
+    sut = new H2oProvisioningOperations(h2oSpawnerMock, schedulerMock, warmPoolMock, 60, 0,
+        new SimpleMeterRegistry());
+  }
+
+  @Test
+  public void provision_spawnerSucceeds_credentialsReturned() throws Exception {
+    // given
+    when(h2oSpawnerMock.provisionInstance(INSTANCE_ID, "512m", "1", true, YARN_CONF))
+        .thenReturn(CREDENTIALS);
+
+    // when
+    H2oCredentials credentials = sut.provision(INSTANCE_ID, "512m", "1", true, YARN_CONF);
+
+    // then
+    assertThat(credentials, equalTo(CREDENTIALS));
+  }
+
+  @Test
+  public void provision_warmClusterAvailable_credentialsReturnedWithoutSpawning()
+      throws Exception {
+    // given
+    when(warmPoolMock.take(INSTANCE_ID, "512m", "1", true, YARN_CONF))
+        .thenReturn(Optional.of(CREDENTIALS));
+
+    // when
+    H2oCredentials credentials = sut.provision(INSTANCE_ID, "512m", "1", true, YARN_CONF);
+
+    // then
+    assertThat(credentials, equalTo(CREDENTIALS));
+    verify(schedulerMock, never()).submit(any());
+    verify(h2oSpawnerMock, never()).provisionInstance(any(), any(), any(), anyBoolean(), any());
+  }
+
+  @Test
+  public void provision_spawnerFails_spawnerExceptionRethrown() throws Exception {
+    // given
+    when(h2oSpawnerMock.provisionInstance(INSTANCE_ID, "512m", "1", true, YARN_CONF))
+        .thenThrow(new H2oSpawnerException("Unable to provision h2o for: " + INSTANCE_ID, null));
+
+    // when
+    // then
+    thrown.expect(H2oSpawnerException.class);
+    thrown.expectMessage("Unable to provision h2o for: " + INSTANCE_ID);
+    sut.provision(INSTANCE_ID, "512m", "1", true, YARN_CONF);
+  }
+
+  @Test
+  public void submit_spawnerSucceeds_operationSucceededWithCredentials() throws Exception {
+    // given
+    when(h2oSpawnerMock.provisionInstance(INSTANCE_ID, "512m", "1", true, YARN_CONF))
+        .thenReturn(CREDENTIALS);
+
+    // when
+    H2oProvisioningOperation accepted = sut.submit(INSTANCE_ID, "512m", "1", true, YARN_CONF);
+
+    // then
+    assertThat(accepted.getState(), equalTo(State.PENDING));
+    H2oProvisioningOperation finished = sut.get(accepted.getOperationId());
+    assertThat(finished.getState(), equalTo(State.SUCCEEDED));
+    assertThat(finished.getInstanceId(), equalTo(INSTANCE_ID));
+    assertThat(finished.getCredentials(), equalTo(CREDENTIALS));
+  }
+
+  @Test
+  public void submit_warmClusterAvailable_operationSucceededAtOnce() throws Exception {
+    // given
+    when(warmPoolMock.take(INSTANCE_ID, "512m", "1", true, YARN_CONF))
+        .thenReturn(Optional.of(CREDENTIALS));
+
+    // when
+    H2oProvisioningOperation accepted = sut.submit(INSTANCE_ID, "512m", "1", true, YARN_CONF);
+
+    // then
+    assertThat(accepted.getState(), equalTo(State.SUCCEEDED));
+    assertThat(accepted.getCredentials(), equalTo(CREDENTIALS));
+    assertThat(sut.get(accepted.getOperationId()), equalTo(accepted));
+    verify(schedulerMock, never()).submit(any());
+  }
+
+  @Test
+  public void submit_spawnerFails_operationFailedWithError() throws Exception {
+    // given
+    when(h2oSpawnerMock.provisionInstance(INSTANCE_ID, "512m", "1", true, YARN_CONF))
+        .thenThrow(new H2oSpawnerException("Unable to provision h2o for: " + INSTANCE_ID, null));
+
+    // when
+    H2oProvisioningOperation accepted = sut.submit(INSTANCE_ID, "512m", "1", true, YARN_CONF);
+
+    // then
+    H2oProvisioningOperation finished = sut.get(accepted.getOperationId());
+    assertThat(finished.getState(), equalTo(State.FAILED));
+    assertThat(finished.getCredentials(), nullValue());
+    assertThat(finished.getError(), equalTo("Unable to provision h2o for: " + INSTANCE_ID));
+  }
+
+  @Test
+  public void submit_schedulerRejectsTask_exceptionThrown() throws Exception {
+    // given
+    when(schedulerMock.submit(any()))
+        .thenThrow(new ProvisioningRejectedException("Too many requests", 30));
+
+    // when
+    // then
+    thrown.expect(ProvisioningRejectedException.class);
+    sut.submit(INSTANCE_ID, "512m", "1", true, YARN_CONF);
+  }
+
+  @Test
+  public void provision_repeatedAfterSuccess_cachedCredentialsReturned() throws Exception {
+    // given
+    sut = new H2oProvisioningOperations(h2oSpawnerMock, schedulerMock, warmPoolMock, 60, 60,
+        new SimpleMeterRegistry());
+    when(h2oSpawnerMock.provisionInstance(INSTANCE_ID, "512m", "1", true, YARN_CONF))
+        .thenReturn(CREDENTIALS);
+    sut.provision(INSTANCE_ID, "512m", "1", true, YARN_CONF);
+
+    // when
+    H2oCredentials credentials = sut.provision(INSTANCE_ID, "512m", "1", true, YARN_CONF);
+
+    // then
+    assertThat(credentials, equalTo(CREDENTIALS));
+    verify(h2oSpawnerMock, times(1)).provisionInstance(any(), any(), any(), anyBoolean(), any());
+  }
+
+  @Test
+  public void provision_repeatedAfterForget_instanceSpawnedAgain() throws Exception {
+    // given
+    sut = new H2oProvisioningOperations(h2oSpawnerMock, schedulerMock, warmPoolMock, 60, 60,
+        new SimpleMeterRegistry());
+    when(h2oSpawnerMock.provisionInstance(INSTANCE_ID, "512m", "1", true, YARN_CONF))
+        .thenReturn(CREDENTIALS);
+    sut.provision(INSTANCE_ID, "512m", "1", true, YARN_CONF);
+    sut.forget(INSTANCE_ID);
+
+    // when
+    sut.provision(INSTANCE_ID, "512m", "1", true, YARN_CONF);
+
+    // then
+    verify(h2oSpawnerMock, times(2)).provisionInstance(any(), any(), any(), anyBoolean(), any());
+  }
+
+  @Test
+  public void submit_instanceBeingProvisioned_runningOperationReturned() throws Exception {
+    // given
+    when(schedulerMock.submit(any())).thenReturn(null);
+    H2oProvisioningOperation first = sut.submit(INSTANCE_ID, "512m", "1", true, YARN_CONF);
+
+    // when
+    H2oProvisioningOperation second = sut.submit(INSTANCE_ID, "512m", "1", true, YARN_CONF);
+
+    // then
+    assertThat(second.getOperationId(), equalTo(first.getOperationId()));
+    verify(schedulerMock, times(1)).submit(any());
+  }
+
+  @Test
+  public void submit_schedulerRejectsTask_nextRequestSubmittedAgain() throws Exception {
+    // given
+    when(schedulerMock.submit(any()))
+        .thenThrow(new ProvisioningRejectedException("Too many requests", 30))
+        .thenReturn(null);
+    try {
+      sut.submit(INSTANCE_ID, "512m", "1", true, YARN_CONF);
+    } catch (ProvisioningRejectedException e) {
+      // expected
+    }
+
+    // when
+    H2oProvisioningOperation accepted = sut.submit(INSTANCE_ID, "512m", "1", true, YARN_CONF);
+
+    // then
+    assertThat(accepted.getState(), equalTo(State.PENDING));
+    verify(schedulerMock, times(2)).submit(any());
+  }
+
+  @Test
+  public void get_unknownOperation_exceptionThrown() throws Exception {
+    // when
+    // then
+    thrown.expect(OperationNotFoundException.class);
+    sut.get("unknown");
+  }
+}
@@ -15,7 +15,9 @@
 package org.trustedanalytics.servicebroker.h2oprovisioner.service;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -24,24 +26,40 @@ import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.HadoopConfigurationCache;
 import org.trustedanalytics.servicebroker.h2oprovisioner.config.ExternalConfiguration;
 import org.trustedanalytics.servicebroker.h2oprovisioner.credentials.CredentialsSupplier;
+import org.trustedanalytics.servicebroker.h2oprovisioner.ports.PortLease;
 import org.trustedanalytics.servicebroker.h2oprovisioner.ports.PortsPool;
+import org.trustedanalytics.servicebroker.h2oprovisioner.registry.H2oInstance;
+import org.trustedanalytics.servicebroker.h2oprovisioner.registry.InMemoryInstanceRegistry;
+import org.trustedanalytics.servicebroker.h2oprovisioner.registry.InstanceRegistry;
 import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oCredentials;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.H2oProvisioningTimeoutException;
 import org.trustedanalytics.servicebroker.h2oprovisioner.rest.H2oSpawnerException;
 import org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.H2oDriverExec;
-import org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.H2oUiFileParser;
+import org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.H2oDriverOutputParser;
 import org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.KinitExec;
 
-import java.io.FileNotFoundException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -60,9 +78,15 @@ public class H2oSpawnerTest {
   private static final String H2O_USER = "h2oUser";
   private static final String H2O_PASSWORD = "h2oP4$s";
   private static final String INSTANCE_ID = "instanceId";
+  private static final String FLOW_URL_LINE =
+      "Open H2O Flow in your web browser: http://127.0.0.1:54321";
 
   private H2oSpawner h2oSpawner;
 
+  private InstanceRegistry instanceRegistry;
+
+  private MeterRegistry meterRegistry;
+
   @Mock
   public PortsPool portsPool;
 
@@ -78,22 +102,19 @@ public class H2oSpawnerTest {
   @Mock
   public H2oDriverExec h2oDriverExec;
 
-  @Mock
-  public H2oUiFileParser h2oUiFileParser;
-
   @Before
   public void setup() throws IOException {
-    ExternalConfiguration config = new ExternalConfiguration();
-    config.setH2oDriverJarpath(DRIVER_JAR_PATH);
-    config.setH2oDriverIp(DRIVER_IP);
-    config.setNokrbDefaultUsername("cf");
-
     when(portsPool.getPort()).thenReturn(DRIVER_CALLBACK_PORT);
+    when(portsPool.getPort(INSTANCE_ID))
+        .thenReturn(new PortLease(INSTANCE_ID, DRIVER_CALLBACK_PORT));
     when(usernameSupplier.get()).thenReturn(H2O_USER);
     when(passwordSupplier.get()).thenReturn(H2O_PASSWORD);
 
-    h2oSpawner = new H2oSpawner(config, portsPool, usernameSupplier, passwordSupplier, kinitExec,
-        h2oDriverExec, h2oUiFileParser);
+    instanceRegistry = new InMemoryInstanceRegistry();
+    meterRegistry = new SimpleMeterRegistry();
+    h2oSpawner = new H2oSpawner(config(), portsPool, usernameSupplier, passwordSupplier, kinitExec,
+        h2oDriverExec, new HadoopConfigurationCache(4), instanceRegistry,
+        MoreExecutors.directExecutor(), meterRegistry);
   }
 
   @Rule
@@ -118,8 +139,9 @@ public class H2oSpawnerTest {
     // arrange
     expectedException.expect(H2oSpawnerException.class);
     expectedException.expectMessage("Unable to provision h2o for: " + INSTANCE_ID);
-    doThrow(new IOException()).when(h2oDriverExec).spawnH2oOnYarn(h2oDriverArgs(),
-        commandEnvVariablesForKrb(), hadoopConf(YARN_CONF));
+    doThrow(new IOException()).when(h2oDriverExec).spawnH2oOnYarn(eq(h2oDriverArgs()),
+        eq(commandEnvVariablesForKrb()), any(Configuration.class),
+        any(H2oDriverOutputParser.class));
 
     // act
     h2oSpawner.provisionInstance(INSTANCE_ID, H2O_MEMORY, H2O_NODES, true, YARN_CONF);
@@ -130,13 +152,14 @@ public class H2oSpawnerTest {
   }
 
   @Test
-  public void provisionInstance_uiFileParserFails_allExternalsCalledExceptionThrown()
+  public void provisionInstance_driverReportsNoFlowUrl_allExternalsCalledExceptionThrown()
       throws Exception {
 
     // arrange
     expectedException.expect(H2oSpawnerException.class);
     expectedException.expectMessage("Unable to provision h2o for: " + INSTANCE_ID);
-    doThrow(new FileNotFoundException()).when(h2oUiFileParser).getFlowUrl("h2o_ui_" + INSTANCE_ID);
+    when(h2oDriverExec.spawnH2oOnYarn(eq(h2oDriverArgs()), eq(commandEnvVariablesForKrb()),
+        any(Configuration.class), any(H2oDriverOutputParser.class))).thenReturn(null);
 
     // act
     h2oSpawner.provisionInstance(INSTANCE_ID, H2O_MEMORY, H2O_NODES, true, YARN_CONF);
@@ -144,7 +167,6 @@ public class H2oSpawnerTest {
     // assert
     verifyKinitCalled();
     verifyDriverCalledForKrb();
-    verifyUiFileParserCalled();
   }
 
   @Test
@@ -152,7 +174,7 @@ public class H2oSpawnerTest {
       throws Exception {
 
     // arrange
-    when(h2oUiFileParser.getFlowUrl("h2o_ui_" + INSTANCE_ID)).thenReturn("127.0.0.1:54321");
+    driverReportsFlowUrl(null);
 
     // act
     H2oCredentials actualH2oCredentials =
@@ -165,7 +187,6 @@ public class H2oSpawnerTest {
     assertThat(actualH2oCredentials.getPassword(), equalTo(H2O_PASSWORD));
     verifyKinitCalled();
     verifyDriverCalledForKrb();
-    verifyUiFileParserCalled();
   }
 
   @Test
@@ -173,7 +194,7 @@ public class H2oSpawnerTest {
       throws Exception {
 
     // arrange
-    when(h2oUiFileParser.getFlowUrl("h2o_ui_" + INSTANCE_ID)).thenReturn("127.0.0.1:54321");
+    driverReportsFlowUrl(null);
 
     // act
     H2oCredentials actualH2oCredentials =
@@ -186,61 +207,214 @@ public class H2oSpawnerTest {
     assertThat(actualH2oCredentials.getPassword(), equalTo(H2O_PASSWORD));
     verifyKinitNotCalled();
     verifyDriverCalledForNonKrb();
-    verifyUiFileParserCalled();
   }
 
-  private void verifyKinitCalled() throws Exception {
-    verify(kinitExec, times(1)).loginToKerberos();
+  @Test
+  public void provisionInstance_everythingWorks_driverPortLeaseReleased() throws Exception {
+    // arrange
+    driverReportsFlowUrl(null);
+
+    // act
+    h2oSpawner.provisionInstance(INSTANCE_ID, H2O_MEMORY, H2O_NODES, true, YARN_CONF);
+
+    // assert
+    verify(portsPool, times(1)).release(INSTANCE_ID);
   }
 
-  private void verifyKinitNotCalled() {
-    verifyNoMoreInteractions(kinitExec);
+  @Test
+  public void provisionInstance_portLeaseExpiredDuringKinit_driverLaunchedOnNewLease()
+      throws Exception {
+    // arrange
+    PortLease expired = new PortLease(INSTANCE_ID, DRIVER_CALLBACK_PORT);
+    PortLease renewed = new PortLease(INSTANCE_ID, DRIVER_CALLBACK_PORT + 1);
+    when(portsPool.getPort(INSTANCE_ID)).thenReturn(expired, renewed);
+    doAnswer(invocation -> {
+      expired.revoke();
+      return null;
+    }).when(kinitExec).loginToKerberos();
+    driverReportsFlowUrl(null);
+
+    // act
+    h2oSpawner.provisionInstance(INSTANCE_ID, H2O_MEMORY, H2O_NODES, true, YARN_CONF);
+
+    // assert
+    assertThat(renewed.isConfirmed(), equalTo(true));
+    assertThat(instanceRegistry.get(INSTANCE_ID).get().getDriverPort(),
+        equalTo(DRIVER_CALLBACK_PORT + 1));
   }
 
-  private void verifyDriverCalledForNonKrb() throws Exception {
-    ArgumentCaptor<Configuration> hadoopConfCaptor = ArgumentCaptor.forClass(Configuration.class);
-    verify(h2oDriverExec, times(1)).spawnH2oOnYarn(eq(h2oDriverArgs()), eq(commandEnvVariablesForNonKrb()),
-        hadoopConfCaptor.capture());
-    Configuration yarnConf = hadoopConfCaptor.getValue();
-    assertThat(yarnConf.get("key1"), equalTo("value1"));
-    assertThat(yarnConf.get("key2"), equalTo("value2"));
+  @Test
+  public void provisionInstance_everythingWorks_phasesRecordedAsSucceeded() throws Exception {
+    // arrange
+    driverReportsFlowUrl(null);
+
+    // act
+    h2oSpawner.provisionInstance(INSTANCE_ID, H2O_MEMORY, H2O_NODES, true, YARN_CONF);
+
+    // assert
+    for (String phase : new String[] {"port", "kinit", "driver", "flow_url"}) {
+      assertThat(phaseRuns(phase, "success"), equalTo(1.0));
+      assertThat(phaseRuns(phase, "failure"), equalTo(0.0));
+      assertThat(meterRegistry.get(H2oSpawner.PHASE_METRICS_NAME).tag("phase", phase).timer()
+          .count(), equalTo(1L));
+      assertThat(meterRegistry.get(H2oSpawner.PHASE_METRICS_NAME + ".active")
+          .tag("phase", phase).gauge().value(), equalTo(0.0));
+    }
   }
-  
-  private void verifyDriverCalledForKrb() throws Exception {
-    ArgumentCaptor<Configuration> hadoopConfCaptor = ArgumentCaptor.forClass(Configuration.class);
-    verify(h2oDriverExec, times(1)).spawnH2oOnYarn(eq(h2oDriverArgs()), eq(commandEnvVariablesForKrb()),
-        hadoopConfCaptor.capture());
-    Configuration yarnConf = hadoopConfCaptor.getValue();
-    assertThat(yarnConf.get("key1"), equalTo("value1"));
-    assertThat(yarnConf.get("key2"), equalTo("value2"));
+
+  @Test
+  public void provisionInstance_kinitFails_kinitPhaseRecordedAsFailed() throws Exception {
+    // arrange
+    doThrow(new IOException()).when(kinitExec).loginToKerberos();
+
+    // act
+    try {
+      h2oSpawner.provisionInstance(INSTANCE_ID, H2O_MEMORY, H2O_NODES, true, YARN_CONF);
+    } catch (H2oSpawnerException e) {
+      // expected
+    }
+
+    // assert
+    assertThat(phaseRuns("kinit", "failure"), equalTo(1.0));
+    assertThat(phaseRuns("port", "success"), equalTo(1.0));
   }
 
-  private void verifyUiFileParserCalled() throws IOException {
-    verify(h2oUiFileParser, times(1)).getFlowUrl("h2o_ui_" + INSTANCE_ID);
+  @Test
+  public void provisionInstance_spawnFails_driverPortLeaseReleased() throws Exception {
+    // arrange
+    doThrow(new IOException()).when(h2oDriverExec).spawnH2oOnYarn(eq(h2oDriverArgs()),
+        eq(commandEnvVariablesForKrb()), any(Configuration.class),
+        any(H2oDriverOutputParser.class));
+
+    // act
+    try {
+      h2oSpawner.provisionInstance(INSTANCE_ID, H2O_MEMORY, H2O_NODES, true, YARN_CONF);
+    } catch (H2oSpawnerException e) {
+      // expected
+    }
+
+    // assert
+    verify(portsPool, times(1)).release(INSTANCE_ID);
   }
 
-  private String[] h2oDriverArgs() {
-    return new String[] {
-        // @formatter:off
-        "hadoop", "jar", DRIVER_JAR_PATH, "-driverif", DRIVER_IP, "-driverport",
-        String.valueOf(DRIVER_CALLBACK_PORT), "-mapperXmx", H2O_MEMORY, "-nodes", H2O_NODES,
-        "-output", "/tmp/h2o/" + INSTANCE_ID, "-jobname", "H2O_BROKER_" + INSTANCE_ID, "-notify",
-        "h2o_ui_" + INSTANCE_ID, "-username", H2O_USER, "-password", H2O_PASSWORD, "-disown",
-        // @formatter:on
-    };
+  @Test
+  public void provisionInstance_everythingWorks_applicationIdRegistered() throws Exception {
+    // arrange
+    driverReportsFlowUrl(ApplicationId.newInstance(1457000000000L, 7));
+
+    // act
+    h2oSpawner.provisionInstance(INSTANCE_ID, H2O_MEMORY, H2O_NODES, true, YARN_CONF);
+
+    // assert
+    H2oInstance registered = instanceRegistry.get(INSTANCE_ID).get();
+    assertThat(registered.getApplicationId(), equalTo("application_1457000000000_0007"));
+    assertThat(registered.getDriverPort(), equalTo(DRIVER_CALLBACK_PORT));
+    assertThat(registered.getCredentials().getPort(), equalTo("54321"));
+    assertThat(registered.getState(), equalTo(H2oInstance.State.RUNNING));
   }
 
-  private Configuration hadoopConf(Map<String, String> yarnConf) {
-    Configuration hadoopConf = new Configuration(false);
-    yarnConf.forEach(hadoopConf::set);
-    return hadoopConf;
+  @Test
+  public void provisionInstance_urlBeforeDriverExits_credentialsReturnedApplicationIdRegisteredLater()
+      throws Exception {
+    // arrange
+    ExecutorService driverThread = Executors.newSingleThreadExecutor();
+    h2oSpawner = new H2oSpawner(config(), portsPool, usernameSupplier, passwordSupplier,
+        kinitExec, h2oDriverExec, new HadoopConfigurationCache(4), instanceRegistry,
+        driverThread, meterRegistry);
+    CountDownLatch driverExit = new CountDownLatch(1);
+    doAnswer(invocation -> {
+      H2oDriverOutputParser output = (H2oDriverOutputParser) invocation.getArguments()[3];
+      output.accept("For YARN users, logs command is 'yarn logs -applicationId "
+          + "application_1457000000000_0007'");
+      output.accept(FLOW_URL_LINE);
+      driverExit.await();
+      return output.getApplicationId();
+    }).when(h2oDriverExec).spawnH2oOnYarn(any(String[].class), any(Map.class),
+        any(Configuration.class), any(H2oDriverOutputParser.class));
+
+    // act
+    H2oCredentials actualH2oCredentials =
+        h2oSpawner.provisionInstance(INSTANCE_ID, H2O_MEMORY, H2O_NODES, true, YARN_CONF);
+    H2oInstance beforeExit = instanceRegistry.get(INSTANCE_ID).get();
+    driverExit.countDown();
+    verify(portsPool, timeout(5000).times(1)).release(INSTANCE_ID);
+    driverThread.shutdown();
+
+    // assert
+    assertThat(actualH2oCredentials.getPort(), equalTo("54321"));
+    assertThat(beforeExit.getApplicationId(), equalTo(null));
+    assertThat(instanceRegistry.get(INSTANCE_ID).get().getApplicationId(),
+        equalTo("application_1457000000000_0007"));
   }
 
-  private Map<String, String> commandEnvVariablesForNonKrb() {
-    return ImmutableMap.of("HADOOP_USER_NAME", "cf");
+  @Test
+  public void provisionInstance_driverReportsNothingInTime_driverCancelledTimeoutExceptionThrown()
+      throws Exception {
+    // arrange
+    ExecutorService driverThread = Executors.newSingleThreadExecutor();
+    ExternalConfiguration config = config();
+    config.setH2oDriverFlowUrlTimeoutSeconds("1");
+    h2oSpawner = new H2oSpawner(config, portsPool, usernameSupplier, passwordSupplier, kinitExec,
+        h2oDriverExec, new HadoopConfigurationCache(4), instanceRegistry, driverThread,
+        meterRegistry);
+    CountDownLatch driverCancelled = new CountDownLatch(1);
+    doAnswer(invocation -> {
+      try {
+        Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+      } catch (InterruptedException e) {
+        driverCancelled.countDown();
+        throw e;
+      }
+      return null;
+    }).when(h2oDriverExec).spawnH2oOnYarn(any(String[].class), any(Map.class),
+        any(Configuration.class), any(H2oDriverOutputParser.class));
+
+    // act
+    H2oSpawnerException thrown = null;
+    try {
+      h2oSpawner.provisionInstance(INSTANCE_ID, H2O_MEMORY, H2O_NODES, true, YARN_CONF);
+    } catch (H2oSpawnerException e) {
+      thrown = e;
+    }
+
+    // assert
+    assertThat(thrown instanceof H2oProvisioningTimeoutException, equalTo(true));
+    assertThat(driverCancelled.await(5, TimeUnit.SECONDS), equalTo(true));
+    verify(portsPool, timeout(5000).times(1)).release(INSTANCE_ID);
+    assertThat(instanceRegistry.list().isEmpty(), equalTo(true));
+    driverThread.shutdown();
   }
-  
-  private Map<String, String> commandEnvVariablesForKrb() {
-    return new HashMap<String, String>();
+
+  @Test
+  public void provisionInstance_noFreeDriverThreadInTime_portReleasedTimeoutExceptionThrown()
+      throws Exception {
+    // arrange
+    ExecutorService driverThread = Executors.newSingleThreadExecutor();
+    CountDownLatch earlierDriverExited = new CountDownLatch(1);
+    driverThread.submit(() -> {
+      earlierDriverExited.await();
+      return null;
+    });
+    ExternalConfiguration config = config();
+    config.setH2oDriverFlowUrlTimeoutSeconds("1");
+    h2oSpawner = new H2oSpawner(config, portsPool, usernameSupplier, passwordSupplier, kinitExec,
+        h2oDriverExec, new HadoopConfigurationCache(4), instanceRegistry, driverThread,
+        meterRegistry);
+
+    // act
+    H2oSpawnerException thrown = null;
+    try {
+      h2oSpawner.provisionInstance(INSTANCE_ID, H2O_MEMORY, H2O_NODES, true, YARN_CONF);
+    } catch (H2oSpawnerException e) {
+      thrown = e;
+    }
+    earlierDriverExited.countDown();
+    driverThread.shutdown();
+    driverThread.awaitTermination(5, TimeUnit.SECONDS);
+
+    // assert
+    assertThat(thrown instanceof H2oProvisioningTimeoutException, equalTo(true));
+    verify(portsPool, times(1)).release(INSTANCE_ID);
+    verify(h2oDriverExec, never()).spawnH2oOnYarn(any(String[].class), any(Map.class),
+        any(Configuration.class), any(H2oDriverOutputParser.class));
   }
-}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.service;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.ProvisioningRejectedException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class ProvisioningSchedulerTest {
+
+  private final CountDownLatch started = new CountDownLatch(1);
+  private final CountDownLatch release = new CountDownLatch(1);
+  private SimpleMeterRegistry meterRegistry;
+  private ProvisioningScheduler sut;
+
+  @Before
+  public void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(1));
+    sut = new ProvisioningScheduler(executor, 30, meterRegistry);
+  }
+
+  @After
+  public void tearDown() {
+    release.countDown();
+    sut.shutdown();
+  }
+
+  @Test
+  public void submit_launchSlotFree_taskExecuted() throws Exception {
+    // when
+    Future<String> result = sut.submit(() -> "done");
+
+    // then
+    assertThat(result.get(), equalTo("done"));
+  }
+
+  @Test
+  public void submit_slotBusyAndQueueFull_rejectedWithRetryAfter() throws Exception {
+    // given
+    sut.submit(this::blockingLaunch);
+    started.await(5, TimeUnit.SECONDS);
+    sut.submit(() -> "queued");
+
+    // when
+    try {
+      sut.submit(() -> "rejected");
+      fail("ProvisioningRejectedException expected");
+    } catch (ProvisioningRejectedException e) {
+      // then
+      assertThat(e.getRetryAfterSeconds(), equalTo(30));
+    }
+    assertThat(meterRegistry.get("h2o.provisioning.rejected").counter().count(), equalTo(1.0));
+  }
+
+  @Test
+  public void submit_slotBusy_activeLaunchesAndQueueDepthExported() throws Exception {
+    // given
+    sut.submit(this::blockingLaunch);
+    started.await(5, TimeUnit.SECONDS);
+
+    // when
+    sut.submit(() -> "queued");
+
+    // then
+    assertThat(meterRegistry.get("h2o.provisioning.launches.active").gauge().value(),
+        equalTo(1.0));
+    assertThat(meterRegistry.get("h2o.provisioning.queue.depth").gauge().value(), equalTo(1.0));
+  }
+
+  private String blockingLaunch() throws InterruptedException {
+    started.countDown();
+    release.await(5, TimeUnit.SECONDS);
+    return "launched";
+  }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.service;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class SingleFlightTest {
+
+  private MeterRegistry meterRegistry;
+  private SingleFlight<String> sut;
+
+  @Before
+  public void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    sut = new SingleFlight<>("flights", 60, TimeUnit.SECONDS, meterRegistry);
+  }
+
+  @Test
+  public void begin_flightRunning_flightJoined() throws Exception {
+    // given
+    SingleFlight<String>.Flight leader = sut.begin("a");
+
+    // when
+    SingleFlight<String>.Flight follower = sut.begin("a");
+    leader.complete("result");
+
+    // then
+    assertThat(leader.isLeader(), equalTo(true));
+    assertThat(follower.isLeader(), equalTo(false));
+    assertThat(follower.getId(), equalTo(leader.getId()));
+    assertThat(follower.getResult().get(), equalTo("result"));
+    assertThat(meterRegistry.counter("flights", "result", "joined").count(), equalTo(1.0));
+  }
+
+  @Test
+  public void begin_otherKey_newFlightStarted() {
+    // given
+    SingleFlight<String>.Flight first = sut.begin("a");
+
+    // when
+    SingleFlight<String>.Flight second = sut.begin("b");
+
+    // then
+    assertThat(second.isLeader(), equalTo(true));
+    assertThat(second.getId(), not(equalTo(first.getId())));
+  }
+
+  @Test
+  public void begin_flightSucceeded_resultReturnedFromCache() throws Exception {
+    // given
+    SingleFlight<String>.Flight leader = sut.begin("a");
+    leader.complete("result");
+
+    // when
+    SingleFlight<String>.Flight flight = sut.begin("a");
+
+    // then
+    assertThat(flight.isLeader(), equalTo(false));
+    assertThat(flight.getResult().get(), equalTo("result"));
+    assertThat(meterRegistry.counter("flights", "result", "cached").count(), equalTo(1.0));
+  }
+
+  @Test
+  public void begin_flightFailed_newFlightStarted() {
+    // given
+    sut.begin("a").fail(new IllegalStateException("failed"));
+
+    // when
+    SingleFlight<String>.Flight flight = sut.begin("a");
+
+    // then
+    assertThat(flight.isLeader(), equalTo(true));
+  }
+
+  @Test
+  public void begin_resultForgotten_newFlightStarted() {
+    // given
+    sut.begin("a").complete("result");
+    sut.forget("a");
+
+    // when
+    SingleFlight<String>.Flight flight = sut.begin("a");
+
+    // then
+    assertThat(flight.isLeader(), equalTo(true));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void complete_byFollower_exceptionThrown() {
+    // given
+    sut.begin("a");
+
+    // when
+    sut.begin("a").complete("result");
+  }
+}
@@ -0,0 +1,225 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.service;
+
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.YarnApplicationState;
+import org.junit.Before;
+import org.junit.Test;
+import org.trustedanalytics.servicebroker.h2oprovisioner.cdhclients.HadoopConfigurationCache;
+import org.trustedanalytics.servicebroker.h2oprovisioner.registry.H2oInstance;
+import org.trustedanalytics.servicebroker.h2oprovisioner.registry.InMemoryInstanceRegistry;
+import org.trustedanalytics.servicebroker.h2oprovisioner.registry.InstanceRegistry;
+import org.trustedanalytics.servicebroker.h2oprovisioner.rest.api.H2oCredentials;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.util.MatcherAssertionErrors.assertThat;
+
+public class WarmPoolTest {
+
+  private static final Map<String, String> YARN_CONF = ImmutableMap.of("key", "value");
+  private static final Set<WarmPool.Shape> SHAPES = ImmutableSet.of(new WarmPool.Shape("1g", "2"));
+
+  private final AtomicInteger launched = new AtomicInteger();
+  private H2oSpawner h2oSpawner;
+  private H2oDeprovisioner h2oDeprovisioner;
+  private InstanceRegistry instanceRegistry;
+  private MeterRegistry meterRegistry;
+  private WarmPool sut;
+
+  @Before
+  public void setUp() throws Exception {
+    h2oSpawner = mock(H2oSpawner.class);
+    h2oDeprovisioner = mock(H2oDeprovisioner.class);
+    instanceRegistry = new InMemoryInstanceRegistry();
+    meterRegistry = new SimpleMeterRegistry();
+    HadoopConfigurationCache hadoopConfigurations = new HadoopConfigurationCache(4);
+    String fingerprint = hadoopConfigurations.get(YARN_CONF).getFingerprint().getValue();
+
+    when(h2oSpawner.provisionInstance(anyString(), eq("1g"), eq("2"), anyBoolean(), any()))
+        .thenAnswer(invocation -> {
+          int number = launched.incrementAndGet();
+          H2oCredentials credentials =
+              new H2oCredentials("10.0.0." + number, "54321", "user" + number, "pass");
+          instanceRegistry.put(new H2oInstance((String) invocation.getArguments()[0],
+              ApplicationId.newInstance(1457000000000L, number).toString(), 54300, credentials,
+              0L, H2oInstance.State.RUNNING, fingerprint, false));
+          return credentials;
+        });
+    when(h2oDeprovisioner.getApplicationState(any(), any(), anyBoolean()))
+        .thenReturn(Optional.of(YarnApplicationState.RUNNING));
+
+    // launches run on the calling thread, so the pool is full when take returns
+    sut = new WarmPool(h2oSpawner, h2oDeprovisioner, instanceRegistry, hadoopConfigurations,
+        SHAPES, 2, MoreExecutors.newDirectExecutorService(), 1, TimeUnit.SECONDS, meterRegistry);
+  }
+
+  @Test
+  public void take_shapeNotConfigured_nothingLaunched() throws Exception {
+    // when
+    Optional<H2oCredentials> credentials = sut.take("a", "4g", "2", false, YARN_CONF);
+
+    // then
+    assertThat(credentials.isPresent(), equalTo(false));
+    verify(h2oSpawner, never()).provisionInstance(any(), any(), any(), anyBoolean(), any());
+  }
+
+  @Test
+  public void take_firstRequestOfShape_missAndPoolFilled() throws Exception {
+    // when
+    Optional<H2oCredentials> credentials = sut.take("a", "1g", "2", false, YARN_CONF);
+
+    // then
+    assertThat(credentials.isPresent(), equalTo(false));
+    verify(h2oSpawner, times(2)).provisionInstance(startsWith(WarmPool.WARM_ID_PREFIX),
+        eq("1g"), eq("2"), eq(false), eq(YARN_CONF));
+    assertThat(requests("miss"), equalTo(1.0));
+    assertThat(idle("h2o.warmpool.idle"), equalTo(2.0));
+    assertThat(idle("h2o.warmpool.idle.memory"), equalTo(2 * 2 * 1024.0 * 1024 * 1024));
+  }
+
+  @Test
+  public void take_idleClusterRunning_clusterRegisteredUnderInstanceIdAndReplaced()
+      throws Exception {
+    // given
+    sut.take("a", "1g", "2", false, YARN_CONF);
+
+    // when
+    Optional<H2oCredentials> credentials = sut.take("b", "1g", "2", false, YARN_CONF);
+
+    // then
+    assertThat(credentials.get().getHostname(), equalTo("10.0.0.1"));
+    H2oInstance instance = instanceRegistry.get("b").get();
+    assertThat(instance.getState(), equalTo(H2oInstance.State.RUNNING));
+    assertThat(instance.getApplicationId(),
+        equalTo(ApplicationId.newInstance(1457000000000L, 1).toString()));
+    assertThat(instance.getCredentials(), equalTo(credentials.get()));
+    assertThat(runningWarmInstances(), equalTo(2L));
+    assertThat(requests("hit"), equalTo(1.0));
+    assertThat(launched.get(), equalTo(3));
+  }
+
+  @Test
+  public void take_idleClusterNotRunning_clusterDeprovisionedAndNextOneHandedOut()
+      throws Exception {
+    // given
+    sut.take("a", "1g", "2", false, YARN_CONF);
+    when(h2oDeprovisioner.getApplicationState(any(), any(), anyBoolean()))
+        .thenReturn(Optional.of(YarnApplicationState.KILLED))
+        .thenReturn(Optional.of(YarnApplicationState.RUNNING));
+    String firstWarmId = warmIdOf("10.0.0.1");
+
+    // when
+    Optional<H2oCredentials> credentials = sut.take("b", "1g", "2", false, YARN_CONF);
+
+    // then
+    assertThat(credentials.get().getHostname(), equalTo("10.0.0.2"));
+    verify(h2oDeprovisioner).deprovisionInstance(firstWarmId, YARN_CONF, false);
+  }
+
+  @Test
+  public void shutdown_idleClusters_deprovisioned() throws Exception {
+    // given
+    sut.take("a", "1g", "2", false, YARN_CONF);
+
+    // when
+    sut.shutdown();
+
+    // then
+    verify(h2oDeprovisioner, times(2)).deprovisionInstance(startsWith(WarmPool.WARM_ID_PREFIX),
+        eq(YARN_CONF), eq(false));
+    assertThat(sut.take("b", "1g", "2", false, YARN_CONF).isPresent(), equalTo(false));
+  }
+
+  @Test
+  public void take_warmClusterLeftByPreviousRun_deprovisionedWithFirstRequestOfItsCluster()
+      throws Exception {
+    // given
+    HadoopConfigurationCache hadoopConfigurations = new HadoopConfigurationCache(4);
+    String fingerprint = hadoopConfigurations.get(YARN_CONF).getFingerprint().getValue();
+    instanceRegistry.put(new H2oInstance("warm-left", "application_1457000000000_0099", 54300,
+        null, 0L, H2oInstance.State.RUNNING, fingerprint, true));
+    sut = new WarmPool(h2oSpawner, h2oDeprovisioner, instanceRegistry, hadoopConfigurations,
+        SHAPES, 2, MoreExecutors.newDirectExecutorService(), 1, TimeUnit.SECONDS, meterRegistry);
+
+    // when
+    sut.take("a", "4g", "2", false, YARN_CONF);
+    sut.take("b", "4g", "2", false, YARN_CONF);
+
+    // then
+    verify(h2oDeprovisioner, times(1)).deprovisionInstance("warm-left", YARN_CONF, true);
+  }
+
+  @Test
+  public void parseAll_shapesList_shapesWithMemoryParsed() throws Exception {
+    // when
+    Set<WarmPool.Shape> shapes = WarmPool.Shape.parseAll(" 512m:1, 4g:3,");
+
+    // then
+    assertThat(shapes,
+        contains(new WarmPool.Shape("512m", "1"), new WarmPool.Shape("4g", "3")));
+    assertThat(new WarmPool.Shape("512m", "1").getClusterMemoryBytes(),
+        equalTo(512L * 1024 * 1024));
+    assertThat(new WarmPool.Shape("2048", "2").getClusterMemoryBytes(), equalTo(4096L));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void parseAll_shapeWithoutNodesCount_exceptionThrown() throws Exception {
+    WarmPool.Shape.parseAll("1g");
+  }
+
+  private double requests(String result) {
+    return meterRegistry.get("h2o.warmpool.requests").tag("result", result).counter().count();
+  }
+
+  private double idle(String gauge) {
+    return meterRegistry.get(gauge).tags("memory", "1g", "nodes", "2").gauge().value();
+  }
+
+  private long runningWarmInstances() {
+    return instanceRegistry.list().stream()
+        .filter(i -> i.getInstanceId().startsWith(WarmPool.WARM_ID_PREFIX))
+        .filter(i -> i.getState() == H2oInstance.State.RUNNING).count();
+  }
+
+  private String warmIdOf(String hostname) {
+    return instanceRegistry.list().stream()
+        .filter(i -> i.getCredentials().getHostname().equals(hostname)).findFirst().get()
+        .getInstanceId();
+  }
+}
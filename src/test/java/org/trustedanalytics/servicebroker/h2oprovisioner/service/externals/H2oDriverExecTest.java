@@ -0,0 +1,167 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.service.externals;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.springframework.test.util.MatcherAssertionErrors.assertThat;
+
+public class H2oDriverExecTest {
+
+  private static final String[] COMMAND = {"hadoop", "jar", "h2odriver.jar", "-disown"};
+
+  @Test
+  public void spawnH2oOnYarn_launcherReadsOutput_flowUrlAndApplicationIdFromOutput()
+      throws Exception {
+    // arrange
+    FakeLauncher launcher = new FakeLauncher(true);
+    H2oDriverExec exec = new H2oDriverExec(launcher, new H2oUiFileParser(1, TimeUnit.SECONDS));
+    H2oDriverOutputParser output = new H2oDriverOutputParser();
+
+    // act
+    ApplicationId applicationId =
+        exec.spawnH2oOnYarn(COMMAND, Collections.emptyMap(), new Configuration(false), output);
+
+    // assert
+    assertThat(applicationId, equalTo(ApplicationId.newInstance(1457000000000L, 7)));
+    assertThat(awaitFlowUrl(output), equalTo("10.0.0.1:54321"));
+    assertThat(launcher.command, equalTo(COMMAND));
+  }
+
+  @Test
+  public void spawnH2oOnYarn_launcherDoesNotReadOutput_flowUrlFromNotifyFileDeleted()
+      throws Exception {
+    // arrange
+    FakeLauncher launcher = new FakeLauncher(false);
+    H2oDriverExec exec = new H2oDriverExec(launcher, new H2oUiFileParser(1, TimeUnit.SECONDS));
+    H2oDriverOutputParser output = new H2oDriverOutputParser();
+
+    // act
+    exec.spawnH2oOnYarn(COMMAND, Collections.emptyMap(), new Configuration(false), output);
+
+    // assert
+    assertThat(awaitFlowUrl(output), equalTo("10.0.0.1:54321"));
+    assertThat(launcher.command[COMMAND.length], equalTo("-notify"));
+    assertThat(Files.exists(Paths.get(launcher.command[COMMAND.length + 1])), equalTo(false));
+  }
+
+  @Test
+  public void spawnH2oOnYarn_notifyFileWrittenAfterDriverExits_flowUrlFromNotifyFile()
+      throws Exception {
+    // arrange
+    FakeLauncher launcher = new FakeLauncher(false);
+    launcher.notifyDelayMillis = 700;
+    H2oDriverExec exec =
+        new H2oDriverExec(launcher, new H2oUiFileParser(5, TimeUnit.SECONDS));
+    H2oDriverOutputParser output = new H2oDriverOutputParser();
+
+    // act
+    exec.spawnH2oOnYarn(COMMAND, Collections.emptyMap(), new Configuration(false), output);
+
+    // assert
+    assertThat(awaitFlowUrl(output), equalTo("10.0.0.1:54321"));
+  }
+
+  @Test(expected = IOException.class)
+  public void spawnH2oOnYarn_notifyFileNotWrittenInTime_exceptionThrown() throws Exception {
+    // arrange
+    FakeLauncher launcher = new FakeLauncher(false);
+    launcher.notifyDelayMillis = -1;
+    H2oDriverExec exec =
+        new H2oDriverExec(launcher, new H2oUiFileParser(1, TimeUnit.SECONDS));
+
+    // act
+    exec.spawnH2oOnYarn(COMMAND, Collections.emptyMap(), new Configuration(false),
+        new H2oDriverOutputParser());
+  }
+
+  @Test(expected = ExternalProcessException.class)
+  public void spawnH2oOnYarn_driverFails_exceptionThrown() throws Exception {
+    // arrange
+    FakeLauncher launcher = new FakeLauncher(true);
+    launcher.exitCode = 1;
+    H2oDriverExec exec = new H2oDriverExec(launcher, new H2oUiFileParser(1, TimeUnit.SECONDS));
+
+    // act
+    exec.spawnH2oOnYarn(COMMAND, Collections.emptyMap(), new Configuration(false),
+        new H2oDriverOutputParser());
+  }
+
+  private static String awaitFlowUrl(H2oDriverOutputParser output) throws Exception {
+    return output.awaitFlowUrl(new CompletableFuture<>(), 1, TimeUnit.SECONDS);
+  }
+
+  private static class FakeLauncher implements H2oDriverLauncher {
+    private final boolean readsOutput;
+    private String[] command;
+    private int exitCode;
+    // disowned driver writes notify file after it exits, negative means never
+    private long notifyDelayMillis;
+
+    private FakeLauncher(boolean readsOutput) {
+      this.readsOutput = readsOutput;
+    }
+
+    @Override
+    public int launch(String[] command, Map<String, String> envVariables,
+        Configuration hadoopConf, Consumer<String> outputListener) throws IOException {
+      this.command = command;
+      if (readsOutput) {
+        outputListener.accept("For YARN users, logs command is 'yarn logs -applicationId "
+            + "application_1457000000000_0007'");
+        outputListener.accept("Open H2O Flow in your web browser: http://10.0.0.1:54321");
+      } else {
+        int notify = Arrays.asList(command).indexOf("-notify");
+        Path notifyFile = Paths.get(command[notify + 1]);
+        if (notifyDelayMillis == 0) {
+          writeNotifyFile(notifyFile);
+        } else if (notifyDelayMillis > 0) {
+          CompletableFuture.runAsync(() -> {
+            try {
+              Thread.sleep(notifyDelayMillis);
+              writeNotifyFile(notifyFile);
+            } catch (InterruptedException | IOException e) {
+              throw new IllegalStateException(e);
+            }
+          });
+        }
+      }
+      return exitCode;
+    }
+
+    private static void writeNotifyFile(Path notifyFile) throws IOException {
+      Files.write(notifyFile, "10.0.0.1:54321\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public boolean readsOutput() {
+      return readsOutput;
+    }
+  }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.service.externals;
+
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.springframework.test.util.MatcherAssertionErrors.assertThat;
+
+public class H2oDriverOutputParserTest {
+
+  @Test
+  public void accept_yarnLogsHint_applicationIdParsed() {
+    // arrange
+    H2oDriverOutputParser parser = new H2oDriverOutputParser();
+
+    // act
+    parser.accept("Determining driver host interface for mapper->driver callback...");
+    parser.accept("For YARN users, logs command is 'yarn logs -applicationId "
+        + "application_1457000000000_0042'");
+
+    // assert
+    assertThat(parser.getApplicationId(),
+        equalTo(ApplicationId.newInstance(1457000000000L, 42)));
+  }
+
+  @Test
+  public void accept_onlyJobIdPrinted_applicationIdParsedFromJobId() {
+    // arrange
+    H2oDriverOutputParser parser = new H2oDriverOutputParser();
+
+    // act
+    parser.accept("Job name 'H2O_BROKER_instance' submitted");
+    parser.accept("JobTracker job ID is 'job_1457000000000_0042'");
+
+    // assert
+    assertThat(parser.getApplicationId(),
+        equalTo(ApplicationId.newInstance(1457000000000L, 42)));
+  }
+
+  @Test
+  public void accept_noIdPrinted_applicationIdNull() {
+    // arrange
+    H2oDriverOutputParser parser = new H2oDriverOutputParser();
+
+    // act
+    parser.accept("Open H2O Flow in your web browser: 10.0.0.1:54321");
+
+    // assert
+    assertThat(parser.getApplicationId(), nullValue());
+  }
+
+  @Test
+  public void accept_flowUrlPrinted_flowUrlReturnedBeforeDriverExits() throws Exception {
+    // arrange
+    H2oDriverOutputParser parser = new H2oDriverOutputParser();
+
+    // act
+    parser.accept("Waiting for H2O cluster to come up...");
+    parser.accept("H2O cluster (2 nodes) is up");
+    parser.accept("Open H2O Flow in your web browser: http://10.0.0.1:54321");
+    String flowUrl = parser.awaitFlowUrl(new CompletableFuture<>(), 1, TimeUnit.SECONDS);
+
+    // assert
+    assertThat(flowUrl, equalTo("10.0.0.1:54321"));
+    assertThat(parser.getProgress(), equalTo(H2oDriverOutputParser.Progress.CLOUD_UP));
+  }
+
+  @Test(expected = TimeoutException.class)
+  public void awaitFlowUrl_driverRunsWithoutFlowUrl_timeoutExceptionThrown() throws Exception {
+    // arrange
+    H2oDriverOutputParser parser = new H2oDriverOutputParser();
+    parser.accept("Waiting for H2O cluster to come up...");
+
+    // act
+    parser.awaitFlowUrl(new CompletableFuture<>(), 100, TimeUnit.MILLISECONDS);
+  }
+
+  @Test(expected = IOException.class)
+  public void awaitFlowUrl_driverFailed_exceptionThrown() throws Exception {
+    // arrange
+    H2oDriverOutputParser parser = new H2oDriverOutputParser();
+    CompletableFuture<ApplicationId> driver = new CompletableFuture<>();
+    driver.completeExceptionally(new ExternalProcessException("h2odriver.jar exited with code 1"));
+
+    // act
+    parser.awaitFlowUrl(driver, 1, TimeUnit.SECONDS);
+  }
+
+  @Test(expected = IOException.class)
+  public void awaitFlowUrl_driverExitedWithoutFlowUrl_exceptionThrown() throws Exception {
+    // arrange
+    H2oDriverOutputParser parser = new H2oDriverOutputParser();
+
+    // act
+    parser.awaitFlowUrl(CompletableFuture.completedFuture(null), 1, TimeUnit.SECONDS);
+  }
+}
@@ -14,13 +14,21 @@
 
 package org.trustedanalytics.servicebroker.h2oprovisioner.service.externals;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static org.hamcrest.Matchers.equalTo;
 import static org.mockito.Mockito.mock;
@@ -30,6 +38,9 @@ import static org.springframework.test.util.MatcherAssertionErrors.assertThat;
 @RunWith(MockitoJUnitRunner.class)
 public class H2oUiFileParserTest {
 
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
   private BufferedReader FAKE_H2O_FILE = new BufferedReader(new StringReader(
       // @formatter:off
       "first line\n" + "second line\n" + "third line\n"
@@ -51,4 +62,82 @@ public class H2oUiFileParserTest {
     H2oUiFileParser h2oUiFileParser = new H2oUiFileParser();
     h2oUiFileParser.getFlowUrl(file);
   }
+
+  @Test(expected = IOException.class)
+  public void getFlowUrl_emptyFile_exceptionThrown() throws IOException {
+    H2oUiFileParser h2oUiFileParser = new H2oUiFileParser();
+    h2oUiFileParser.getFlowUrl(new BufferedReader(new StringReader("")));
+  }
+
+  @Test
+  public void awaitFlowUrl_lineWrittenWhileDriverRuns_returnsLineBeforeDriverExits()
+      throws Exception {
+    Path uiFile = folder.getRoot().toPath().resolve("h2o_ui");
+    CompletableFuture<Void> driver = new CompletableFuture<>();
+    Thread writer = writeLater(uiFile, "10.0.0.1:54321\n");
+
+    H2oUiFileParser h2oUiFileParser = new H2oUiFileParser(10, TimeUnit.SECONDS);
+    String actualUrl = h2oUiFileParser.awaitFlowUrl(uiFile.toString(), driver);
+
+    assertThat(actualUrl, equalTo("10.0.0.1:54321"));
+    assertThat(driver.isDone(), equalTo(false));
+    writer.join();
+  }
+
+  @Test(expected = TimeoutException.class)
+  public void awaitFlowUrl_lineNeverCompleted_timeoutExceptionThrown() throws Exception {
+    Path uiFile = folder.newFile("h2o_ui").toPath();
+    Files.write(uiFile, "10.0.0.1:543".getBytes(StandardCharsets.UTF_8));
+
+    H2oUiFileParser h2oUiFileParser = new H2oUiFileParser(300, TimeUnit.MILLISECONDS);
+    h2oUiFileParser.awaitFlowUrl(uiFile.toString(), new CompletableFuture<Void>());
+  }
+
+  @Test(expected = IOException.class)
+  public void awaitFlowUrl_driverFailed_exceptionThrown() throws Exception {
+    Path uiFile = folder.getRoot().toPath().resolve("h2o_ui");
+    CompletableFuture<Void> driver = new CompletableFuture<>();
+    driver.completeExceptionally(new IOException("h2odriver exited with 1"));
+
+    H2oUiFileParser h2oUiFileParser = new H2oUiFileParser(10, TimeUnit.SECONDS);
+    h2oUiFileParser.awaitFlowUrl(uiFile.toString(), driver);
+  }
+
+  @Test
+  public void awaitFlowUrl_driverExitedWithoutNewline_returnsFirstLine() throws Exception {
+    Path uiFile = folder.newFile("h2o_ui").toPath();
+    Files.write(uiFile, "10.0.0.1:54321".getBytes(StandardCharsets.UTF_8));
+
+    H2oUiFileParser h2oUiFileParser = new H2oUiFileParser(10, TimeUnit.SECONDS);
+    String actualUrl =
+        h2oUiFileParser.awaitFlowUrl(uiFile.toString(), CompletableFuture.completedFuture(null));
+
+    assertThat(actualUrl, equalTo("10.0.0.1:54321"));
+  }
+
+  @Test
+  public void awaitFlowUrl_noDriverLineCompletedLater_returnsCompleteLine() throws Exception {
+    Path uiFile = folder.newFile("h2o_ui").toPath();
+    Files.write(uiFile, "10.0.0.1:543".getBytes(StandardCharsets.UTF_8));
+    Thread writer = writeLater(uiFile, "10.0.0.1:54321\n");
+
+    H2oUiFileParser h2oUiFileParser = new H2oUiFileParser(10, TimeUnit.SECONDS);
+    String actualUrl = h2oUiFileParser.awaitFlowUrl(uiFile.toString());
+
+    assertThat(actualUrl, equalTo("10.0.0.1:54321"));
+    writer.join();
+  }
+
+  private static Thread writeLater(Path file, String content) {
+    Thread writer = new Thread(() -> {
+      try {
+        Thread.sleep(100);
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    });
+    writer.start();
+    return writer;
+  }
 }
@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.service.externals;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.springframework.test.util.MatcherAssertionErrors.assertThat;
+
+public class HadoopConfDirsTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File baseConfDir;
+  private Path root;
+
+  @Before
+  public void setUp() throws IOException {
+    baseConfDir = folder.newFolder("base");
+    Files.write(baseConfDir.toPath().resolve("core-site.xml"), "core".getBytes());
+    Files.write(baseConfDir.toPath().resolve("yarn-site.xml"), "base yarn".getBytes());
+    root = folder.newFolder("dirs").toPath();
+  }
+
+  @Test
+  public void acquire_newConfiguration_baseFilesCopiedAndYarnSiteWritten() throws IOException {
+    // arrange
+    HadoopConfDirs confDirs = new HadoopConfDirs(baseConfDir.getPath(), root, 2);
+
+    // act
+    try (HadoopConfDirs.Lease lease = confDirs.acquire(conf("a", "1"))) {
+
+      // assert
+      Path dir = lease.getPath();
+      assertThat(new String(Files.readAllBytes(dir.resolve("core-site.xml"))), equalTo("core"));
+      assertThat(new String(Files.readAllBytes(dir.resolve("yarn-site.xml"))),
+          not(equalTo("base yarn")));
+    }
+  }
+
+  @Test
+  public void acquire_sameConfiguration_directoryReused() throws IOException {
+    // arrange
+    HadoopConfDirs confDirs = new HadoopConfDirs(baseConfDir.getPath(), root, 2);
+    Path first;
+    try (HadoopConfDirs.Lease lease = confDirs.acquire(conf("a", "1"))) {
+      first = lease.getPath();
+    }
+
+    // act
+    try (HadoopConfDirs.Lease lease = confDirs.acquire(conf("a", "1"))) {
+
+      // assert
+      assertThat(lease.getPath(), equalTo(first));
+      assertThat(confDirs.size(), equalTo(1));
+    }
+  }
+
+  @Test
+  public void close_tooManyDirectories_leastRecentlyUsedDeleted() throws IOException {
+    // arrange
+    HadoopConfDirs confDirs = new HadoopConfDirs(baseConfDir.getPath(), root, 1);
+    HadoopConfDirs.Lease inUse = confDirs.acquire(conf("a", "1"));
+
+    // act
+    HadoopConfDirs.Lease other = confDirs.acquire(conf("a", "2"));
+    other.close();
+
+    // assert
+    assertThat(Files.isDirectory(inUse.getPath()), equalTo(true));
+    assertThat(Files.exists(other.getPath()), equalTo(false));
+
+    inUse.close();
+  }
+
+  @Test
+  public void close_tooManyDirectories_nothingLeftBehindInRoot() throws IOException {
+    // arrange
+    HadoopConfDirs confDirs = new HadoopConfDirs(baseConfDir.getPath(), root, 1);
+    HadoopConfDirs.Lease kept = confDirs.acquire(conf("a", "1"));
+    kept.close();
+
+    // act
+    confDirs.acquire(conf("a", "2")).close();
+
+    // assert
+    try (Stream<Path> entries = Files.list(root)) {
+      assertThat(entries.count(), equalTo(1L));
+    }
+  }
+
+  @Test
+  public void new_rootWithDirectoriesOfPreviousRun_directoryReusedLeftoversDeleted()
+      throws IOException {
+    // arrange
+    Path previous;
+    try (HadoopConfDirs.Lease lease =
+        new HadoopConfDirs(baseConfDir.getPath(), root, 2).acquire(conf("a", "1"))) {
+      previous = lease.getPath();
+    }
+    Path leftover = Files.createDirectory(root.resolve(previous.getFileName() + ".tmp123"));
+
+    // act
+    HadoopConfDirs confDirs = new HadoopConfDirs(baseConfDir.getPath(), root, 2);
+
+    // assert
+    assertThat(confDirs.size(), equalTo(1));
+    assertThat(Files.exists(leftover), equalTo(false));
+    try (HadoopConfDirs.Lease lease = confDirs.acquire(conf("a", "1"))) {
+      assertThat(lease.getPath(), equalTo(previous));
+    }
+  }
+
+  @Test
+  public void hash_sameEntriesInDifferentOrder_sameHash() {
+    Configuration first = conf("a", "1");
+    first.set("b", "2");
+    Configuration second = conf("b", "2");
+    second.set("a", "1");
+
+    assertThat(HadoopConfDirs.hash(first), equalTo(HadoopConfDirs.hash(second)));
+  }
+
+  private static Configuration conf(String key, String value) {
+    Configuration conf = new Configuration(false);
+    conf.set(key, value);
+    return conf;
+  }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.service.externals;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.helpers.ProcessTimeoutException;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.contains;
+import static org.springframework.test.util.MatcherAssertionErrors.assertThat;
+
+public class InProcessH2oDriverLauncherTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void toUrls_wildcardEntry_jarsOfDirectoryReturned() throws IOException {
+    // arrange
+    File conf = folder.newFolder("conf");
+    File lib = folder.newFolder("lib");
+    File b = new File(lib, "b.jar");
+    File a = new File(lib, "a.jar");
+    b.createNewFile();
+    a.createNewFile();
+    new File(lib, "readme.txt").createNewFile();
+
+    // act
+    List<URL> urls = InProcessH2oDriverLauncher
+        .toUrls(conf.getPath() + File.pathSeparator + lib.getPath() + File.separator + "*");
+
+    // assert
+    assertThat(urls, contains(conf.toURI().toURL(), a.toURI().toURL(), b.toURI().toURL()));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void launch_notHadoopJarCommand_exceptionThrown() throws IOException {
+    new InProcessH2oDriverLauncher("", MoreExecutors.newDirectExecutorService(), 1,
+        TimeUnit.SECONDS).launch(new String[] {"h2odriver"},
+        Collections.emptyMap(), new Configuration(false), line -> {});
+  }
+
+  @Test(expected = ProcessTimeoutException.class)
+  public void launch_driverNotStartedInTime_timeoutExceptionThrown() throws IOException {
+    // arrange
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    CountDownLatch busy = new CountDownLatch(1);
+    executor.submit(() -> {
+      busy.await();
+      return null;
+    });
+    InProcessH2oDriverLauncher launcher =
+        new InProcessH2oDriverLauncher("", executor, 100, TimeUnit.MILLISECONDS);
+
+    // act
+    try {
+      launcher.launch(new String[] {"hadoop", "jar", "h2odriver.jar"}, Collections.emptyMap(),
+          new Configuration(false), line -> {});
+    } finally {
+      busy.countDown();
+      executor.shutdownNow();
+    }
+  }
+}
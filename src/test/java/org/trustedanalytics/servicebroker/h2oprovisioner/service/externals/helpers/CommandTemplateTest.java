@@ -0,0 +1,51 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.helpers;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.springframework.test.util.MatcherAssertionErrors.assertThat;
+
+public class CommandTemplateTest {
+
+  private final CommandTemplate template =
+      CommandTemplate.builder().arg("hadoop", "jar").slot().arg("-nodes").slot().build();
+
+  @Test
+  public void fill_values_slotsReplacedInOrder() {
+    // act
+    String[] command = template.fill("h2odriver.jar", "3");
+
+    // assert
+    assertThat(command, equalTo(new String[] {"hadoop", "jar", "h2odriver.jar", "-nodes", "3"}));
+  }
+
+  @Test
+  public void fill_calledTwice_templateNotModified() {
+    // arrange
+    template.fill("first.jar", "1");
+
+    // act
+    String[] command = template.fill("second.jar", "2");
+
+    // assert
+    assertThat(command, equalTo(new String[] {"hadoop", "jar", "second.jar", "-nodes", "2"}));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void fill_wrongNumberOfValues_exceptionThrown() {
+    template.fill("h2odriver.jar");
+  }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.helpers;
+
+import org.junit.After;
+import org.junit.Test;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.springframework.test.util.MatcherAssertionErrors.assertThat;
+
+public class ExternalProcessExecutorTest {
+
+  private static final String[] HANGING_COMMAND = {"sh", "-c", "sleep 60; echo done"};
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final ExternalProcessExecutor sut =
+      new ExternalProcessExecutor(new ProcessOutputPump(4, 8192, 10), meterRegistry);
+
+  @After
+  public void tearDown() {
+    sut.shutdown();
+  }
+
+  @Test
+  public void runCommand_commandFinishes_exitCodeReturned() throws IOException {
+    int exitCode = sut.runCommand("sh", new String[] {"sh", "-c", "exit 3"},
+        Collections.emptyMap(), 5, TimeUnit.SECONDS);
+
+    assertThat(exitCode, equalTo(3));
+  }
+
+  @Test
+  public void runCommand_commandFinishes_timeRecordedInGivenRegistry() throws IOException {
+    sut.runCommand("sh", new String[] {"sh", "-c", "exit 0"}, Collections.emptyMap(), 5,
+        TimeUnit.SECONDS);
+
+    assertThat(meterRegistry.get("h2o.external.command").tags("command", "sh", "outcome",
+        "success").timer().count(), equalTo(1L));
+  }
+
+  @Test
+  public void waitFor_deadlineMissed_processKilledTimeoutExceptionThrown() throws IOException {
+    // arrange
+    ExternalProcess process = sut.start("sh", HANGING_COMMAND,
+        Collections.emptyMap(), line -> {}, line -> {});
+
+    // act
+    boolean timedOut = false;
+    try {
+      process.waitFor(200, TimeUnit.MILLISECONDS);
+    } catch (ProcessTimeoutException e) {
+      timedOut = true;
+    }
+
+    // assert
+    assertThat(timedOut, equalTo(true));
+    assertThat(process.isAlive(), equalTo(false));
+  }
+
+  @Test
+  public void waitFor_threadInterrupted_processKilledInterruptFlagKept() throws IOException {
+    // arrange
+    ExternalProcess process = sut.start("sh", HANGING_COMMAND,
+        Collections.emptyMap(), line -> {}, line -> {});
+    Thread.currentThread().interrupt();
+
+    // act
+    boolean cancelled = false;
+    try {
+      process.waitFor(5, TimeUnit.SECONDS);
+    } catch (InterruptedIOException e) {
+      cancelled = true;
+    }
+
+    // assert
+    assertThat(cancelled, equalTo(true));
+    assertThat(Thread.interrupted(), equalTo(true));
+    assertThat(process.isAlive(), equalTo(false));
+  }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.helpers;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.springframework.test.util.MatcherAssertionErrors.assertThat;
+
+public class LaunchEnvironmentTest {
+
+  @Test
+  public void toArray_noOverrides_systemEnvironmentReturned() {
+    // act
+    String[] env = LaunchEnvironment.system().toArray();
+
+    // assert
+    assertThat(env.length, equalTo(System.getenv().size()));
+    Map.Entry<String, String> variable = System.getenv().entrySet().iterator().next();
+    assertThat(Arrays.asList(env), hasItem(variable.getKey() + "=" + variable.getValue()));
+  }
+
+  @Test
+  public void toArray_newVariable_variableAdded() {
+    // act
+    String[] env = LaunchEnvironment.system().with("H2O_TEST_VARIABLE", "value").toArray();
+
+    // assert
+    assertThat(env.length, equalTo(System.getenv().size() + 1));
+    assertThat(Arrays.asList(env), hasItem("H2O_TEST_VARIABLE=value"));
+  }
+
+  @Test
+  public void toArray_existingVariable_variableReplaced() {
+    // arrange
+    String name = System.getenv().keySet().iterator().next();
+
+    // act
+    List<String> env =
+        Arrays.asList(LaunchEnvironment.system().with(name, "overridden").toArray());
+
+    // assert
+    assertThat(env.size(), equalTo(System.getenv().size()));
+    assertThat(env, hasItem(name + "=overridden"));
+    assertThat(env, not(hasItem(name + "=" + System.getenv(name))));
+  }
+
+  @Test
+  public void with_laterOverride_earlierOneReplacedAndOriginalUnchanged() {
+    // arrange
+    LaunchEnvironment first = LaunchEnvironment.system().with(ImmutableMap.of("A", "1", "B", "2"));
+
+    // act
+    LaunchEnvironment second = first.with("B", "3");
+
+    // assert
+    assertThat(second.getOverrides(), equalTo(ImmutableMap.of("A", "1", "B", "3")));
+    assertThat(first.getOverrides(), equalTo(ImmutableMap.of("A", "1", "B", "2")));
+  }
+
+  @Test
+  public void with_noVariables_sameEnvironmentReturned() {
+    // act
+    LaunchEnvironment env = LaunchEnvironment.system().with(ImmutableMap.of());
+
+    // assert
+    assertThat(env, sameInstance(LaunchEnvironment.system()));
+  }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.trustedanalytics.servicebroker.h2oprovisioner.service.externals.helpers;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.springframework.test.util.MatcherAssertionErrors.assertThat;
+
+public class ProcessOutputPumpTest {
+
+  @Test
+  public void drain_processPrintsToBothStreams_linesPassedToListeners() throws Exception {
+    // arrange
+    ProcessOutputPump pump = new ProcessOutputPump(2, 64, 10);
+    List<String> stdout = Collections.synchronizedList(new ArrayList<>());
+    List<String> stderr = Collections.synchronizedList(new ArrayList<>());
+    Process process = new ProcessBuilder("sh", "-c",
+        "echo first; echo error >&2; sleep 0.1; printf last").start();
+
+    // act
+    ProcessOutputPump.Output output = pump.drain("test", process, stdout::add, stderr::add);
+
+    // assert
+    assertThat(output.await(5, TimeUnit.SECONDS), equalTo(true));
+    assertThat(stdout, contains("first", "last"));
+    assertThat(stderr, contains("error"));
+  }
+
+  @Test
+  public void drain_lineLongerThanBuffer_linePassedInPieces() throws Exception {
+    // arrange
+    ProcessOutputPump pump = new ProcessOutputPump(2, 4, 10);
+    List<String> stdout = Collections.synchronizedList(new ArrayList<>());
+    Process process = new ProcessBuilder("sh", "-c", "echo abcdefghij").start();
+
+    // act
+    ProcessOutputPump.Output output = pump.drain("test", process, stdout::add, line -> {});
+
+    // assert
+    assertThat(output.await(5, TimeUnit.SECONDS), equalTo(true));
+    assertThat(stdout, contains("abcd", "efgh", "ij"));
+  }
+
+  @Test
+  public void drain_processPrintsMoreLinesThanKept_onlyLastLinesKept() throws Exception {
+    // arrange
+    ProcessOutputPump pump = new ProcessOutputPump(2, 64, 3);
+    Process process = new ProcessBuilder("sh", "-c", "for i in 1 2 3 4 5; do echo $i; done")
+        .start();
+
+    // act
+    ProcessOutputPump.Output output = pump.drain("test", process, line -> {}, line -> {});
+
+    // assert
+    assertThat(output.await(5, TimeUnit.SECONDS), equalTo(true));
+    assertThat(output.recentLines(), contains("3", "4", "5"));
+  }
+
+  @Test
+  public void drain_moreStreamsThanReaders_allStreamsDrained() throws Exception {
+    // arrange
+    ProcessOutputPump pump = new ProcessOutputPump(1, 64, 10);
+    List<String> stdout = Collections.synchronizedList(new ArrayList<>());
+    Process first = new ProcessBuilder("sh", "-c", "echo first").start();
+    Process second = new ProcessBuilder("sh", "-c", "echo second").start();
+
+    // act
+    ProcessOutputPump.Output firstOutput = pump.drain("first", first, stdout::add, line -> {});
+    ProcessOutputPump.Output secondOutput =
+        pump.drain("second", second, stdout::add, line -> {});
+
+    // assert
+    assertThat(firstOutput.await(5, TimeUnit.SECONDS), equalTo(true));
+    assertThat(secondOutput.await(5, TimeUnit.SECONDS), equalTo(true));
+    assertThat(stdout, containsInAnyOrder("first", "second"));
+  }
+}